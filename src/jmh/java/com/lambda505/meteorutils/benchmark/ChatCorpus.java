@@ -0,0 +1,119 @@
+package com.lambda505.meteorutils.benchmark;
+
+import net.minecraft.text.ClickEvent;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Style;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+
+import java.util.Random;
+
+/**
+ * Deterministic chat corpora modelled on the formats the chat modules see in practice.
+ * The same seed always produces the same messages, so results are comparable between runs.
+ */
+public class ChatCorpus {
+    public static final int SIZE = 4096; // Power of two, benchmarks wrap with a mask
+
+    /**
+     * Server chat formats
+     */
+    public enum Scenario {
+        /** {@code <Name> message} and vanilla whispers */
+        Vanilla,
+        /** Rank prefixes and {@code [Name -> You]} private messages */
+        Essentials,
+        /** {@code <Name> message}, {@code Name whispers:} and lower case {@code to Name:} */
+        Anarchy,
+        /** Bot spam, join messages and numbers that are not coordinates */
+        Spam
+    }
+
+    private static final String[] NAMES = {
+        "Steve", "Alex", "xX_Sniper_Xx", "popbob", "Fit", "hausemaster", "jared2013", "Tagu_",
+        "0x22", "Notch", "Dinnerbone", "a", "ThisNameIs16Long", "Crafty_Builder", "l0l", "Mc_Player_99"
+    };
+    private static final String[] RANKS = {"[Member] ", "[VIP] ", "[Admin] ", "[Mod] ", ""};
+    private static final String[] WORDS = {
+        "hello", "anyone", "at", "spawn", "the", "base", "is", "near", "come", "here", "lol", "gg",
+        "where", "are", "you", "going", "stash", "highway", "nether", "dupe", "when", "trading", "for",
+        "shulkers", "meet", "me", "on", "the", "ring", "road", "ok", "thanks"
+    };
+
+    public final String[] messages = new String[SIZE];
+    public final Text[] texts = new Text[SIZE];
+
+    public ChatCorpus(Scenario scenario) {
+        this(scenario, 0x1A3B5C7DL);
+    }
+
+    public ChatCorpus(Scenario scenario, long seed) {
+        Random random = new Random(seed ^ scenario.ordinal());
+        for (int i = 0; i < SIZE; i++) {
+            String name = NAMES[random.nextInt(NAMES.length)];
+            String body = words(random, 2 + random.nextInt(10));
+            int roll = random.nextInt(100);
+
+            switch (scenario) {
+                case Vanilla -> {
+                    if (roll < 70) set(i, "<", name, "> " + body);
+                    else if (roll < 80) set(i, "", name, " whispers to you: " + body);
+                    else if (roll < 85) set(i, "You whisper to ", name, ": " + body);
+                    else set(i, "<", name, "> base at " + coords(random));
+                }
+                case Essentials -> {
+                    String rank = RANKS[random.nextInt(RANKS.length)];
+                    if (roll < 65) set(i, rank, name, ": " + body);
+                    else if (roll < 80) set(i, "[", name, " -> You] " + body);
+                    else if (roll < 90) set(i, "[You -> ", name, "] " + body);
+                    else set(i, rank, name, ": x: " + random.nextInt(30000) + " y: 64 z: " + -random.nextInt(30000));
+                }
+                case Anarchy -> {
+                    if (roll < 70) set(i, "<", name, "> " + body);
+                    else if (roll < 80) set(i, "", name, " whispers: " + body);
+                    else if (roll < 85) set(i, "to ", name, ": " + body);
+                    else set(i, "<", name, "> (" + coords(random).replace(' ', ',') + ")");
+                }
+                case Spam -> {
+                    if (roll < 40) {
+                        set(i, "<", name, "> " + "discord.gg/" + Long.toHexString(random.nextLong())
+                            + " " + body.toUpperCase() + " " + body.toUpperCase() + " !!!!!!!!");
+                    } else if (roll < 60) {
+                        messages[i] = name + " joined the game";
+                        texts[i] = Text.literal(messages[i]).formatted(Formatting.YELLOW);
+                    } else if (roll < 80) {
+                        set(i, "<", name, "> " + random.nextInt(100) + " " + random.nextInt(100) + " "
+                            + random.nextInt(100) + " " + random.nextInt(100) + " " + random.nextInt(100));
+                    } else {
+                        set(i, "<", name, "> " + "░▒▓ " + body + " ▓▒░".repeat(6));
+                    }
+                }
+            }
+        }
+    }
+
+    // Builds the flattened message and a Text whose name component carries the usual styles
+    private void set(int i, String prefix, String name, String suffix) {
+        messages[i] = prefix + name + suffix;
+
+        MutableText text = Text.literal(prefix);
+        text.append(Text.literal(name).setStyle(Style.EMPTY
+            .withInsertion(name)
+            .withClickEvent(new ClickEvent(ClickEvent.Action.SUGGEST_COMMAND, "/msg " + name + " "))));
+        text.append(Text.literal(suffix));
+        texts[i] = text;
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) builder.append(' ');
+            builder.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return builder.toString();
+    }
+
+    private static String coords(Random random) {
+        return (random.nextInt(60000) - 30000) + " " + random.nextInt(256) + " " + (random.nextInt(60000) - 30000);
+    }
+}
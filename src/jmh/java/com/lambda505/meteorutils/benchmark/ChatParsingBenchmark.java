@@ -0,0 +1,60 @@
+package com.lambda505.meteorutils.benchmark;
+
+import com.lambda505.meteorutils.utils.ChatMessageUtils;
+import com.lambda505.meteorutils.utils.ClientContext;
+import com.lambda505.meteorutils.utils.CoordScanner;
+import com.lambda505.meteorutils.utils.PrivateMessageMatcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message cost of the chat parsing done for every received message.
+ * Each invocation handles the next message of the corpus.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ChatParsingBenchmark {
+    @Param({"Vanilla", "Essentials", "Anarchy", "Spam"})
+    public ChatCorpus.Scenario scenario;
+
+    private ChatCorpus corpus;
+    private final CoordScanner scanner = new CoordScanner();
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        ClientContext.set(ClientContext.HEADLESS);
+        corpus = new ChatCorpus(scenario);
+    }
+
+    private int next() {
+        return cursor = (cursor + 1) & (ChatCorpus.SIZE - 1);
+    }
+
+    @Benchmark
+    public PrivateMessageMatcher.MatchResult matchPrivateMessage() {
+        return PrivateMessageMatcher.match(corpus.messages[next()]);
+    }
+
+    @Benchmark
+    public String cleanPlayerName() {
+        return PrivateMessageMatcher.cleanPlayerName(corpus.messages[next()]);
+    }
+
+    @Benchmark
+    public String extractPlayerNameFromString() {
+        return ChatMessageUtils.extractPlayerName(corpus.messages[next()]);
+    }
+
+    @Benchmark
+    public String extractPlayerNameFromText() {
+        return ChatMessageUtils.extractPlayerName(corpus.texts[next()]);
+    }
+
+    @Benchmark
+    public int scanCoordinates() {
+        return scanner.scan(corpus.messages[next()], true);
+    }
+}
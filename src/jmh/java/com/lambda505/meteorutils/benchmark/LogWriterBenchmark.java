@@ -0,0 +1,91 @@
+package com.lambda505.meteorutils.benchmark;
+
+import com.lambda505.meteorutils.utils.AsyncLogWriter;
+import com.lambda505.meteorutils.utils.LeakLogFormat;
+import com.lambda505.meteorutils.utils.LeakRecord;
+import com.lambda505.meteorutils.utils.LogEncoder;
+import com.lambda505.meteorutils.utils.LogWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a chat message into a log entry and handing it to the writer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LogWriterBenchmark {
+    @Param({"Vanilla", "Spam"})
+    public ChatCorpus.Scenario scenario;
+
+    private ChatCorpus corpus;
+    private final LeakRecord record = new LeakRecord();
+    private File directory, logFile;
+    private int cursor;
+
+    @Setup
+    public void setup() throws IOException {
+        corpus = new ChatCorpus(scenario);
+        directory = Files.createTempDirectory("lambda-log-bench").toFile();
+        logFile = new File(directory, "bench.txt");
+    }
+
+    @TearDown
+    public void tearDown() {
+        AsyncLogWriter.drain(10_000);
+        File[] files = directory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        directory.delete();
+    }
+
+    private int next() {
+        return cursor = (cursor + 1) & (ChatCorpus.SIZE - 1);
+    }
+
+    @Benchmark
+    public String timestampedFormattedEntry() {
+        return LogWriter.createTimestampedFormattedEntry("%s: %s", "Steve", corpus.messages[next()]);
+    }
+
+    @Benchmark
+    public String safeTimestampedEntry() {
+        return LogWriter.createSafeTimestampedEntry(corpus.messages[next()]);
+    }
+
+    @Benchmark
+    public String leakEntry() {
+        int i = next();
+        record.set(System.currentTimeMillis(), "Steve", i, 64, true, -i, "overworld", corpus.messages[i]);
+        return LeakLogFormat.format(record);
+    }
+
+    @Benchmark
+    public int encodedEntry() {
+        return LogWriter.encodeTimestampedEntry(System.currentTimeMillis())
+            .append("Steve").append(": ").append(corpus.messages[next()]).newline().length();
+    }
+
+    @Benchmark
+    public int encodedLeakEntry() {
+        int i = next();
+        record.set(System.currentTimeMillis(), "Steve", i, 64, true, -i, "overworld", corpus.messages[i]);
+        return LeakLogFormat.encode(record, LogEncoder.get().reset()).length();
+    }
+
+    // Throughput is bounded by the writer thread once the queue fills up
+    @Benchmark
+    public boolean enqueueEntry() {
+        return AsyncLogWriter.enqueue(logFile, LogWriter.createSafeTimestampedEntry(corpus.messages[next()]),
+            AsyncLogWriter.FlushPolicy.OnTick, 0);
+    }
+
+    @Benchmark
+    public boolean enqueueEncodedEntry() {
+        return LogWriter.encodeTimestampedEntry(System.currentTimeMillis()).append(corpus.messages[next()]).newline()
+            .enqueue(logFile, AsyncLogWriter.FlushPolicy.OnTick, 0);
+    }
+}
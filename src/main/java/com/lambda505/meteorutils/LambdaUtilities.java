@@ -1,10 +1,22 @@
 package com.lambda505.meteorutils;
 
+import com.lambda505.meteorutils.commands.LeaksCommand;
+import com.lambda505.meteorutils.commands.PerfCommand;
+import com.lambda505.meteorutils.commands.PmExportCommand;
+import com.lambda505.meteorutils.commands.PmSearchCommand;
 import com.lambda505.meteorutils.hud.OnlineFriendsHUD;
+import com.lambda505.meteorutils.hud.PerformanceHUD;
 import com.lambda505.meteorutils.hud.PlayersInRangeHUD;
 import com.lambda505.meteorutils.modules.ChatCoordLogger;
 import com.lambda505.meteorutils.modules.PrivateMessageArchiver;
+import com.lambda505.meteorutils.utils.AsyncLogWriter;
+import com.lambda505.meteorutils.utils.ChatPipeline;
+import com.lambda505.meteorutils.utils.FriendPresence;
+import com.lambda505.meteorutils.utils.PlayerTracker;
+import com.lambda505.meteorutils.utils.ServerSession;
+import meteordevelopment.meteorclient.MeteorClient;
 import meteordevelopment.meteorclient.addons.MeteorAddon;
+import meteordevelopment.meteorclient.commands.Commands;
 import meteordevelopment.meteorclient.systems.hud.Hud;
 import meteordevelopment.meteorclient.systems.hud.HudGroup;
 import meteordevelopment.meteorclient.systems.modules.Category;
@@ -25,13 +37,31 @@ public class LambdaUtilities extends MeteorAddon {
     public void onInitialize() {
         LOG.info("Initializing Lambda Utilities");
 
+        // Redo archive writes torn by a crash before anything new is written
+        AsyncLogWriter.recoverJournal(PrivateMessageArchiver.getJournalFile());
+
+        // Chat is parsed once here and shared by all chat modules
+        MeteorClient.EVENT_BUS.subscribe(ChatPipeline.get());
+        MeteorClient.EVENT_BUS.subscribe(ServerSession.class);
+
+        // Nearby players and online friends are tracked once here and shared by the HUD elements
+        MeteorClient.EVENT_BUS.subscribe(PlayerTracker.get());
+        MeteorClient.EVENT_BUS.subscribe(FriendPresence.get());
+
         // Register modules
         Modules.get().add(new ChatCoordLogger());
         Modules.get().add(new PrivateMessageArchiver());
 
+        // Register commands
+        Commands.add(new LeaksCommand());
+        Commands.add(new PmSearchCommand());
+        Commands.add(new PmExportCommand());
+        Commands.add(new PerfCommand());
+
         // Register the HUD elements
         Hud.get().register(OnlineFriendsHUD.INFO);
         Hud.get().register(PlayersInRangeHUD.INFO);
+        Hud.get().register(PerformanceHUD.INFO);
 
         LOG.info("Lambda Utilities initialized successfully");
     }
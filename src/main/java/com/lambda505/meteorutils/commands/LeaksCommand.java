@@ -0,0 +1,213 @@
+package com.lambda505.meteorutils.commands;
+
+import com.lambda505.meteorutils.LambdaUtilities;
+import com.lambda505.meteorutils.modules.ChatCoordLogger;
+import com.lambda505.meteorutils.utils.*;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import meteordevelopment.meteorclient.commands.Command;
+import meteordevelopment.meteorclient.systems.modules.Modules;
+import net.minecraft.command.CommandSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Queries the coordinate leaks logged by Chat Coord Logger on the current server and dimension.
+ * <p>
+ * {@code .leaks near <x> <z> [radius]}, {@code .leaks box <x1> <z1> <x2> <z2>},
+ * {@code .leaks nearest <x> <z> [count]} and {@code .leaks here [radius]}.
+ * {@code .leaks player <name>} lists the latest leaks of a player in any dimension.
+ * {@code .leaks export} writes the binary log of the current server as text.
+ */
+public class LeaksCommand extends Command {
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")
+        .withZone(ZoneId.systemDefault());
+    private static final int DEFAULT_RADIUS = 1000;
+    private static final int DEFAULT_COUNT = 5;
+    private static final int MAX_RESULTS = 10;
+
+    public LeaksCommand() {
+        super("leaks", "Searches logged coordinate leaks near a position.");
+    }
+
+    @Override
+    public void build(LiteralArgumentBuilder<CommandSource> builder) {
+        builder.then(literal("near")
+            .then(argument("x", IntegerArgumentType.integer())
+                .then(argument("z", IntegerArgumentType.integer())
+                    .executes(context -> near(IntegerArgumentType.getInteger(context, "x"),
+                        IntegerArgumentType.getInteger(context, "z"), DEFAULT_RADIUS))
+                    .then(argument("radius", IntegerArgumentType.integer(1))
+                        .executes(context -> near(IntegerArgumentType.getInteger(context, "x"),
+                            IntegerArgumentType.getInteger(context, "z"), IntegerArgumentType.getInteger(context, "radius")))))));
+
+        builder.then(literal("box")
+            .then(argument("x1", IntegerArgumentType.integer())
+                .then(argument("z1", IntegerArgumentType.integer())
+                    .then(argument("x2", IntegerArgumentType.integer())
+                        .then(argument("z2", IntegerArgumentType.integer())
+                            .executes(context -> box(IntegerArgumentType.getInteger(context, "x1"),
+                                IntegerArgumentType.getInteger(context, "z1"), IntegerArgumentType.getInteger(context, "x2"),
+                                IntegerArgumentType.getInteger(context, "z2"))))))));
+
+        builder.then(literal("nearest")
+            .then(argument("x", IntegerArgumentType.integer())
+                .then(argument("z", IntegerArgumentType.integer())
+                    .executes(context -> nearest(IntegerArgumentType.getInteger(context, "x"),
+                        IntegerArgumentType.getInteger(context, "z"), DEFAULT_COUNT))
+                    .then(argument("count", IntegerArgumentType.integer(1, MAX_RESULTS))
+                        .executes(context -> nearest(IntegerArgumentType.getInteger(context, "x"),
+                            IntegerArgumentType.getInteger(context, "z"), IntegerArgumentType.getInteger(context, "count")))))));
+
+        builder.then(literal("here")
+            .executes(context -> here(DEFAULT_RADIUS))
+            .then(argument("radius", IntegerArgumentType.integer(1))
+                .executes(context -> here(IntegerArgumentType.getInteger(context, "radius")))));
+
+        builder.then(literal("player")
+            .then(argument("name", StringArgumentType.word())
+                .executes(context -> player(StringArgumentType.getString(context, "name")))));
+
+        builder.then(literal("export").executes(context -> export()));
+    }
+
+    private int near(int x, int z, int radius) {
+        LeakIndex index = getIndex();
+        if (index != null) {
+            print(index.radius(ServerUtils.getDimensionName(), x, z, radius, MAX_RESULTS),
+                "within " + radius + " blocks of " + x + ", " + z);
+        }
+        return SINGLE_SUCCESS;
+    }
+
+    private int box(int x1, int z1, int x2, int z2) {
+        LeakIndex index = getIndex();
+        if (index != null) {
+            print(index.box(ServerUtils.getDimensionName(), x1, z1, x2, z2, MAX_RESULTS),
+                "between " + x1 + ", " + z1 + " and " + x2 + ", " + z2);
+        }
+        return SINGLE_SUCCESS;
+    }
+
+    private int nearest(int x, int z, int count) {
+        LeakIndex index = getIndex();
+        if (index != null) {
+            print(index.nearest(ServerUtils.getDimensionName(), x, z, count), "closest to " + x + ", " + z);
+        }
+        return SINGLE_SUCCESS;
+    }
+
+    private int here(int radius) {
+        if (mc.player == null) {
+            error("Not in a world");
+            return SINGLE_SUCCESS;
+        }
+        return near(mc.player.getBlockX(), mc.player.getBlockZ(), radius);
+    }
+
+    private int player(String name) {
+        ChatCoordLogger logger = getLogger();
+        if (logger == null) return SINGLE_SUCCESS;
+
+        StorageBackend storage = logger.getStorage();
+        if (storage == null) return notActive();
+        StorageQuery query = new StorageQuery().type(StorageRecord.Type.Leak)
+            .server(ServerSession.current().getServerName()).player(name).limit(MAX_RESULTS).newestFirst();
+
+        // The text logs are read from start to end, keep it off the client thread
+        Thread searcher = new Thread(() -> {
+            List<String> lines = new ArrayList<>();
+            try {
+                storage.scan(query, record -> lines.add(String.format("%d, %s, %d in %s at %s", record.x,
+                    record.hasY ? String.valueOf(record.y) : "?", record.z, record.dimension,
+                    TIME_FORMATTER.format(Instant.ofEpochMilli(record.time)))));
+                mc.execute(() -> {
+                    if (lines.isEmpty()) {
+                        info("No coordinate leaks from " + name);
+                        return;
+                    }
+                    info("Latest coordinate leaks from " + name + ":");
+                    for (String line : lines) info(line);
+                });
+            } catch (IOException e) {
+                LambdaUtilities.LOG.warn("Failed to search " + storage.getLocation(), e);
+                mc.execute(() -> error("Failed to search " + storage.getLocation()));
+            }
+        }, "Lambda Utilities Leak Search");
+        searcher.setDaemon(true);
+        searcher.start();
+        return SINGLE_SUCCESS;
+    }
+
+    private int export() {
+        ChatCoordLogger logger = getLogger();
+        if (logger == null) return SINGLE_SUCCESS;
+
+        File binaryFile = logger.getBinaryLogFile();
+        File exportFile = logger.getExportFile();
+        if (binaryFile == null || exportFile == null) return notActive();
+        logger.flushBinaryLog();
+
+        // Reading the whole log can take a while, keep it off the client thread
+        Thread exporter = new Thread(() -> {
+            AsyncLogWriter.drain(2000);
+            try {
+                int exported = binaryFile.exists() ? LeakLogFormat.export(binaryFile, exportFile) : 0;
+                mc.execute(() -> info("Exported " + exported + " coordinate leaks to " + exportFile.getName()));
+            } catch (IOException e) {
+                LambdaUtilities.LOG.warn("Failed to export " + binaryFile.getName(), e);
+                mc.execute(() -> error("Failed to export " + binaryFile.getName()));
+            }
+        }, "Lambda Utilities Leak Exporter");
+        exporter.setDaemon(true);
+        exporter.start();
+        return SINGLE_SUCCESS;
+    }
+
+    // The logs are only opened by the enabled module
+    private ChatCoordLogger getLogger() {
+        ChatCoordLogger logger = Modules.get().get(ChatCoordLogger.class);
+        if (logger == null) {
+            error("Chat Coord Logger is not available");
+            return null;
+        }
+        if (!logger.isActive()) {
+            notActive();
+            return null;
+        }
+        return logger;
+    }
+
+    private LeakIndex getIndex() {
+        ChatCoordLogger logger = getLogger();
+        LeakIndex index = logger != null ? logger.getLeakIndex() : null;
+        if (logger != null && index == null) notActive();
+        return index;
+    }
+
+    private int notActive() {
+        error("Enable Chat Coord Logger to look up leaks");
+        return SINGLE_SUCCESS;
+    }
+
+    private void print(List<LeakIndex.Leak> leaks, String description) {
+        if (leaks.isEmpty()) {
+            info("No coordinate leaks " + description);
+            return;
+        }
+
+        info("Coordinate leaks " + description + ":");
+        for (LeakIndex.Leak leak : leaks) {
+            info(String.format("%s: %d, %s, %d (%.0f blocks) at %s", leak.player, leak.x,
+                leak.hasY ? String.valueOf(leak.y) : "?", leak.z, leak.distance,
+                TIME_FORMATTER.format(Instant.ofEpochMilli(leak.time))));
+        }
+    }
+}
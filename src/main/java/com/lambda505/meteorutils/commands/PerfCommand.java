@@ -0,0 +1,43 @@
+package com.lambda505.meteorutils.commands;
+
+import com.lambda505.meteorutils.LambdaUtilities;
+import com.lambda505.meteorutils.utils.ClientContext;
+import com.lambda505.meteorutils.utils.Metrics;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import meteordevelopment.meteorclient.commands.Command;
+import net.minecraft.command.CommandSource;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * {@code .perf dump} writes the latency histograms shown by the performance HUD to
+ * {@code LambdaMeteorUtilities/Performance}, {@code .perf reset} clears them.
+ */
+public class PerfCommand extends Command {
+    public PerfCommand() {
+        super("perf", "Dumps or resets the Lambda Utilities latency histograms.");
+    }
+
+    @Override
+    public void build(LiteralArgumentBuilder<CommandSource> builder) {
+        builder.then(literal("dump").executes(context -> dump()));
+        builder.then(literal("reset").executes(context -> {
+            Metrics.resetAll();
+            info("Latency histograms reset");
+            return SINGLE_SUCCESS;
+        }));
+    }
+
+    private int dump() {
+        File directory = new File(ClientContext.get().getRunDirectory(), "LambdaMeteorUtilities" + File.separator + "Performance");
+        try {
+            File file = Metrics.dump(directory);
+            info("Latency histograms written to " + file.getPath());
+        } catch (IOException e) {
+            LambdaUtilities.LOG.warn("Failed to dump latency histograms", e);
+            error("Failed to dump latency histograms");
+        }
+        return SINGLE_SUCCESS;
+    }
+}
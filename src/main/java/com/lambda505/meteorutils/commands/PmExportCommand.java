@@ -0,0 +1,113 @@
+package com.lambda505.meteorutils.commands;
+
+import com.lambda505.meteorutils.LambdaUtilities;
+import com.lambda505.meteorutils.modules.PrivateMessageArchiver;
+import com.lambda505.meteorutils.utils.*;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import meteordevelopment.meteorclient.commands.Command;
+import meteordevelopment.meteorclient.systems.modules.Modules;
+import net.minecraft.command.CommandSource;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes the whole archived conversation with a player, across rotated and compressed files,
+ * to {@code exports/<player>.txt} in the server's archive directory. With the database storage the
+ * messages are read from the database, without conversation markers.
+ */
+public class PmExportCommand extends Command {
+    public PmExportCommand() {
+        super("pmexport", "Exports the archived conversation with a player to one text file.");
+    }
+
+    @Override
+    public void build(LiteralArgumentBuilder<CommandSource> builder) {
+        builder.then(argument("player", StringArgumentType.word())
+            .executes(context -> export(StringArgumentType.getString(context, "player"))));
+    }
+
+    private int export(String player) {
+        PrivateMessageArchiver archiver = Modules.get().get(PrivateMessageArchiver.class);
+        if (archiver == null) {
+            error("Private Message Archiver is not available");
+            return SINGLE_SUCCESS;
+        }
+
+        // The archive is only opened by the enabled module
+        File directory = archiver.getArchiveRoot();
+        StorageBackend storage = archiver.getStorage();
+        if (directory == null || storage == null) {
+            error("Enable Private Message Archiver to export conversations");
+            return SINGLE_SUCCESS;
+        }
+
+        String playerName = ServerSession.current().sanitize(player);
+        File exportFile = new File(new File(directory, "exports"), playerName + ".txt");
+        if (storage instanceof DatabaseStorage database) {
+            return exportDatabase(database, player, playerName, exportFile);
+        }
+
+        if (ArchiveReader.segments(directory, playerName).isEmpty()) {
+            error("No archived messages with " + player);
+            return SINGLE_SUCCESS;
+        }
+
+        Thread exporter = new Thread(() -> {
+            try (InputStream in = ArchiveReader.openHistory(directory, playerName)) {
+                Files.createDirectories(exportFile.getParentFile().toPath());
+                Files.copy(in, exportFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                mc.execute(() -> info("Exported conversation with " + player + " to " + exportFile.getPath()));
+            } catch (IOException e) {
+                LambdaUtilities.LOG.warn("Failed to export conversation with " + player, e);
+                mc.execute(() -> error("Failed to export conversation with " + player));
+            }
+        }, "Lambda Utilities Archive Export");
+        exporter.setDaemon(true);
+        exporter.start();
+        return SINGLE_SUCCESS;
+    }
+
+    private int exportDatabase(DatabaseStorage database, String player, String playerName, File exportFile) {
+        StorageQuery query = new StorageQuery().server(ServerSession.current().getServerName()).player(playerName);
+
+        Thread exporter = new Thread(() -> {
+            try {
+                Files.createDirectories(exportFile.getParentFile().toPath());
+                int[] exported = {0};
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(exportFile.toPath()))) {
+                    LogEncoder entry = LogEncoder.get();
+                    IOException[] failure = {null};
+                    database.scan(query, record -> {
+                        if (failure[0] != null) return;
+                        try {
+                            ArchiveFileStorage.encode(record, record.time >= 0, entry.reset()).writeTo(out);
+                            exported[0]++;
+                        } catch (IOException e) {
+                            failure[0] = e;
+                        }
+                    });
+                    if (failure[0] != null) throw failure[0];
+                }
+                if (exported[0] == 0) {
+                    Files.deleteIfExists(exportFile.toPath());
+                    mc.execute(() -> error("No archived messages with " + player));
+                } else {
+                    mc.execute(() -> info("Exported conversation with " + player + " to " + exportFile.getPath()));
+                }
+            } catch (IOException e) {
+                LambdaUtilities.LOG.warn("Failed to export conversation with " + player, e);
+                mc.execute(() -> error("Failed to export conversation with " + player));
+            }
+        }, "Lambda Utilities Archive Export");
+        exporter.setDaemon(true);
+        exporter.start();
+        return SINGLE_SUCCESS;
+    }
+}
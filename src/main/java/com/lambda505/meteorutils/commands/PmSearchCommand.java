@@ -0,0 +1,118 @@
+package com.lambda505.meteorutils.commands;
+
+import com.lambda505.meteorutils.LambdaUtilities;
+import com.lambda505.meteorutils.modules.PrivateMessageArchiver;
+import com.lambda505.meteorutils.utils.*;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import meteordevelopment.meteorclient.commands.Command;
+import meteordevelopment.meteorclient.systems.modules.Modules;
+import net.minecraft.command.CommandSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Searches the private message archive of the current server.
+ * <p>
+ * {@code .pmsearch <query>} where the query holds words, "quoted phrases", {@code player:name},
+ * {@code after:yyyy-MM-dd} and {@code before:yyyy-MM-dd}. With the database storage the database is
+ * queried instead of the search index.
+ */
+public class PmSearchCommand extends Command {
+    private static final int MAX_RESULTS = 10;
+
+    public PmSearchCommand() {
+        super("pmsearch", "Searches archived private messages.");
+    }
+
+    @Override
+    public void build(LiteralArgumentBuilder<CommandSource> builder) {
+        builder.then(argument("query", StringArgumentType.greedyString())
+            .executes(context -> search(StringArgumentType.getString(context, "query"))));
+    }
+
+    private int search(String text) {
+        ArchiveSearchIndex.Query query;
+        try {
+            query = ArchiveSearchIndex.Query.parse(text);
+        } catch (IllegalArgumentException e) {
+            error(e.getMessage());
+            return SINGLE_SUCCESS;
+        }
+        if (query.isEmpty()) {
+            error("Nothing to search for");
+            return SINGLE_SUCCESS;
+        }
+
+        PrivateMessageArchiver archiver = Modules.get().get(PrivateMessageArchiver.class);
+        // The archive is only opened by the enabled module
+        if (archiver == null || !archiver.isActive()) {
+            error("Enable Private Message Archiver to search");
+            return SINGLE_SUCCESS;
+        }
+        if (archiver.getStorage() instanceof DatabaseStorage database) {
+            return searchDatabase(database, query);
+        }
+
+        ArchiveSearchIndex index = archiver.getSearchIndex();
+        if (index == null) {
+            error("Enable index-messages in Private Message Archiver to search");
+            return SINGLE_SUCCESS;
+        }
+
+        // Results are read from the archive files, keep that off the client thread
+        Thread searcher = new Thread(() -> {
+            List<ArchiveSearchIndex.Hit> hits = index.search(query, MAX_RESULTS);
+            boolean partial = !index.isReady();
+            mc.execute(() -> print(hits, partial));
+        }, "Lambda Utilities Archive Search");
+        searcher.setDaemon(true);
+        searcher.start();
+        return SINGLE_SUCCESS;
+    }
+
+    private int searchDatabase(DatabaseStorage database, ArchiveSearchIndex.Query query) {
+        StorageQuery storageQuery = query.toStorageQuery()
+            .server(ServerSession.current().getServerName()).limit(MAX_RESULTS).newestFirst();
+
+        Thread searcher = new Thread(() -> {
+            List<String> lines = new ArrayList<>();
+            try {
+                database.scan(storageQuery, record -> lines.add("(" + record.player + ") "
+                    + ArchiveFileStorage.encode(record, true, LogEncoder.get().reset()).toString().strip()));
+                mc.execute(() -> printLines(lines));
+            } catch (IOException e) {
+                LambdaUtilities.LOG.warn("Failed to search " + database.getLocation(), e);
+                mc.execute(() -> error("Failed to search the message database"));
+            }
+        }, "Lambda Utilities Archive Search");
+        searcher.setDaemon(true);
+        searcher.start();
+        return SINGLE_SUCCESS;
+    }
+
+    private void printLines(List<String> lines) {
+        if (lines.isEmpty()) {
+            info("No messages found");
+            return;
+        }
+
+        info("Found " + lines.size() + (lines.size() == MAX_RESULTS ? "+" : "") + " messages:");
+        for (String line : lines) info(line);
+    }
+
+    private void print(List<ArchiveSearchIndex.Hit> hits, boolean partial) {
+        if (partial) warning("The archive is still being indexed, results may be incomplete");
+        if (hits.isEmpty()) {
+            info("No messages found");
+            return;
+        }
+
+        info("Found " + hits.size() + (hits.size() == MAX_RESULTS ? "+" : "") + " messages:");
+        for (ArchiveSearchIndex.Hit hit : hits) {
+            info("(" + hit.player + ") " + hit.line);
+        }
+    }
+}
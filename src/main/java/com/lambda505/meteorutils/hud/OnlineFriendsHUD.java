@@ -1,22 +1,22 @@
 package com.lambda505.meteorutils.hud;
 
 import com.lambda505.meteorutils.LambdaUtilities;
+import com.lambda505.meteorutils.utils.FriendPresence;
+import com.lambda505.meteorutils.utils.LatencyHistogram;
+import com.lambda505.meteorutils.utils.Metrics;
 import meteordevelopment.meteorclient.settings.BoolSetting;
 import meteordevelopment.meteorclient.settings.ColorSetting;
 import meteordevelopment.meteorclient.settings.Setting;
 import meteordevelopment.meteorclient.settings.SettingGroup;
-import meteordevelopment.meteorclient.systems.friends.Friends;
 import meteordevelopment.meteorclient.systems.hud.HudElement;
 import meteordevelopment.meteorclient.systems.hud.HudElementInfo;
 import meteordevelopment.meteorclient.systems.hud.HudRenderer;
 import meteordevelopment.meteorclient.utils.render.color.SettingColor;
-import net.minecraft.client.network.PlayerListEntry;
-
-import java.util.ArrayList;
-import java.util.List;
-
-import static meteordevelopment.meteorclient.MeteorClient.mc;
 
+/**
+ * Lists the friends in the tab list, kept up to date by {@link FriendPresence}. The {@link TextLayout}
+ * is rebuilt only when the online friends or the colors change, rendering draws the cached layout.
+ */
 public class OnlineFriendsHUD extends HudElement {
     public static final HudElementInfo<OnlineFriendsHUD> INFO = new HudElementInfo<>(
         LambdaUtilities.HUD_GROUP,
@@ -25,6 +25,11 @@ public class OnlineFriendsHUD extends HudElement {
         OnlineFriendsHUD::new
     );
 
+    private static final LatencyHistogram RENDER = Metrics.histogram("hud.online-friends");
+    private static final String NONE_TITLE = "No Friends Online";
+    private static final String ONLINE_TITLE = "Online Friends";
+
+    private final TextLayout layout = new TextLayout();
     private final SettingGroup sgGeneral = settings.getDefaultGroup();
 
     private final Setting<Boolean> background = sgGeneral.add(new BoolSetting.Builder()
@@ -45,99 +50,50 @@ public class OnlineFriendsHUD extends HudElement {
         .name("friend-color")
         .description("Color of friend names.")
         .defaultValue(new SettingColor(173, 216, 230)) // Light blue
+        .onChanged(value -> layout.invalidate())
         .build()
     );
 
+    private int version;
+
     public OnlineFriendsHUD() {
         super(INFO);
     }
 
     @Override
     public void render(HudRenderer renderer) {
-        if (mc.world == null || mc.getNetworkHandler() == null) {
-            renderOffline(renderer);
-            return;
-        }
-
-        List<String> onlineFriends = getOnlineFriends();
-        renderFriendsList(renderer, onlineFriends);
+        long start = System.nanoTime();
+        renderElement(renderer);
+        RENDER.recordSince(start);
     }
 
-    private void renderOffline(HudRenderer renderer) {
-        String title = "No Friends Online";
-        double width = renderer.textWidth(title, true);
-        double height = renderer.textHeight(true);
-
-        setSize(width, height);
+    private void renderElement(HudRenderer renderer) {
+        FriendPresence presence = FriendPresence.get();
+        if (presence.getVersion() != version || layout.needsRebuild(renderer)) buildLayout(renderer, presence);
 
         if (background.get()) {
-            renderer.quad(x, y, width, height, backgroundColor.get());
+            renderer.quad(x, y, layout.getWidth(), layout.getHeight(), backgroundColor.get());
         }
-
-        // Red color for "No Friends Online"
-        SettingColor redColor = new SettingColor(255, 0, 0);
-        renderer.text(title, x, y, redColor, true);
+        layout.render(renderer, this);
     }
 
-    private void renderFriendsList(HudRenderer renderer, List<String> onlineFriends) {
-        String title = onlineFriends.isEmpty() ? "No Friends Online" : "Online Friends";
-        double titleWidth = renderer.textWidth(title, true);
-        double lineHeight = renderer.textHeight(true);
-
-        // Calculate dimensions
-        double maxWidth = titleWidth;
-        for (String friend : onlineFriends) {
-            double friendWidth = renderer.textWidth(friend, false);
-            if (friendWidth > maxWidth) maxWidth = friendWidth;
-        }
-
-        double totalHeight = lineHeight;
-        if (!onlineFriends.isEmpty()) {
-            totalHeight += onlineFriends.size() * lineHeight;
-        }
-
-        setSize(maxWidth, totalHeight);
+    private void buildLayout(HudRenderer renderer, FriendPresence presence) {
+        // Read the version first, a change in between is picked up next frame
+        version = presence.getVersion();
+        String[] friends = presence.getOnlineFriends();
 
-        if (background.get()) {
-            renderer.quad(x, y, maxWidth, totalHeight, backgroundColor.get());
-        }
+        layout.begin(renderer);
 
         // Title color based on friends status
-        SettingColor titleColor;
-        if (onlineFriends.isEmpty()) {
-            titleColor = new SettingColor(255, 0, 0); // Red for "No Friends Online"
-        } else {
-            titleColor = new SettingColor(0, 255, 0); // Green for "Online Friends"
+        if (friends.length == 0) {
+            layout.line(NONE_TITLE, TextLayout.RED, true);
+            return;
         }
+        layout.line(ONLINE_TITLE, TextLayout.GREEN, true);
 
-        // Render title
-        renderer.text(title, x, y, titleColor, true);
-
-        // Render friend names in light blue
-        double currentY = y + lineHeight;
-        for (String friend : onlineFriends) {
-            renderer.text(friend, x, currentY, friendColor.get(), false);
-            currentY += lineHeight;
+        // Friend names in light blue
+        for (String friend : friends) {
+            layout.line(friend, friendColor.get(), false);
         }
     }
-
-    private List<String> getOnlineFriends() {
-        List<String> onlineFriends = new ArrayList<>();
-
-        if (mc.getNetworkHandler() == null || mc.player == null) return onlineFriends;
-
-        // Get our own player name to exclude it
-        String ourPlayerName = mc.player.getName().getString();
-
-        for (PlayerListEntry player : mc.getNetworkHandler().getPlayerList()) {
-            String playerName = player.getProfile().getName();
-
-            // Skip ourselves and only include friends
-            if (!playerName.equals(ourPlayerName) && Friends.get().isFriend(player)) {
-                onlineFriends.add(playerName);
-            }
-        }
-
-        return onlineFriends;
-    }
 }
@@ -0,0 +1,220 @@
+package com.lambda505.meteorutils.hud;
+
+import com.lambda505.meteorutils.LambdaUtilities;
+import com.lambda505.meteorutils.utils.LatencyHistogram;
+import com.lambda505.meteorutils.utils.Metrics;
+import meteordevelopment.meteorclient.settings.BoolSetting;
+import meteordevelopment.meteorclient.settings.ColorSetting;
+import meteordevelopment.meteorclient.settings.DoubleSetting;
+import meteordevelopment.meteorclient.settings.Setting;
+import meteordevelopment.meteorclient.settings.SettingGroup;
+import meteordevelopment.meteorclient.systems.hud.HudElement;
+import meteordevelopment.meteorclient.systems.hud.HudElementInfo;
+import meteordevelopment.meteorclient.systems.hud.HudRenderer;
+import meteordevelopment.meteorclient.utils.render.color.SettingColor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shows the latency histograms in {@link Metrics}: events per second, p50, p99 and max
+ * of each stage over the last refresh interval. Counters that ever counted follow with their rate
+ * and total, highlighted while they grow. Use {@code .perf dump} to save them to a file.
+ * The table is laid out once per refresh, frames only draw the {@link TextLayout}.
+ */
+public class PerformanceHUD extends HudElement {
+    public static final HudElementInfo<PerformanceHUD> INFO = new HudElementInfo<>(
+        LambdaUtilities.HUD_GROUP,
+        "lambda-performance",
+        "Displays time spent in Lambda Utilities per module and stage.",
+        PerformanceHUD::new
+    );
+
+    private static final LatencyHistogram RENDER = Metrics.histogram("hud.performance");
+    private static final String[] HEADERS = {"stage", "ev/s", "p50", "p99", "max"};
+    private static final String TITLE = "Lambda Performance";
+    private static final double COLUMN_GAP = 6;
+
+    private final TextLayout layout = new TextLayout();
+    private final SettingGroup sgGeneral = settings.getDefaultGroup();
+
+    private final Setting<Double> refreshRate = sgGeneral.add(new DoubleSetting.Builder()
+        .name("refresh-rate")
+        .description("Seconds between updates, values are measured over this interval.")
+        .defaultValue(1.0)
+        .min(0.25)
+        .max(10.0)
+        .sliderMax(5.0)
+        .build()
+    );
+
+    private final Setting<Boolean> hideIdle = sgGeneral.add(new BoolSetting.Builder()
+        .name("hide-idle")
+        .description("Hides stages without events in the last interval.")
+        .defaultValue(true)
+        .build()
+    );
+
+    private final Setting<Double> slowThreshold = sgGeneral.add(new DoubleSetting.Builder()
+        .name("slow-threshold")
+        .description("Milliseconds at which a p99 is highlighted.")
+        .defaultValue(1.0)
+        .min(0.01)
+        .max(50.0)
+        .sliderMax(10.0)
+        .build()
+    );
+
+    private final Setting<Boolean> background = sgGeneral.add(new BoolSetting.Builder()
+        .name("background")
+        .description("Displays background behind the table.")
+        .defaultValue(true)
+        .build()
+    );
+
+    private final Setting<SettingColor> backgroundColor = sgGeneral.add(new ColorSetting.Builder()
+        .name("background-color")
+        .description("Color of the background.")
+        .defaultValue(new SettingColor(0, 0, 0, 64))
+        .build()
+    );
+
+    private final Setting<SettingColor> titleColor = sgGeneral.add(new ColorSetting.Builder()
+        .name("title-color")
+        .description("Color of the title and column headers.")
+        .defaultValue(new SettingColor(255, 255, 255))
+        .onChanged(value -> layout.invalidate())
+        .build()
+    );
+
+    private final Setting<SettingColor> textColor = sgGeneral.add(new ColorSetting.Builder()
+        .name("text-color")
+        .description("Color of the values.")
+        .defaultValue(new SettingColor(200, 200, 200))
+        .onChanged(value -> layout.invalidate())
+        .build()
+    );
+
+    private final Setting<SettingColor> slowColor = sgGeneral.add(new ColorSetting.Builder()
+        .name("slow-color")
+        .description("Color of stages whose p99 is above the slow threshold.")
+        .defaultValue(new SettingColor(255, 85, 85))
+        .onChanged(value -> layout.invalidate())
+        .build()
+    );
+
+    // Snapshots of the previous refresh, values shown are the difference
+    private final Map<String, LatencyHistogram.Snapshot> previous = new HashMap<>();
+    private final Map<String, Long> previousCounts = new HashMap<>();
+    private List<String[]> rows = new ArrayList<>();
+    private List<Boolean> slowRows = new ArrayList<>();
+    private final double[] columnWidths = new double[HEADERS.length];
+    private long lastRefresh;
+
+    public PerformanceHUD() {
+        super(INFO);
+    }
+
+    @Override
+    public void render(HudRenderer renderer) {
+        long start = System.nanoTime();
+
+        long now = System.currentTimeMillis();
+        if (now - lastRefresh >= refreshRate.get() * 1000) {
+            refresh(lastRefresh == 0 ? 0 : now - lastRefresh);
+            lastRefresh = now;
+            buildLayout(renderer);
+        } else if (layout.needsRebuild(renderer)) {
+            buildLayout(renderer);
+        }
+
+        if (background.get()) {
+            renderer.quad(x, y, layout.getWidth(), layout.getHeight(), backgroundColor.get());
+        }
+        layout.render(renderer, this);
+
+        RENDER.recordSince(start);
+    }
+
+    private void refresh(long elapsedMillis) {
+        List<String[]> newRows = new ArrayList<>();
+        List<Boolean> newSlowRows = new ArrayList<>();
+        long slowNanos = (long) (slowThreshold.get() * 1_000_000);
+
+        for (LatencyHistogram histogram : Metrics.all()) {
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            LatencyHistogram.Snapshot last = previous.put(histogram.getName(), snapshot);
+            if (last == null || elapsedMillis == 0) continue;
+
+            LatencyHistogram.Snapshot window = snapshot.minus(last);
+            if (hideIdle.get() && window.count() == 0) continue;
+
+            long p99 = window.percentile(99);
+            newRows.add(new String[]{
+                histogram.getName(),
+                String.format("%.0f", window.count() * 1000.0 / elapsedMillis),
+                formatNanos(window.percentile(50)),
+                formatNanos(p99),
+                formatNanos(window.max())
+            });
+            newSlowRows.add(p99 >= slowNanos);
+        }
+
+        // Counters have no durations, the max column shows the total instead
+        for (Map.Entry<String, AtomicLong> counter : Metrics.counters().entrySet()) {
+            long total = counter.getValue().get();
+            Long last = previousCounts.put(counter.getKey(), total);
+            if (last == null || elapsedMillis == 0 || total == 0) continue;
+
+            long window = Math.max(0, total - last);
+            newRows.add(new String[]{
+                counter.getKey(),
+                String.format("%.0f", window * 1000.0 / elapsedMillis),
+                "",
+                "",
+                String.valueOf(total)
+            });
+            newSlowRows.add(window > 0);
+        }
+
+        rows = newRows;
+        slowRows = newSlowRows;
+    }
+
+    private void buildLayout(HudRenderer renderer) {
+        layout.begin(renderer);
+
+        for (int i = 0; i < HEADERS.length; i++) columnWidths[i] = layout.textWidth(HEADERS[i], true);
+        for (String[] row : rows) {
+            for (int i = 0; i < row.length; i++) columnWidths[i] = Math.max(columnWidths[i], layout.textWidth(row[i], false));
+        }
+
+        double lineHeight = layout.getLineHeight();
+        layout.line(TITLE, titleColor.get(), true);
+        addRow(HEADERS, lineHeight, titleColor.get(), true);
+
+        double currentY = 2 * lineHeight;
+        for (int i = 0; i < rows.size(); i++) {
+            addRow(rows.get(i), currentY, slowRows.get(i) ? slowColor.get() : textColor.get(), false);
+            currentY += lineHeight;
+        }
+    }
+
+    // Stage names are left aligned, numbers right aligned
+    private void addRow(String[] cells, double rowY, SettingColor color, boolean shadow) {
+        double cellX = 0;
+        for (int i = 0; i < cells.length; i++) {
+            double offset = i == 0 ? 0 : columnWidths[i] - layout.textWidth(cells[i], shadow);
+            layout.text(cells[i], cellX + offset, rowY, color, shadow);
+            cellX += columnWidths[i] + COLUMN_GAP;
+        }
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 1_000_000) return String.format("%.1fus", nanos / 1e3);
+        return String.format("%.2fms", nanos / 1e6);
+    }
+}
@@ -1,9 +1,13 @@
 package com.lambda505.meteorutils.hud;
 
 import com.lambda505.meteorutils.LambdaUtilities;
+import com.lambda505.meteorutils.utils.LatencyHistogram;
+import com.lambda505.meteorutils.utils.Metrics;
+import com.lambda505.meteorutils.utils.PlayerTracker;
 import meteordevelopment.meteorclient.settings.BoolSetting;
 import meteordevelopment.meteorclient.settings.ColorSetting;
 import meteordevelopment.meteorclient.settings.DoubleSetting;
+import meteordevelopment.meteorclient.settings.IntSetting;
 import meteordevelopment.meteorclient.settings.Setting;
 import meteordevelopment.meteorclient.settings.SettingGroup;
 import meteordevelopment.meteorclient.systems.friends.Friends;
@@ -11,13 +15,16 @@ import meteordevelopment.meteorclient.systems.hud.HudElement;
 import meteordevelopment.meteorclient.systems.hud.HudElementInfo;
 import meteordevelopment.meteorclient.systems.hud.HudRenderer;
 import meteordevelopment.meteorclient.utils.render.color.SettingColor;
-import net.minecraft.entity.player.PlayerEntity;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 import static meteordevelopment.meteorclient.MeteorClient.mc;
 
+/**
+ * Lists nearby players, closest first. Players are queried from the {@link PlayerTracker} every few ticks into reused buffers and
+ * a line is only rebuilt when its name or distance (to 0.1 m) changes. The {@link TextLayout} is rebuilt
+ * only when a line changed, so rendering a frame only draws it and allocates nothing.
+ */
 public class PlayersInRangeHUD extends HudElement {
     public static final HudElementInfo<PlayersInRangeHUD> INFO = new HudElementInfo<>(
         LambdaUtilities.HUD_GROUP,
@@ -26,6 +33,11 @@ public class PlayersInRangeHUD extends HudElement {
         PlayersInRangeHUD::new
     );
 
+    private static final LatencyHistogram RENDER = Metrics.histogram("hud.players-in-range");
+    private static final LatencyHistogram REFRESH = Metrics.histogram("hud.players-in-range.refresh");
+    private static final String OFFLINE_TITLE = "Players in Range";
+
+    private final TextLayout layout = new TextLayout();
     private final SettingGroup sgGeneral = settings.getDefaultGroup();
 
     private final Setting<Boolean> background = sgGeneral.add(new BoolSetting.Builder()
@@ -52,10 +64,31 @@ public class PlayersInRangeHUD extends HudElement {
         .build()
     );
 
+    private final Setting<Integer> maxPlayers = sgGeneral.add(new IntSetting.Builder()
+        .name("max-players")
+        .description("Maximum number of players listed, the closest are shown.")
+        .defaultValue(20)
+        .min(1)
+        .max(200)
+        .sliderMax(50)
+        .build()
+    );
+
+    private final Setting<Integer> refreshTicks = sgGeneral.add(new IntSetting.Builder()
+        .name("refresh-ticks")
+        .description("Ticks between updates of the player list.")
+        .defaultValue(4)
+        .min(1)
+        .max(40)
+        .sliderMax(20)
+        .build()
+    );
+
     private final Setting<Boolean> showDistance = sgGeneral.add(new BoolSetting.Builder()
         .name("show-distance")
         .description("Shows distance next to player names.")
         .defaultValue(true)
+        .onChanged(value -> layout.invalidate())
         .build()
     );
 
@@ -63,6 +96,7 @@ public class PlayersInRangeHUD extends HudElement {
         .name("title-color")
         .description("Color of the title text.")
         .defaultValue(new SettingColor(255, 255, 255)) // White
+        .onChanged(value -> layout.invalidate())
         .build()
     );
 
@@ -70,6 +104,7 @@ public class PlayersInRangeHUD extends HudElement {
         .name("friend-color")
         .description("Color of friend names.")
         .defaultValue(new SettingColor(0, 255, 0)) // Green
+        .onChanged(value -> layout.invalidate())
         .build()
     );
 
@@ -77,116 +112,157 @@ public class PlayersInRangeHUD extends HudElement {
         .name("player-color")
         .description("Color of regular player names.")
         .defaultValue(new SettingColor(255, 255, 255)) // White
+        .onChanged(value -> layout.invalidate())
         .build()
     );
 
+    // Shown snapshot and the one being built, swapped after every refresh
+    private PlayerBuffer shown = new PlayerBuffer();
+    private PlayerBuffer building = new PlayerBuffer();
+    private final PlayerTracker.Result nearby = new PlayerTracker.Result();
+    private final StringBuilder lineBuilder = new StringBuilder();
+
+    private String title = OFFLINE_TITLE;
+    private int titleCount = -1;
+    private boolean linesShowDistance;
+    private int ticksUntilRefresh;
+
     public PlayersInRangeHUD() {
         super(INFO);
     }
 
     @Override
-    public void render(HudRenderer renderer) {
-        if (mc.world == null || mc.player == null) {
-            renderOffline(renderer);
-            return;
-        }
+    public void tick(HudRenderer renderer) {
+        if (--ticksUntilRefresh > 0) return;
+        ticksUntilRefresh = refreshTicks.get();
 
-        List<PlayerInfo> playersInRange = getPlayersInRange();
-        renderPlayersList(renderer, playersInRange);
+        long start = System.nanoTime();
+        refresh(renderer, layout.needsRebuild(renderer));
+        REFRESH.recordSince(start);
     }
 
-    private void renderOffline(HudRenderer renderer) {
-        String title = "Players in Range";
-        double width = renderer.textWidth(title, true);
-        double height = renderer.textHeight(true);
+    @Override
+    public void render(HudRenderer renderer) {
+        long start = System.nanoTime();
+        renderElement(renderer);
+        RENDER.recordSince(start);
+    }
 
-        setSize(width, height);
+    private void renderElement(HudRenderer renderer) {
+        // Not built yet or a setting changed, don't wait for the next refresh
+        if (layout.needsRebuild(renderer)) refresh(renderer, true);
 
         if (background.get()) {
-            renderer.quad(x, y, width, height, backgroundColor.get());
+            renderer.quad(x, y, layout.getWidth(), layout.getHeight(), backgroundColor.get());
         }
-
-        renderer.text(title, x, y, titleColor.get(), true);
+        layout.render(renderer, this);
     }
 
-    private void renderPlayersList(HudRenderer renderer, List<PlayerInfo> playersInRange) {
-        String title = "Players in Range (" + playersInRange.size() + ")";
-        double titleWidth = renderer.textWidth(title, true);
-        double lineHeight = renderer.textHeight(true);
-
-        // Calculate dimensions
-        double maxWidth = titleWidth;
-        for (PlayerInfo playerInfo : playersInRange) {
-            String displayText = getDisplayText(playerInfo);
-            double playerWidth = renderer.textWidth(displayText, false);
-            if (playerWidth > maxWidth) maxWidth = playerWidth;
-        }
-
-        double totalHeight = lineHeight;
-        if (!playersInRange.isEmpty()) {
-            totalHeight += playersInRange.size() * lineHeight;
+    private void refresh(HudRenderer renderer, boolean force) {
+        if (mc.world == null || mc.player == null) {
+            boolean changed = shown.size > 0 || titleCount != -1;
+            shown.clearLines();
+            titleCount = -1;
+            title = OFFLINE_TITLE;
+            if (changed || force) buildLayout(renderer);
+            return;
         }
 
-        setSize(maxWidth, totalHeight);
+        int total = collectPlayers(building);
+        boolean showDistance = this.showDistance.get();
+        boolean reuseLines = showDistance == linesShowDistance;
+        boolean changed = building.size != shown.size;
 
-        if (background.get()) {
-            renderer.quad(x, y, maxWidth, totalHeight, backgroundColor.get());
+        for (int i = 0; i < building.size; i++) {
+            int cached = reuseLines ? shown.find(building.names[i], building.decimeters[i], i) : -1;
+            building.lines[i] = cached >= 0 ? shown.lines[cached] : buildLine(building.names[i], building.decimeters[i], showDistance);
+            changed |= i >= shown.size || building.lines[i] != shown.lines[i] || building.friends[i] != shown.friends[i];
         }
-
-        // Render title in white
-        renderer.text(title, x, y, titleColor.get(), true);
-
-        // Render player names
-        double currentY = y + lineHeight;
-        for (PlayerInfo playerInfo : playersInRange) {
-            String displayText = getDisplayText(playerInfo);
-            SettingColor color = playerInfo.isFriend ? friendColor.get() : playerColor.get();
-            renderer.text(displayText, x, currentY, color, false);
-            currentY += lineHeight;
+        linesShowDistance = showDistance;
+
+        PlayerBuffer previous = shown;
+        shown = building;
+        building = previous;
+        building.clearLines();
+
+        // The title counts everyone in range, also players cut off by max-players
+        if (titleCount != total) {
+            title = "Players in Range (" + total + ")";
+            titleCount = total;
+            changed = true;
         }
+        if (changed || force) buildLayout(renderer);
     }
 
-    private String getDisplayText(PlayerInfo playerInfo) {
-        if (showDistance.get()) {
-            return String.format("%s (%.1fm)", playerInfo.name, playerInfo.distance);
+    private void buildLayout(HudRenderer renderer) {
+        layout.begin(renderer);
+        layout.line(title, titleColor.get(), true);
+        for (int i = 0; i < shown.size; i++) {
+            layout.line(shown.lines[i], shown.friends[i] ? friendColor.get() : playerColor.get(), false);
         }
-        return playerInfo.name;
     }
 
-    private List<PlayerInfo> getPlayersInRange() {
-        List<PlayerInfo> playersInRange = new ArrayList<>();
-
-        if (mc.world == null || mc.player == null) return playersInRange;
+    private int collectPlayers(PlayerBuffer buffer) {
+        buffer.size = 0;
+        PlayerTracker.get().query(maxDistance.get(), maxPlayers.get(), nearby);
 
-        String ourPlayerName = mc.player.getName().getString();
+        // Already sorted, closest first
+        for (int i = 0; i < nearby.size(); i++) {
+            buffer.add(nearby.getName(i), (int) Math.round(nearby.getDistance(i) * 10), Friends.get().isFriend(nearby.getPlayer(i)));
+        }
+        return nearby.total();
+    }
 
-        for (PlayerEntity player : mc.world.getPlayers()) {
-            if (player == mc.player) continue; // Skip ourselves
+    private String buildLine(String name, int decimeters, boolean showDistance) {
+        if (!showDistance) return name;
 
-            double distance = mc.player.distanceTo(player);
-            if (distance <= maxDistance.get()) {
-                String playerName = player.getName().getString();
-                boolean isFriend = Friends.get().isFriend(player);
+        lineBuilder.setLength(0);
+        lineBuilder.append(name).append(" (")
+            .append(decimeters / 10).append('.').append(decimeters % 10)
+            .append("m)");
+        return lineBuilder.toString();
+    }
 
-                playersInRange.add(new PlayerInfo(playerName, distance, isFriend));
+    /**
+     * Players in range as parallel arrays, grown when needed and reused between refreshes
+     */
+    private static class PlayerBuffer {
+        private String[] names = new String[16];
+        private int[] decimeters = new int[16];
+        private boolean[] friends = new boolean[16];
+        private String[] lines = new String[16];
+        private int size;
+
+        private void add(String name, int distance, boolean friend) {
+            if (size == names.length) {
+                int capacity = size * 2;
+                names = Arrays.copyOf(names, capacity);
+                decimeters = Arrays.copyOf(decimeters, capacity);
+                friends = Arrays.copyOf(friends, capacity);
+                lines = Arrays.copyOf(lines, capacity);
             }
+            names[size] = name;
+            decimeters[size] = distance;
+            friends[size] = friend;
+            size++;
         }
 
-        // Sort by distance (closest first)
-        playersInRange.sort((a, b) -> Double.compare(a.distance, b.distance));
-
-        return playersInRange;
-    }
-
-    private static class PlayerInfo {
-        public final String name;
-        public final double distance;
-        public final boolean isFriend;
+        /**
+         * @param hint Index to check first, players usually keep their position
+         * @return Index of the player with the same name and distance, or -1
+         */
+        private int find(String name, int distance, int hint) {
+            if (hint < size && decimeters[hint] == distance && names[hint].equals(name)) return hint;
+            for (int i = 0; i < size; i++) {
+                if (decimeters[i] == distance && names[i].equals(name)) return i;
+            }
+            return -1;
+        }
 
-        public PlayerInfo(String name, double distance, boolean isFriend) {
-            this.name = name;
-            this.distance = distance;
-            this.isFriend = isFriend;
+        // Drops references to lines that are no longer shown
+        private void clearLines() {
+            Arrays.fill(lines, 0, size, null);
+            size = 0;
         }
     }
 }
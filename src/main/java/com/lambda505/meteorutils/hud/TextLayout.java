@@ -0,0 +1,144 @@
+package com.lambda505.meteorutils.hud;
+
+import meteordevelopment.meteorclient.systems.hud.HudElement;
+import meteordevelopment.meteorclient.systems.hud.HudRenderer;
+import meteordevelopment.meteorclient.utils.render.color.SettingColor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Text of a HUD element, measured once and drawn every frame. Elements rebuild it only when their
+ * content changes or {@link #needsRebuild(HudRenderer)} says so, e.g. after a color setting changed
+ * or the HUD text scale changed. Text widths are cached per string, so rebuilding with mostly the
+ * same strings measures only the new ones. Drawing allocates nothing.
+ */
+public class TextLayout {
+    // Shared title colors, never modify them
+    public static final SettingColor RED = new SettingColor(255, 0, 0);
+    public static final SettingColor GREEN = new SettingColor(0, 255, 0);
+
+    private static final int MAX_CACHED_WIDTHS = 1024;
+
+    private final Map<String, Double> widths = new HashMap<>();
+    private final Map<String, Double> shadowWidths = new HashMap<>();
+
+    // Text runs relative to the element position
+    private String[] texts = new String[16];
+    private double[] offsetsX = new double[16];
+    private double[] offsetsY = new double[16];
+    private SettingColor[] colors = new SettingColor[16];
+    private boolean[] shadows = new boolean[16];
+    private int size;
+
+    private HudRenderer renderer;
+    private double lineHeight;
+    private double width;
+    private double height;
+    private boolean valid;
+
+    /**
+     * Marks the layout for a rebuild, e.g. from a color setting's onChanged
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * @return true if the layout was never built, was invalidated or the text scale changed
+     */
+    public boolean needsRebuild(HudRenderer renderer) {
+        return !valid || renderer.textHeight(true) != lineHeight;
+    }
+
+    /**
+     * Clears the layout to add new content
+     * @param renderer Used to measure the added text
+     */
+    public void begin(HudRenderer renderer) {
+        this.renderer = renderer;
+        double height = renderer.textHeight(true);
+        if (height != lineHeight) {
+            // Scale changed, every cached width is wrong
+            widths.clear();
+            shadowWidths.clear();
+            lineHeight = height;
+        }
+
+        Arrays.fill(texts, 0, size, null);
+        Arrays.fill(colors, 0, size, null);
+        size = 0;
+        width = 0;
+        this.height = 0;
+        valid = true;
+    }
+
+    /**
+     * Adds text below everything added so far
+     */
+    public void line(String text, SettingColor color, boolean shadow) {
+        text(text, 0, height, color, shadow);
+    }
+
+    /**
+     * Adds text at a position relative to the element
+     * @param offsetX Distance from the element's left edge
+     * @param offsetY Distance from the element's top edge
+     */
+    public void text(String text, double offsetX, double offsetY, SettingColor color, boolean shadow) {
+        if (size == texts.length) {
+            int capacity = size * 2;
+            texts = Arrays.copyOf(texts, capacity);
+            offsetsX = Arrays.copyOf(offsetsX, capacity);
+            offsetsY = Arrays.copyOf(offsetsY, capacity);
+            colors = Arrays.copyOf(colors, capacity);
+            shadows = Arrays.copyOf(shadows, capacity);
+        }
+        texts[size] = text;
+        offsetsX[size] = offsetX;
+        offsetsY[size] = offsetY;
+        colors[size] = color;
+        shadows[size] = shadow;
+        size++;
+
+        width = Math.max(width, offsetX + textWidth(text, shadow));
+        height = Math.max(height, offsetY + lineHeight);
+    }
+
+    /**
+     * Measures text with the renderer passed to {@link #begin(HudRenderer)}, cached per string
+     */
+    public double textWidth(String text, boolean shadow) {
+        Map<String, Double> cache = shadow ? shadowWidths : widths;
+        Double cached = cache.get(text);
+        if (cached != null) return cached;
+
+        if (cache.size() >= MAX_CACHED_WIDTHS) cache.clear();
+        double measured = renderer.textWidth(text, shadow);
+        cache.put(text, measured);
+        return measured;
+    }
+
+    public double getLineHeight() {
+        return lineHeight;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    /**
+     * Sizes the element to the layout and draws the text
+     */
+    public void render(HudRenderer renderer, HudElement element) {
+        element.setSize(width, height);
+        for (int i = 0; i < size; i++) {
+            renderer.text(texts[i], element.x + offsetsX[i], element.y + offsetsY[i], colors[i], shadows[i]);
+        }
+    }
+}
@@ -2,16 +2,17 @@ package com.lambda505.meteorutils.modules;
 
 import com.lambda505.meteorutils.LambdaUtilities;
 import com.lambda505.meteorutils.utils.*;
-import meteordevelopment.meteorclient.events.game.ReceiveMessageEvent;
+import com.lambda505.meteorutils.utils.LeakRecorder.LogFormat;
+import meteordevelopment.meteorclient.events.game.GameLeftEvent;
+import meteordevelopment.meteorclient.events.world.TickEvent;
 import meteordevelopment.meteorclient.settings.*;
 import meteordevelopment.meteorclient.systems.modules.Module;
 import meteordevelopment.orbit.EventHandler;
 
 import java.io.File;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.sql.SQLException;
 
-public class ChatCoordLogger extends Module {
+public class ChatCoordLogger extends Module implements ChatMessageConsumer {
     private final SettingGroup sgGeneral = this.settings.getDefaultGroup();
     private final SettingGroup sgFilters = this.settings.createGroup("Filters");
 
@@ -71,30 +72,87 @@ public class ChatCoordLogger extends Module {
         .build()
     );
 
-    // Enhanced regex pattern to match coordinates in various formats
-    private static final Pattern COORD_PATTERN_XYZ = Pattern.compile(
-        "(?i)(?:" +
-            // Format: x: 123, y: 64, z: -456
-            "(?:.*(?:x|pos)\\s*[:=]?\\s*(-?\\d+).*(?:y|height)\\s*[:=]?\\s*(-?\\d+).*(?:z)\\s*[:=]?\\s*(-?\\d+).*)|" +
-            // Format: (123, 64, -456)
-            "(?:.*\\(\\s*(-?\\d+)\\s*,\\s*(-?\\d+)\\s*,\\s*(-?\\d+)\\s*\\).*)|" +
-            // Format: 123 64 -456 (three space-separated numbers)
-            "(?:.*\\b(-?\\d+)\\s+(-?\\d+)\\s+(-?\\d+)\\b.*)" +
-            ")"
+    private final Setting<LogFormat> logFormat = sgGeneral.add(new EnumSetting.Builder<LogFormat>()
+        .name("log-format")
+        .description("How logged coordinates are stored. Binary logs are several times smaller and can be exported to text with .leaks export")
+        .defaultValue(LogFormat.Binary)
+        .build()
+    );
+
+    private final Setting<AsyncLogWriter.FlushPolicy> flushPolicy = sgGeneral.add(new EnumSetting.Builder<AsyncLogWriter.FlushPolicy>()
+        .name("flush-policy")
+        .description("When logged coordinates are forced to disk")
+        .defaultValue(AsyncLogWriter.FlushPolicy.PerBatch)
+        .build()
+    );
+
+    private final Setting<Integer> flushInterval = sgGeneral.add(new IntSetting.Builder()
+        .name("flush-interval")
+        .description("Milliseconds between disk flushes")
+        .defaultValue(1000)
+        .min(50)
+        .max(60000)
+        .sliderMax(10000)
+        .visible(() -> flushPolicy.get() == AsyncLogWriter.FlushPolicy.Interval)
+        .build()
     );
 
-    // Pattern for X-Z coordinates (two numbers that look like coordinates)
-    private static final Pattern COORD_PATTERN_XZ = Pattern.compile(
-        "(?i)(?:" +
-            // Format: x: 123, z: -456
-            "(?:.*(?:x|pos)\\s*[:=]?\\s*(-?\\d+).*(?:z)\\s*[:=]?\\s*(-?\\d+).*)|" +
-            // Format: (123, -456) - two numbers in parentheses
-            "(?:.*\\(\\s*(-?\\d+)\\s*,\\s*(-?\\d+)\\s*\\).*)|" +
-            // Format: 123 -456 (two space-separated large numbers)
-            "(?:.*\\b(-?\\d{3,})\\s+(-?\\d{3,})\\b.*)" +
-            ")"
+    private final Setting<StorageBackend.Kind> storage = sgGeneral.add(new EnumSetting.Builder<StorageBackend.Kind>()
+        .name("storage")
+        .description("Where logged coordinates are kept. Database keeps every server in one indexed file, shared with the Private Message Archiver")
+        .defaultValue(StorageBackend.Kind.Text)
+        .onChanged(v -> closeRecorder())
+        .build()
     );
 
+    private static final LatencyHistogram TICK = Metrics.histogram("coords.tick");
+
+    private int tickCounter = 0;
+    private volatile LeakRecorder recorder;
+
+    // Settings are read live by the recorder
+    private final LeakRecorder.Config config = new LeakRecorder.Config() {
+        @Override
+        public boolean logOwnCoords() {
+            return logOwnCoords.get();
+        }
+
+        @Override
+        public boolean detectXZCoords() {
+            return detectXZCoords.get();
+        }
+
+        @Override
+        public int minCoordValue() {
+            return minCoordValue.get();
+        }
+
+        @Override
+        public boolean ignoreSpawnRadius() {
+            return ignoreSpawnRadius.get();
+        }
+
+        @Override
+        public int spawnRadius() {
+            return spawnRadius.get();
+        }
+
+        @Override
+        public LogFormat logFormat() {
+            return logFormat.get();
+        }
+
+        @Override
+        public AsyncLogWriter.FlushPolicy flushPolicy() {
+            return flushPolicy.get();
+        }
+
+        @Override
+        public int flushInterval() {
+            return flushInterval.get();
+        }
+    };
+
     public ChatCoordLogger() {
         super(LambdaUtilities.CATEGORY, "chat-coord-logger", "Logs coordinate leaks found in chat messages to server-specific files.");
         updatePathInfo();
@@ -105,152 +163,138 @@ public class ChatCoordLogger extends Module {
     }
 
     @EventHandler
-    private void onReceiveMessage(ReceiveMessageEvent event) {
-        if (event.getMessage() == null) return;
+    private void onTick(TickEvent.Post event) {
+        if (++tickCounter >= 20) {
+            long start = System.nanoTime();
+            tickCounter = 0;
+            flushBinaryLog();
+            if (flushPolicy.get() == AsyncLogWriter.FlushPolicy.OnTick) AsyncLogWriter.sync();
+            TICK.recordSince(start);
+        }
+    }
 
-        String messageText = event.getMessage().getString();
-        String senderName = ChatMessageUtils.extractPlayerName(event.getMessage());
+    @EventHandler
+    private void onGameLeft(GameLeftEvent event) {
+        // The chat pipeline was drained before, the session drains the writer after
+        flushBinaryLog();
+    }
 
-        // Skip if it's our own message and we don't want to log our coordinates
-        if (!logOwnCoords.get() && mc.player != null &&
-            ChatMessageUtils.isOwnMessage(event.getMessage(), mc.player.getName().getString())) {
-            return;
-        }
+    @Override
+    public void onChatMessage(ParsedChatMessage message) {
+        getRecorder(message.getOrigin().getSession()).onChatMessage(message);
+    }
 
-        // First try to match XYZ coordinates
-        if (checkXYZCoordinates(messageText, senderName)) {
-            return; // Found XYZ coordinates, don't check for XZ
+    // Runs on the chat worker, feedback goes through the client thread
+    private void onLogged(LeakRecord record, String location, boolean queued) {
+        if (queued) {
+            String feedback = "Logged " + record.getType() + " coordinates from " + record.player + " to " + location;
+            mc.execute(() -> info(feedback));
+        } else {
+            mc.execute(() -> error("Failed to write coordinate log"));
         }
+    }
 
-        // If XZ detection is enabled and no XYZ found, try XZ coordinates
-        if (detectXZCoords.get()) {
-            checkXZCoordinates(messageText, senderName);
+    private LeakRecorder getRecorder() {
+        return getRecorder(ServerSession.current());
+    }
+
+    // One recorder per server, created when the session changes
+    private synchronized LeakRecorder getRecorder(ServerSession session) {
+        LeakRecorder current = recorder;
+        if (current == null || current.getDirectory().getSession() != session) {
+            if (current != null) current.close();
+            current = new LeakRecorder(session.getDirectory(BASE_PATH, SUB_FOLDER), config, openStorage(), this::onLogged);
+            recorder = current;
         }
+        return current;
     }
 
-    private boolean checkXYZCoordinates(String messageText, String senderName) {
-        Matcher matcher = COORD_PATTERN_XYZ.matcher(messageText);
-        if (matcher.find()) {
-            String x = null, y = null, z = null;
-
-            // Check which group matched and extract coordinates accordingly
-            if (matcher.group(1) != null) {
-                // Format: x: 123, y: 64, z: -456
-                x = matcher.group(1);
-                y = matcher.group(2);
-                z = matcher.group(3);
-            } else if (matcher.group(4) != null) {
-                // Format: (123, 64, -456)
-                x = matcher.group(4);
-                y = matcher.group(5);
-                z = matcher.group(6);
-            } else if (matcher.group(7) != null) {
-                // Format: 123 64 -456
-                x = matcher.group(7);
-                y = matcher.group(8);
-                z = matcher.group(9);
-            }
-
-            if (x != null && y != null && z != null) {
-                try {
-                    int coordX = Integer.parseInt(x);
-                    int coordZ = Integer.parseInt(z);
-
-                    // Check spawn radius filter
-                    if (ignoreSpawnRadius.get() && isWithinSpawnRadius(coordX, coordZ)) {
-                        return true; // Found coords but filtered out
-                    }
-
-                    logCoordinates(senderName, x, y, z, messageText, "XYZ");
-                    return true;
-                } catch (NumberFormatException e) {
-                    // Invalid coordinates, continue
-                }
-            }
+    // Null selects the recorder's log files, also when the database cannot be opened
+    private StorageBackend openStorage() {
+        if (storage.get() != StorageBackend.Kind.Database) return null;
+
+        try {
+            return DatabaseStorage.acquire(DatabaseStorage.getDefaultFile());
+        } catch (SQLException e) {
+            LambdaUtilities.LOG.warn("Failed to open coordinate database, logging to text files", e);
+            mc.execute(() -> error("Failed to open database, logging to files instead"));
+            return null;
         }
-        return false;
     }
 
-    private boolean checkXZCoordinates(String messageText, String senderName) {
-        Matcher matcher = COORD_PATTERN_XZ.matcher(messageText);
-        if (matcher.find()) {
-            String x = null, z = null;
-
-            // Check which group matched and extract coordinates accordingly
-            if (matcher.group(1) != null) {
-                // Format: x: 123, z: -456
-                x = matcher.group(1);
-                z = matcher.group(2);
-            } else if (matcher.group(3) != null) {
-                // Format: (123, -456)
-                x = matcher.group(3);
-                z = matcher.group(4);
-            } else if (matcher.group(5) != null) {
-                // Format: 123 -456 (two large numbers)
-                x = matcher.group(5);
-                z = matcher.group(6);
-            }
-
-            if (x != null && z != null) {
-                try {
-                    int coordX = Integer.parseInt(x);
-                    int coordZ = Integer.parseInt(z);
-
-                    // Check if coordinates are large enough to be actual coordinates
-                    if (Math.abs(coordX) < minCoordValue.get() && Math.abs(coordZ) < minCoordValue.get()) {
-                        return false; // Numbers too small, probably not coordinates
-                    }
-
-                    // Check spawn radius filter
-                    if (ignoreSpawnRadius.get() && isWithinSpawnRadius(coordX, coordZ)) {
-                        return true; // Found coords but filtered out
-                    }
-
-                    logCoordinates(senderName, x, "?", z, messageText, "XZ");
-                    return true;
-                } catch (NumberFormatException e) {
-                    // Invalid coordinates, continue
-                }
-            }
+    // The next message creates a recorder with the current storage
+    private synchronized void closeRecorder() {
+        if (recorder != null) {
+            recorder.close();
+            recorder = null;
         }
-        return false;
     }
 
-    private boolean isWithinSpawnRadius(int x, int z) {
-        double distance = Math.sqrt(x * x + z * z);
-        return distance <= spawnRadius.get();
+    // A disabled module must not open storage, its onDeactivate would never release it
+    private LeakRecorder getActiveRecorder() {
+        return isActive() ? getRecorder() : null;
     }
 
-    private void logCoordinates(String playerName, String x, String y, String z, String fullMessage, String coordType) {
-        File logFile = getLogFile();
+    /**
+     * @return Where leaks on the current server are logged, or null if the module is disabled
+     */
+    public StorageBackend getStorage() {
+        LeakRecorder current = getActiveRecorder();
+        return current != null ? current.getStorage() : null;
+    }
 
-        // Create the log entry with coordinate type information
-        String logEntry = LogWriter.createTimestampedFormattedEntry(
-            "Player: %s | Coords (%s): %s, %s, %s | Message: %s",
-            playerName, coordType, x, y, z, fullMessage);
+    /**
+     * Queues binary log entries that are still collected into a block
+     */
+    public void flushBinaryLog() {
+        if (recorder != null) recorder.flush();
+    }
 
-        if (LogWriter.writeLogEntry(logFile, logEntry)) {
-            info("Logged " + coordType + " coordinates from " + playerName + " to " + logFile.getName());
-        } else {
-            error("Failed to write coordinate log");
-        }
+    /**
+     * @return Binary log of the current server, see {@link LeakRecordWriter}, or null if the module is disabled
+     */
+    public File getBinaryLogFile() {
+        LeakRecorder current = getActiveRecorder();
+        return current != null ? current.getBinaryFile() : null;
+    }
+
+    /**
+     * @return Text file binary logs of the current server are exported to, or null if the module is disabled
+     */
+    public File getExportFile() {
+        LeakRecorder current = getActiveRecorder();
+        return current != null ? current.getExportFile() : null;
     }
 
-    private File getLogFile() {
-        String serverName = ServerUtils.getServerName();
-        String fileName = "ccl_" + serverName + ".txt";
-        return FileUtils.getLogFile(BASE_PATH, SUB_FOLDER, fileName);
+    /**
+     * Gets the spatial index of the leaks logged on the current server. The index is built from
+     * the log file in the background, queries made before that finishes see only part of the leaks.
+     * @return The leak index of the current server, or null if the module is disabled
+     */
+    public LeakIndex getLeakIndex() {
+        LeakRecorder current = getActiveRecorder();
+        return current != null ? current.getLeakIndex() : null;
     }
 
     @Override
     public void onActivate() {
         updatePathInfo();
+        ChatPipeline.get().register(this);
 
-        if (FileUtils.createDirectoryStructure(BASE_PATH, SUB_FOLDER)) {
-            String currentLogFile = getLogFile().getName();
+        LeakRecorder current = getRecorder();
+        String currentLogFile = current.getStorage().getLocation();
+        current.getLeakIndex();
+        if (current.getDirectory().ensureExists()) {
             info("Chat Coordinate Logger activated. Current log file: " + currentLogFile);
         } else {
             error("Failed to create directory structure");
         }
     }
+
+    @Override
+    public void onDeactivate() {
+        ChatPipeline.get().unregister(this);
+        closeRecorder();
+        AsyncLogWriter.drain(2000);
+    }
 }
@@ -3,27 +3,22 @@ package com.lambda505.meteorutils.modules;
 import com.lambda505.meteorutils.LambdaUtilities;
 import com.lambda505.meteorutils.utils.*;
 import meteordevelopment.meteorclient.events.game.GameLeftEvent;
-import meteordevelopment.meteorclient.events.game.ReceiveMessageEvent;
 import meteordevelopment.meteorclient.events.world.TickEvent;
 import meteordevelopment.meteorclient.settings.*;
 import meteordevelopment.meteorclient.systems.modules.Module;
 import meteordevelopment.orbit.EventHandler;
 
 import java.io.File;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.*;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.sql.SQLException;
 
-public class PrivateMessageArchiver extends Module {
+public class PrivateMessageArchiver extends Module implements ChatMessageConsumer {
     private final SettingGroup sgGeneral = this.settings.getDefaultGroup();
     private final SettingGroup sgSession = this.settings.createGroup("Session Management");
     private final SettingGroup sgDebug = this.settings.createGroup("Debug");
 
     private static final String BASE_PATH = "LambdaMeteorUtilities";
     private static final String SUB_FOLDER = "PrivateMessageArchiver";
-    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+    private static final String JOURNAL_FILE = "journal.wal";
 
     // Settings
     private final Setting<String> pathInfo = sgGeneral.add(new StringSetting.Builder()
@@ -42,6 +37,46 @@ public class PrivateMessageArchiver extends Module {
         .name("max-messages-per-file").description("Maximum messages per file before creating a new one")
         .defaultValue(1000).min(100).max(10000).sliderMax(5000).build());
 
+    private final Setting<AsyncLogWriter.FlushPolicy> flushPolicy = sgGeneral.add(new EnumSetting.Builder<AsyncLogWriter.FlushPolicy>()
+        .name("flush-policy").description("When archived messages are forced to disk")
+        .defaultValue(AsyncLogWriter.FlushPolicy.PerBatch).build());
+
+    private final Setting<Integer> flushInterval = sgGeneral.add(new IntSetting.Builder()
+        .name("flush-interval").description("Milliseconds between disk flushes")
+        .defaultValue(1000).min(50).max(60000).sliderMax(10000)
+        .visible(() -> flushPolicy.get() == AsyncLogWriter.FlushPolicy.Interval).build());
+
+    private final Setting<Integer> maxOpenFiles = sgGeneral.add(new IntSetting.Builder()
+        .name("max-open-files").description("Archive files kept open between writes, least recently used are closed first")
+        .defaultValue(64).min(1).max(1024).sliderMax(256)
+        .onChanged(v -> configureHandles()).build());
+
+    private final Setting<Integer> fileIdleTimeout = sgGeneral.add(new IntSetting.Builder()
+        .name("file-idle-timeout").description("Seconds before an unused archive file is closed")
+        .defaultValue(60).min(5).max(3600).sliderMax(600)
+        .onChanged(v -> configureHandles()).build());
+
+    private final Setting<Boolean> journal = sgGeneral.add(new BoolSetting.Builder()
+        .name("journal").description("Record writes in a journal first, a crash cannot tear or lose the last archived lines")
+        .defaultValue(true).onChanged(v -> configureJournal()).build());
+
+    private final Setting<Integer> journalSyncInterval = sgGeneral.add(new IntSetting.Builder()
+        .name("journal-sync-interval").description("Milliseconds between journal flushes, 0 flushes after every write")
+        .defaultValue(200).min(0).max(10000).sliderMax(2000)
+        .visible(journal::get).onChanged(v -> configureJournal()).build());
+
+    private final Setting<Boolean> compressRotated = sgGeneral.add(new BoolSetting.Builder()
+        .name("compress-rotated").description("Compress full archive files in the background, they stay searchable")
+        .defaultValue(true).build());
+
+    private final Setting<Boolean> indexMessages = sgGeneral.add(new BoolSetting.Builder()
+        .name("index-messages").description("Keep a search index of the archive for .pmsearch, built in the background")
+        .defaultValue(true).onChanged(v -> releaseSearchIndex()).build());
+
+    private final Setting<StorageBackend.Kind> storage = sgGeneral.add(new EnumSetting.Builder<StorageBackend.Kind>()
+        .name("storage").description("Where messages are kept. Database keeps every server in one indexed file, shared with the Chat Coord Logger")
+        .defaultValue(StorageBackend.Kind.Text).onChanged(v -> closeArchive("STORAGE CHANGED")).build());
+
     private final Setting<Boolean> endOnDisconnect = sgSession.add(new BoolSetting.Builder()
         .name("end-on-disconnect").description("Mark end of discussion when disconnecting from server")
         .defaultValue(true).build());
@@ -58,87 +93,64 @@ public class PrivateMessageArchiver extends Module {
         .name("debug-to-file").description("Log debug info to debug file (safe, won't crash)")
         .defaultValue(false).build());
 
-    // Pattern matching
-    private static final Pattern TIMESTAMP_PREFIX = Pattern.compile("^<\\d{1,2}:\\d{2}>\\s*");
-    private static final List<MessagePattern> PATTERNS = Arrays.asList(
-        // Incoming patterns
-        new MessagePattern(" whispers to you", true, true),
-        new MessagePattern(" tells you", true, true),
-        new MessagePattern(" messages you", true, true),
-        new MessagePattern(" -> you", true, true),
-        new MessagePattern(" -> YOU", true, true), // Added for case variations
-        new MessagePattern(" whispers:", true, true),
-        new MessagePattern("From ", false, true, 5),
-        new MessagePattern("from ", false, true, 5),
-        new MessagePattern("FROM ", false, true, 5),
-        new MessagePattern("[", false, true) { // Special case for [Player -> You]
-            @Override
-            public MatchResult tryMatch(String msg) {
-                if (!msg.startsWith("[") || !msg.contains(" -> You]")) return null;
-                int arrowIndex = msg.indexOf(" -> You]");
-                if (arrowIndex <= 1) return null;
-                String player = msg.substring(1, arrowIndex).trim();
-                String content = extractContent(msg, msg.indexOf("]") + 1);
-                return new MatchResult(player, content, true);
-            }
-        },
-
-        // Outgoing patterns
-        new MessagePattern("You whisper to ", false, false, "You whisper to ".length()),
-        new MessagePattern("You tell ", false, false, "You tell ".length()),
-        new MessagePattern("You message ", false, false, "You message ".length()),
-        new MessagePattern("To ", false, false, 3),
-        new MessagePattern("to ", false, false, 3),
-        new MessagePattern("TO ", false, false, 3),
-        new MessagePattern("you -> ", false, false, "you -> ".length()),
-        new MessagePattern("YOU -> ", false, false, "YOU -> ".length()), // Added for uppercase case
-        new MessagePattern("[You -> ", false, false) { // Special case for [You -> Player]
-            @Override
-            public MatchResult tryMatch(String msg) {
-                if (!msg.startsWith("[You -> ")) return null;
-                int bracketIndex = msg.indexOf("]");
-                if (bracketIndex <= "[You -> ".length()) return null;
-                String player = msg.substring("[You -> ".length(), bracketIndex).trim();
-                String content = extractContent(msg, bracketIndex + 1);
-                return new MatchResult(player, content, false);
-            }
-        },
-        new MessagePattern("You -> ", false, false, "You -> ".length()),
-        new MessagePattern("Reply to ", false, false, "Reply to ".length()),
-
-        // Custom patterns for Name -> YOU and YOU -> Name format
-        new MessagePattern(null, false, false) { // Custom outgoing pattern for "YOU -> Name"
-            @Override
-            public MatchResult tryMatch(String msg) {
-                if (!msg.startsWith("YOU -> ")) return null;
-                int colonIndex = msg.indexOf(":");
-                if (colonIndex <= "YOU -> ".length()) return null;
-                String player = msg.substring("YOU -> ".length(), colonIndex).trim();
-                String content = extractContent(msg, colonIndex);
-                return new MatchResult(player, content, false);
-            }
-        },
-        new MessagePattern(null, false, true) { // Custom incoming pattern for "Name -> YOU"
-            @Override
-            public MatchResult tryMatch(String msg) {
-                if (!msg.contains(" -> YOU:")) return null;
-                int arrowIndex = msg.indexOf(" -> YOU:");
-                if (arrowIndex <= 0) return null;
-                String player = msg.substring(0, arrowIndex).trim();
-                String content = extractContent(msg, arrowIndex + " -> YOU:".length());
-                return new MatchResult(player, content, true);
-            }
-        }
-    );
-
-    // State tracking
-    private final Map<String, Integer> messageCountsPerPlayer = new HashMap<>();
-    private final Map<String, Long> lastActivityPerPlayer = new HashMap<>();
-    private final Map<String, Boolean> activeSessionsPerPlayer = new HashMap<>();
-    private final List<String> debugQueue = new ArrayList<>();
-    private String currentPlayerName;
+    private static final LatencyHistogram TICK = Metrics.histogram("pm.tick");
+
+    private volatile MessageArchive archive;
     private int tickCounter = 0;
 
+    // Settings are read live by the archive
+    private final MessageArchive.Config config = new MessageArchive.Config() {
+        @Override
+        public boolean logOwnMessages() {
+            return logOwnMessages.get();
+        }
+
+        @Override
+        public boolean includeTimestamps() {
+            return includeTimestamps.get();
+        }
+
+        @Override
+        public int maxMessagesPerFile() {
+            return maxMessagesPerFile.get();
+        }
+
+        @Override
+        public AsyncLogWriter.FlushPolicy flushPolicy() {
+            return flushPolicy.get();
+        }
+
+        @Override
+        public int flushInterval() {
+            return flushInterval.get();
+        }
+
+        @Override
+        public boolean compressRotated() {
+            return compressRotated.get();
+        }
+
+        @Override
+        public boolean indexMessages() {
+            return indexMessages.get();
+        }
+
+        @Override
+        public int sessionTimeoutMinutes() {
+            return sessionTimeoutMinutes.get();
+        }
+
+        @Override
+        public boolean logSessionMarkers() {
+            return logSessionMarkers.get();
+        }
+
+        @Override
+        public boolean debugToFile() {
+            return enableDebugLogging.get();
+        }
+    };
+
     public PrivateMessageArchiver() {
         super(LambdaUtilities.CATEGORY, "private-message-archiver",
             "Archives private messages/discussions in separate files per player.");
@@ -149,258 +161,130 @@ public class PrivateMessageArchiver extends Module {
         pathInfo.set(FileUtils.getDisplayPath(BASE_PATH, SUB_FOLDER));
     }
 
-    @EventHandler private void onTick(TickEvent.Post event) {
-        if (++tickCounter >= 20) {
-            tickCounter = 0;
-            checkSessionTimeouts();
-            processDebugQueue();
-        }
+    private void configureHandles() {
+        AsyncLogWriter.configureHandles(maxOpenFiles.get(), fileIdleTimeout.get() * 1000L);
     }
 
-    @EventHandler private void onGameLeft(GameLeftEvent event) {
-        if (endOnDisconnect.get()) endAllSessions("DISCONNECTED");
+    /**
+     * @return Write-ahead journal used while the module is active, see {@link AsyncLogWriter#configureJournal}
+     */
+    public static File getJournalFile() {
+        return new File(ClientContext.get().getRunDirectory(), BASE_PATH + File.separator + JOURNAL_FILE);
     }
 
-    @EventHandler
-    private void onReceiveMessage(ReceiveMessageEvent event) {
-        try {
-            if (event.getMessage() == null) return;
-            String messageText = event.getMessage().getString();
-            if (messageText == null || messageText.trim().isEmpty()) return;
-
-            if (currentPlayerName == null) {
-                currentPlayerName = ServerUtils.getCurrentPlayerName();
-            }
-
-            String cleanMessage = removeTimestamp(messageText);
-            MatchResult result = tryMatchPatterns(cleanMessage);
-
-            if (result != null) {
-                if (!result.isIncoming && !logOwnMessages.get()) return;
-
-                String sanitizedPlayerName = FileUtils.sanitizeFileName(result.playerName);
-                archiveMessage(sanitizedPlayerName, result.content, result.isIncoming);
-
-                if (enableDebugLogging.get()) {
-                    queueDebugMessage("MATCHED: " + (result.isIncoming ? "IN" : "OUT") +
-                        " | " + result.playerName + " | " + messageText);
-                }
-            } else if (enableDebugLogging.get() && containsPrivateMessageKeywords(cleanMessage)) {
-                queueDebugMessage("UNMATCHED: " + messageText);
-            }
-
-        } catch (Exception e) {
-            if (enableDebugLogging.get()) {
-                queueDebugMessage("ERROR: " + e.getMessage());
-            }
-        }
-    }
-
-    private String removeTimestamp(String messageText) {
-        Matcher matcher = TIMESTAMP_PREFIX.matcher(messageText);
-        return matcher.find() ? messageText.substring(matcher.end()) : messageText;
+    // Settings are loaded before activation, only an active archiver journals
+    private void configureJournal() {
+        if (!isActive()) return;
+        AsyncLogWriter.configureJournal(journal.get() ? getJournalFile() : null, journalSyncInterval.get());
     }
 
-    private MatchResult tryMatchPatterns(String message) {
-        for (MessagePattern pattern : PATTERNS) {
-            MatchResult result = pattern.tryMatch(message);
-            if (result != null) {
-                result.playerName = cleanPlayerName(result.playerName);
-                if (result.playerName != null && !result.playerName.isEmpty() &&
-                    result.content != null && !result.content.isEmpty()) {
-                    return result;
-                }
-            }
+    @EventHandler private void onTick(TickEvent.Post event) {
+        if (++tickCounter >= 20) {
+            long start = System.nanoTime();
+            tickCounter = 0;
+            MessageArchive current = archive;
+            if (current != null) current.tick(System.currentTimeMillis());
+            if (flushPolicy.get() == AsyncLogWriter.FlushPolicy.OnTick) AsyncLogWriter.sync();
+            TICK.recordSince(start);
         }
-        return null;
     }
 
-    private String cleanPlayerName(String playerName) {
-        if (playerName == null) return null;
-        return playerName.replaceAll("^\\[.*?\\]\\s*", "")
-            .replaceAll("\\s*\\[.*?\\]$", "")
-            .replaceAll("^\\*+\\s*", "")
-            .replaceAll("\\s*\\*+$", "")
-            .trim();
+    @EventHandler private void onGameLeft(GameLeftEvent event) {
+        // The chat pipeline was drained before, the session drains the writer after
+        closeArchive("DISCONNECTED");
     }
 
-    private boolean containsPrivateMessageKeywords(String message) {
-        String lower = message.toLowerCase();
-        return lower.contains("whisper") || lower.contains("tell") || lower.contains("message") ||
-            lower.contains(" -> ") || lower.contains("from ") || lower.contains("to ") ||
-            lower.contains("reply");
+    @Override
+    public void onChatMessage(ParsedChatMessage message) {
+        getArchive(message.getOrigin().getSession()).onChatMessage(message);
     }
 
-    private void archiveMessage(String playerName, String content, boolean isIncoming) {
-        try {
-            if (!activeSessionsPerPlayer.getOrDefault(playerName, false) && logSessionMarkers.get()) {
-                startSession(playerName);
-            }
-
-            File archiveFile = getArchiveFile(playerName);
-            String direction = isIncoming ? "FROM" : "TO";
-            String messageContent = direction + " " + playerName + ": " + content;
-
-            String logEntry = includeTimestamps.get() ?
-                LogWriter.createSafeTimestampedEntry(messageContent) :
-                messageContent + System.lineSeparator();
-
-            if (LogWriter.writeLogEntry(archiveFile, logEntry)) {
-                messageCountsPerPlayer.put(playerName, messageCountsPerPlayer.getOrDefault(playerName, 0) + 1);
-                lastActivityPerPlayer.put(playerName, System.currentTimeMillis());
-                activeSessionsPerPlayer.put(playerName, true);
-            }
-        } catch (Exception ignored) {}
+    private MessageArchive getArchive() {
+        return getArchive(ServerSession.current());
     }
 
-    private void startSession(String playerName) {
-        try {
-            if (logSessionMarkers.get()) {
-                File archiveFile = getArchiveFile(playerName);
-                String sessionInfo = "CONVERSATION STARTED WITH " + playerName.toUpperCase();
-                String sessionEntry = LogWriter.createSessionSeparator(sessionInfo);
-                LogWriter.writeLogEntry(archiveFile, sessionEntry);
-            }
-        } catch (Exception ignored) {}
+    // One archive per server, created when the session changes
+    private synchronized MessageArchive getArchive(ServerSession session) {
+        MessageArchive current = archive;
+        if (current == null || current.getDirectory().getSession() != session) {
+            if (current != null) current.close();
+            current = new MessageArchive(session.getServerDirectory(BASE_PATH, SUB_FOLDER), config, openStorage());
+            current.start();
+            archive = current;
+        }
+        return current;
     }
 
-    private void endSession(String playerName, String reason) {
-        try {
-            if (logSessionMarkers.get()) {
-                File archiveFile = getArchiveFile(playerName);
-                String sessionInfo = "CONVERSATION ENDED WITH " + playerName.toUpperCase() + " - " + reason;
-                LogWriter.writeLogEntry(archiveFile, LogWriter.createSessionSeparator(sessionInfo));
-            }
-            activeSessionsPerPlayer.put(playerName, false);
-        } catch (Exception ignored) {}
-    }
+    // Null selects the archive files, also when the database cannot be opened
+    private StorageBackend openStorage() {
+        if (storage.get() != StorageBackend.Kind.Database) return null;
 
-    private void checkSessionTimeouts() {
         try {
-            long currentTime = System.currentTimeMillis();
-            long timeoutMillis = sessionTimeoutMinutes.get() * 60 * 1000L;
-
-            lastActivityPerPlayer.entrySet().removeIf(entry -> {
-                String playerName = entry.getKey();
-                if (activeSessionsPerPlayer.getOrDefault(playerName, false) &&
-                    (currentTime - entry.getValue()) > timeoutMillis) {
-                    endSession(playerName, "TIMEOUT (" + sessionTimeoutMinutes.get() + " minutes)");
-                    return false;
-                }
-                return false;
-            });
-        } catch (Exception ignored) {}
+            return DatabaseStorage.acquire(DatabaseStorage.getDefaultFile());
+        } catch (SQLException e) {
+            LambdaUtilities.LOG.warn("Failed to open message database, archiving to text files", e);
+            mc.execute(() -> error("Failed to open database, archiving to files instead"));
+            return null;
+        }
     }
 
-    private void endAllSessions(String reason) {
-        activeSessionsPerPlayer.keySet().forEach(playerName -> {
-            if (activeSessionsPerPlayer.get(playerName)) {
-                endSession(playerName, reason);
-            }
-        });
+    // A disabled module must not open storage, its onDeactivate would never release it
+    private MessageArchive getActiveArchive() {
+        return isActive() ? getArchive() : null;
     }
 
-    private File getArchiveFile(String playerName) {
-        String serverName = ServerUtils.getServerName();
-        int currentCount = messageCountsPerPlayer.getOrDefault(playerName, 0);
-        String timestamp = (currentCount >= maxMessagesPerFile.get()) ?
-            "_" + LocalDateTime.now().format(FILE_TIMESTAMP) : "";
-
-        if (currentCount >= maxMessagesPerFile.get()) {
-            messageCountsPerPlayer.put(playerName, 0);
-        }
+    /**
+     * @return Where messages on the current server are archived, or null if the module is disabled
+     */
+    public StorageBackend getStorage() {
+        MessageArchive current = getActiveArchive();
+        return current != null ? current.getStorage() : null;
+    }
 
-        String fileName = playerName + timestamp + ".txt";
-        return FileUtils.getServerLogFile(BASE_PATH, SUB_FOLDER, serverName, fileName);
+    /**
+     * @return Archive directory of the current server, or null if the module is disabled
+     */
+    public File getArchiveRoot() {
+        MessageArchive current = getActiveArchive();
+        return current != null ? current.getRoot() : null;
     }
 
-    private void queueDebugMessage(String message) {
-        synchronized (debugQueue) {
-            debugQueue.add(LocalDateTime.now() + " - " + message);
-            if (debugQueue.size() > 1000) debugQueue.remove(0);
-        }
+    /**
+     * Gets the search index of the current server's archive, starting it if needed
+     * @return The index, or null if the module is disabled, indexing is disabled or messages go to the database
+     */
+    public ArchiveSearchIndex getSearchIndex() {
+        MessageArchive current = getActiveArchive();
+        return current != null ? current.getSearchIndex() : null;
     }
 
-    private void processDebugQueue() {
-        if (!enableDebugLogging.get() || debugQueue.isEmpty()) return;
-
-        synchronized (debugQueue) {
-            if (!debugQueue.isEmpty()) {
-                StringBuilder batch = new StringBuilder();
-                for (int i = 0; i < Math.min(10, debugQueue.size()); i++) {
-                    batch.append(debugQueue.remove(0)).append(System.lineSeparator());
-                }
-                if (batch.length() > 0) {
-                    File debugFile = FileUtils.getServerLogFile(BASE_PATH, SUB_FOLDER,
-                        ServerUtils.getServerName(), "pma_debug_" + ServerUtils.getServerName() + ".txt");
-                    LogWriter.writeLogEntry(debugFile, batch.toString());
-                }
-            }
-        }
+    private void releaseSearchIndex() {
+        MessageArchive current = archive;
+        if (current != null) current.releaseSearchIndex();
     }
 
     @Override public void onActivate() {
         try {
             updatePathInfo();
-            String serverName = ServerUtils.getServerName();
-            currentPlayerName = ServerUtils.getCurrentPlayerName();
-            FileUtils.createServerDirectoryStructure(BASE_PATH, SUB_FOLDER, serverName);
+            configureHandles();
+            configureJournal();
+            ChatPipeline.get().register(this);
+            getArchive();
         } catch (Exception ignored) {}
     }
 
     @Override public void onDeactivate() {
-        if (endOnDisconnect.get()) endAllSessions("MODULE DEACTIVATED");
-        if (enableDebugLogging.get()) processDebugQueue();
+        ChatPipeline.get().unregister(this);
+        closeArchive("MODULE DEACTIVATED");
+        AsyncLogWriter.configureJournal(null, 0);
+        AsyncLogWriter.drain(2000);
     }
 
-    // Helper classes
-    private static class MatchResult {
-        String playerName, content;
-        boolean isIncoming;
-
-        MatchResult(String playerName, String content, boolean isIncoming) {
-            this.playerName = playerName;
-            this.content = content;
-            this.isIncoming = isIncoming;
-        }
-    }
-
-    private static class MessagePattern {
-        final String pattern;
-        final boolean contains, isIncoming;
-        final int prefixLength;
-
-        MessagePattern(String pattern, boolean contains, boolean isIncoming) {
-            this(pattern, contains, isIncoming, 0);
-        }
-
-        MessagePattern(String pattern, boolean contains, boolean isIncoming, int prefixLength) {
-            this.pattern = pattern;
-            this.contains = contains;
-            this.isIncoming = isIncoming;
-            this.prefixLength = prefixLength;
-        }
-
-        MatchResult tryMatch(String message) {
-            if (pattern == null) return null; // For custom patterns
-
-            boolean matches = contains ? message.contains(pattern) : message.startsWith(pattern);
-            if (!matches) return null;
-
-            int patternIndex = contains ? message.indexOf(pattern) : 0;
-            String playerName = message.substring(prefixLength,
-                contains ? patternIndex : message.indexOf(":")).trim();
-
-            int contentStart = contains ? patternIndex + pattern.length() : message.indexOf(":") + 1;
-            String content = extractContent(message, contentStart);
-
-            return new MatchResult(playerName, content, isIncoming);
-        }
-
-        protected String extractContent(String message, int start) {
-            if (start >= message.length()) return "";
-            if (message.charAt(start) == ':') start++;
-            return message.substring(start).trim();
+    private synchronized void closeArchive(String reason) {
+        if (archive != null) {
+            if (endOnDisconnect.get()) archive.endAllSessions(reason, System.currentTimeMillis());
+            archive.close();
+            archive = null;
         }
     }
 }
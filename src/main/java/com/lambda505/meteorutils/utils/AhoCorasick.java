@@ -0,0 +1,121 @@
+package com.lambda505.meteorutils.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Multi-keyword matcher that finds every keyword in a text with one pass.
+ * Keywords are compiled into a DFA (goto + failure links folded into one table),
+ * so matching costs a single array lookup per character. Supports up to 64 keywords.
+ */
+public class AhoCorasick {
+    private static final int MAX_KEYWORDS = 64;
+
+    private final boolean ignoreCase;
+    private final int[] charClasses = new int[128];
+    private final int alphabetSize;
+    private final int[] transitions;
+    private final long[] outputs;
+
+    /**
+     * Compiles keywords into a matcher
+     * @param keywords ASCII keywords, the index of each keyword is its bit in {@link #findAll(CharSequence)}
+     * @param ignoreCase Match keywords regardless of case
+     */
+    public AhoCorasick(List<String> keywords, boolean ignoreCase) {
+        if (keywords.size() > MAX_KEYWORDS) {
+            throw new IllegalArgumentException("At most " + MAX_KEYWORDS + " keywords are supported");
+        }
+        this.ignoreCase = ignoreCase;
+
+        // Only characters used by keywords get their own class, everything else is class 0
+        int classes = 1;
+        for (String keyword : keywords) {
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = fold(keyword.charAt(i));
+                if (c >= 128) throw new IllegalArgumentException("Keywords must be ASCII: " + keyword);
+                if (charClasses[c] == 0) charClasses[c] = classes++;
+            }
+        }
+        alphabetSize = classes;
+
+        // Build the trie
+        List<int[]> trie = new ArrayList<>();
+        List<Long> trieOutputs = new ArrayList<>();
+        trie.add(new int[alphabetSize]);
+        trieOutputs.add(0L);
+
+        for (int k = 0; k < keywords.size(); k++) {
+            String keyword = keywords.get(k);
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                int cls = charClasses[fold(keyword.charAt(i))];
+                if (trie.get(state)[cls] == 0) {
+                    trie.add(new int[alphabetSize]);
+                    trieOutputs.add(0L);
+                    trie.get(state)[cls] = trie.size() - 1;
+                }
+                state = trie.get(state)[cls];
+            }
+            trieOutputs.set(state, trieOutputs.get(state) | (1L << k));
+        }
+
+        // Breadth-first: fill missing transitions from failure links and inherit their outputs
+        int states = trie.size();
+        transitions = new int[states * alphabetSize];
+        outputs = new long[states];
+        int[] failure = new int[states];
+        Queue<Integer> queue = new ArrayDeque<>();
+
+        for (int cls = 0; cls < alphabetSize; cls++) {
+            int next = trie.get(0)[cls];
+            transitions[cls] = next;
+            if (next != 0) queue.add(next);
+        }
+        outputs[0] = trieOutputs.get(0);
+
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            outputs[state] = trieOutputs.get(state) | outputs[failure[state]];
+
+            for (int cls = 0; cls < alphabetSize; cls++) {
+                int next = trie.get(state)[cls];
+                if (next != 0) {
+                    failure[next] = transitions[failure[state] * alphabetSize + cls];
+                    transitions[state * alphabetSize + cls] = next;
+                    queue.add(next);
+                } else {
+                    transitions[state * alphabetSize + cls] = transitions[failure[state] * alphabetSize + cls];
+                }
+            }
+        }
+    }
+
+    public AhoCorasick(String[] keywords, boolean ignoreCase) {
+        this(Arrays.asList(keywords), ignoreCase);
+    }
+
+    /**
+     * Finds which keywords occur anywhere in the text
+     * @param text The text to search
+     * @return Bitmask with bit i set if keyword i occurs, 0 if none do
+     */
+    public long findAll(CharSequence text) {
+        long found = 0;
+        int state = 0;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = fold(text.charAt(i));
+            int cls = c < 128 ? charClasses[c] : 0;
+            state = transitions[state * alphabetSize + cls];
+            found |= outputs[state];
+        }
+        return found;
+    }
+
+    private char fold(char c) {
+        return ignoreCase ? Character.toLowerCase(c) : c;
+    }
+}
@@ -0,0 +1,215 @@
+package com.lambda505.meteorutils.utils;
+
+import com.lambda505.meteorutils.LambdaUtilities;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses rotated Private Message Archiver segments in the background. A segment is written as
+ * concatenated GZIP members of about 64 KiB of text each, so it is still a valid {@code .gz} file, and a
+ * sidecar {@code .idx} file records where each member starts. {@link ArchiveReader} uses the sidecar
+ * to seek without decompressing the whole segment.
+ */
+public class ArchiveCompactor {
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+    private static Thread compactorThread;
+
+    /**
+     * Queues a rotated segment for compression. Waits for pending log writes first, so the
+     * segment can be queued right after {@link AsyncLogWriter#rotate(File, File)}.
+     * @param rotatedFile The rotated text segment
+     * @param onCompacted Called with the text and compressed file before the text file is deleted, may be null
+     */
+    public static void submit(File rotatedFile, BiConsumer<File, File> onCompacted) {
+        ensureStarted();
+        queue.add(new Task(rotatedFile, onCompacted, null));
+    }
+
+    /**
+     * Waits until every segment queued before this call is compressed
+     * @param timeoutMillis Maximum time to wait
+     * @return true if the queue was drained in time
+     */
+    public static boolean drain(long timeoutMillis) {
+        ensureStarted();
+        CountDownLatch latch = new CountDownLatch(1);
+        queue.add(new Task(null, null, latch));
+
+        try {
+            return latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Queues every rotated text segment in a directory, e.g. ones left over from before compression was enabled
+     * @param directory The server archive directory
+     * @param onCompacted Called for each compacted segment, may be null
+     * @return Number of queued segments
+     */
+    public static int submitDirectory(File directory, BiConsumer<File, File> onCompacted) {
+        File[] files = directory.listFiles((dir, name) -> ArchiveReader.isRotatedText(name));
+        if (files == null) return 0;
+        for (File file : files) submit(file, onCompacted);
+        return files.length;
+    }
+
+    private static synchronized void ensureStarted() {
+        if (compactorThread != null) return;
+
+        compactorThread = new Thread(ArchiveCompactor::run, "Lambda Utilities Archive Compactor");
+        compactorThread.setDaemon(true);
+        compactorThread.setPriority(Thread.MIN_PRIORITY);
+        compactorThread.start();
+    }
+
+    private static void run() {
+        while (true) {
+            try {
+                Task task = queue.take();
+                if (task.latch != null) {
+                    task.latch.countDown();
+                    continue;
+                }
+
+                // The rename of a just rotated file happens on the log writer thread
+                AsyncLogWriter.drain(5000);
+                compact(task.file, task.onCompacted);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                LambdaUtilities.LOG.warn("Archive compactor failed", e);
+            }
+        }
+    }
+
+    /**
+     * Compresses a text segment into {@code <name>.gz} with a block index and deletes the text file
+     * @param textFile The text segment
+     * @param onCompacted Called before the text file is deleted, may be null
+     * @return The compressed file, or null if the segment was not compressed
+     */
+    public static File compact(File textFile, BiConsumer<File, File> onCompacted) throws IOException {
+        if (!textFile.isFile()) return null;
+
+        File compressed = new File(textFile.getPath() + ".gz");
+        File sidecar = new File(compressed.getPath() + ArchiveReader.INDEX_SUFFIX);
+        File tempCompressed = new File(compressed.getPath() + ".tmp");
+        File tempSidecar = new File(sidecar.getPath() + ".tmp");
+
+        try {
+            writeBlocks(textFile, tempCompressed, tempSidecar);
+
+            // Index first, a compressed file without it still reads sequentially
+            Files.move(tempSidecar.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempCompressed.toPath(), compressed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempCompressed.toPath());
+            Files.deleteIfExists(tempSidecar.toPath());
+        }
+
+        if (onCompacted != null) onCompacted.accept(textFile, compressed);
+        Files.delete(textFile.toPath());
+        return compressed;
+    }
+
+    private static void writeBlocks(File textFile, File compressedFile, File sidecarFile) throws IOException {
+        long[] index = new long[64];
+        int blocks = 0;
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(textFile), 1 << 16);
+             FileOutputStream fileOut = new FileOutputStream(compressedFile);
+             BufferedOutputStream out = new BufferedOutputStream(fileOut, 1 << 16)) {
+            byte[] block = new byte[BLOCK_SIZE + 4096];
+            long uncompressed = 0;
+            long compressedPosition = 0;
+            CountingStream counter = new CountingStream(out);
+
+            while (true) {
+                // Fill a block and end it on a line boundary where possible
+                int length = 0, b = 0;
+                while (length < BLOCK_SIZE && (b = in.read()) >= 0) block[length++] = (byte) b;
+                while (b >= 0 && b != '\n' && length < block.length && (b = in.read()) >= 0) block[length++] = (byte) b;
+                if (length == 0) break;
+
+                if (blocks * 2 + 2 > index.length) index = Arrays.copyOf(index, index.length * 2);
+                index[blocks * 2] = uncompressed;
+                index[blocks * 2 + 1] = compressedPosition;
+                blocks++;
+
+                counter.count = 0;
+                GZIPOutputStream gzip = new GZIPOutputStream(counter, 8192) {
+                    {
+                        def.setLevel(Deflater.BEST_COMPRESSION);
+                    }
+                };
+                gzip.write(block, 0, length);
+                gzip.finish();
+
+                uncompressed += length;
+                compressedPosition += counter.count;
+                if (b < 0) break;
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecarFile)))) {
+            out.writeInt(ArchiveReader.INDEX_MAGIC);
+            out.writeInt(blocks);
+            for (int i = 0; i < blocks * 2; i++) out.writeLong(index[i]);
+        }
+    }
+
+    // Counts compressed bytes without closing the file when a member finishes
+    private static class CountingStream extends FilterOutputStream {
+        long count;
+
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() {
+            // The file stays open for the next member
+        }
+    }
+
+    private static class Task {
+        final File file;
+        final BiConsumer<File, File> onCompacted;
+        final CountDownLatch latch;
+
+        Task(File file, BiConsumer<File, File> onCompacted, CountDownLatch latch) {
+            this.file = file;
+            this.onCompacted = onCompacted;
+            this.latch = latch;
+        }
+    }
+}
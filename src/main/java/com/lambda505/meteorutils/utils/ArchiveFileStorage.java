@@ -0,0 +1,240 @@
+package com.lambda505.meteorutils.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * The Private Message Archiver's text archive of one server: a file per player, rotated when full,
+ * compressed in the background and kept searchable by {@link ArchiveSearchIndex}. This is the default
+ * {@link StorageBackend} for private messages. Scans read the players one after another, each in time order.
+ */
+public class ArchiveFileStorage implements StorageBackend {
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+    private static final String INCOMING = "FROM ";
+    private static final String OUTGOING = "TO ";
+    private static final String MARKER = "SESSION: ";
+    // Live files whose message count is kept for rotation, the least recently written are forgotten first
+    private static final int MAX_TRACKED_FILES = 1024;
+
+    private final ServerSession.Directory directory;
+    private final MessageArchive.Config config;
+
+    // Messages in each live file since it was created or rotated
+    private final Map<String, Integer> fileCounts = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_TRACKED_FILES;
+        }
+    };
+    private volatile ArchiveSearchIndex searchIndex;
+
+    /**
+     * @param directory The server's archive directory, see {@link ServerSession#getServerDirectory(String, String)}
+     * @param config Archive options, read for every message
+     */
+    public ArchiveFileStorage(ServerSession.Directory directory, MessageArchive.Config config) {
+        this.directory = directory;
+        this.config = config;
+    }
+
+    /**
+     * @return Archive directory of the server
+     */
+    public File getRoot() {
+        return directory.getRoot();
+    }
+
+    /**
+     * Creates the archive directory, starts the search index and queues leftover rotated files for compression
+     * @return false if the directory could not be created
+     */
+    public boolean start() {
+        if (!directory.ensureExists()) return false;
+        getSearchIndex();
+        if (config.compressRotated()) ArchiveCompactor.submitDirectory(getRoot(), this::onCompacted);
+        return true;
+    }
+
+    /**
+     * Appends a message line, or a conversation separator for a marker
+     */
+    @Override
+    public synchronized boolean append(StorageRecord record) {
+        if (record.type == StorageRecord.Type.Leak) return false;
+
+        File archiveFile = getArchiveFile(record.player, record.time);
+        if (record.type == StorageRecord.Type.Marker) {
+            return write(archiveFile, LogWriter.encodeSessionSeparator(record.time, record.message));
+        }
+
+        boolean written = write(archiveFile, encode(record, config.includeTimestamps(), LogEncoder.get().reset()));
+        if (written) {
+            ArchiveSearchIndex index = getSearchIndex();
+            if (index != null) index.appended(archiveFile);
+            fileCounts.merge(record.player, 1, Integer::sum);
+        }
+        return written;
+    }
+
+    /**
+     * Encodes a message as an archive line
+     * @param record An incoming or outgoing message
+     * @param timestamp Whether the line starts with the time
+     * @param entry Encoder to append to, usually reset
+     * @return The encoder, including line separator
+     */
+    public static LogEncoder encode(StorageRecord record, boolean timestamp, LogEncoder entry) {
+        if (timestamp) entry.timestamp(record.time);
+        return entry.append(record.type == StorageRecord.Type.Incoming ? INCOMING : OUTGOING)
+            .append(record.player).append(": ").append(record.message).newline();
+    }
+
+    private boolean write(File file, LogEncoder entry) {
+        return entry.enqueue(file, config.flushPolicy(), config.flushInterval());
+    }
+
+    private File getArchiveFile(String playerName, long time) {
+        File archiveFile = directory.getFile(playerName + ".txt");
+
+        // Move the full file aside so the live file name (and its cached handle) stays stable
+        Integer count = fileCounts.get(playerName);
+        if (count != null && count >= config.maxMessagesPerFile()) {
+            LocalDateTime rotatedAt = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+            String rotatedName = playerName + "_" + rotatedAt.format(FILE_TIMESTAMP) + ".txt";
+            File rotatedFile = new File(getRoot(), rotatedName);
+            AsyncLogWriter.rotate(archiveFile, rotatedFile);
+            ArchiveSearchIndex index = getSearchIndex();
+            if (index != null) index.rotated(archiveFile, rotatedFile);
+            if (config.compressRotated()) ArchiveCompactor.submit(rotatedFile, this::onCompacted);
+            fileCounts.remove(playerName);
+        }
+
+        return archiveFile;
+    }
+
+    @Override
+    public void flush() {
+        // Entries go straight to the log writer
+    }
+
+    @Override
+    public int scan(StorageQuery query, Consumer<StorageRecord> consumer) throws IOException {
+        ScanResults results = new ScanResults(query, consumer);
+        String server = directory.getSession().getServerName();
+        if (query.getType() == StorageRecord.Type.Leak || (query.getServer() != null && !query.getServer().equals(server))) {
+            return results.finish();
+        }
+
+        AsyncLogWriter.drain(2000);
+        Collection<String> players = query.getPlayer() != null ? List.of(directory.getSession().sanitize(query.getPlayer())) : listPlayers();
+        StorageRecord record = new StorageRecord();
+        for (String player : players) {
+            for (File file : ArchiveReader.segments(getRoot(), player)) {
+                if (!scanFile(file, server, player, record, results)) return results.finish();
+            }
+        }
+        return results.finish();
+    }
+
+    private boolean scanFile(File file, String server, String player, StorageRecord record, ScanResults results) throws IOException {
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(ArchiveReader.open(file, 0), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (parse(line, server, player, record) && !results.offer(record)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses an archive line
+     * @param line The line, without line separator
+     * @param server Server name set on the record
+     * @param player Player the file belongs to
+     * @param out Record to fill
+     * @return true if the line is a message or the text line of a separator
+     */
+    public static boolean parse(String line, String server, String player, StorageRecord out) {
+        long time = LogWriter.parseTimestamp(line);
+        int start = time >= 0 ? 22 : 0;
+
+        if (line.startsWith(MARKER, start)) {
+            out.setMarker(server, time, player, line.substring(start + MARKER.length()));
+            return true;
+        }
+
+        boolean incoming = line.startsWith(INCOMING, start);
+        if (!incoming && !line.startsWith(OUTGOING, start)) return false;
+        int contentStart = line.indexOf(": ", start);
+        if (contentStart < 0) return false;
+
+        out.setMessage(server, time, player, incoming, line.substring(contentStart + 2));
+        return true;
+    }
+
+    private List<String> listPlayers() {
+        Set<String> players = new TreeSet<>();
+        File[] files = getRoot().listFiles((dir, name) -> !name.startsWith("pma_debug_")
+            && (name.endsWith(".txt") || name.endsWith(ArchiveReader.COMPRESSED_SUFFIX)));
+        if (files != null) {
+            for (File file : files) players.add(ArchiveReader.playerFromFileName(file.getName()));
+        }
+        return new ArrayList<>(players);
+    }
+
+    /**
+     * Gets the search index of the archive, starting it if needed
+     * @return The index, or null if indexing is disabled
+     */
+    public ArchiveSearchIndex getSearchIndex() {
+        if (!config.indexMessages()) return null;
+
+        ArchiveSearchIndex index = searchIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = searchIndex;
+                if (index == null) {
+                    index = ArchiveSearchIndex.open(getRoot());
+                    searchIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    // Runs on the compactor thread, possibly after this storage was closed
+    private void onCompacted(File textFile, File compressedFile) {
+        ArchiveSearchIndex index = ArchiveSearchIndex.find(getRoot());
+        if (index != null) index.compacted(textFile, compressedFile);
+    }
+
+    /**
+     * Stops notifying the search index. It keeps running with what it indexed, the next use
+     * only indexes files that changed since.
+     */
+    public synchronized void releaseSearchIndex() {
+        searchIndex = null;
+    }
+
+    @Override
+    public String getLocation() {
+        return getRoot().getName();
+    }
+
+    /**
+     * Stops notifying the search index, it is kept for the next session on this server
+     */
+    @Override
+    public void close() {
+        releaseSearchIndex();
+    }
+}
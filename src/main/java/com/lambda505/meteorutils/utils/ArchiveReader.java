@@ -0,0 +1,213 @@
+package com.lambda505.meteorutils.utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads Private Message Archiver files the same way whether they are live text files or rotated
+ * segments compressed by {@link ArchiveCompactor}. Offsets always refer to the uncompressed text,
+ * so positions recorded before compaction stay valid afterwards.
+ */
+public class ArchiveReader {
+    static final String COMPRESSED_SUFFIX = ".txt.gz";
+    static final String INDEX_SUFFIX = ".idx";
+    static final int INDEX_MAGIC = 0x4C475A49; // "LGZI"
+
+    private static final int MAX_CACHED_INDEXES = 256;
+    private static final Map<File, long[]> blockIndexes = new ConcurrentHashMap<>();
+
+    /**
+     * @param file An archive file
+     * @return true if the file is a compressed segment
+     */
+    public static boolean isCompressed(File file) {
+        return file.getName().endsWith(COMPRESSED_SUFFIX);
+    }
+
+    /**
+     * Opens an archive file at an offset in its uncompressed text. Compressed segments
+     * start decompressing at the block containing the offset.
+     * @param file The archive file
+     * @param offset Uncompressed byte offset
+     * @return Stream of the text from the offset
+     */
+    public static InputStream open(File file, long offset) throws IOException {
+        if (!isCompressed(file)) {
+            FileInputStream in = new FileInputStream(file);
+            in.getChannel().position(offset);
+            return new BufferedInputStream(in, 1 << 16);
+        }
+
+        long[] index = blockIndex(file);
+        int block = findBlock(index, offset);
+        long uncompressedStart = block >= 0 ? index[block * 2] : 0;
+        long compressedStart = block >= 0 ? index[block * 2 + 1] : 0;
+
+        FileInputStream in = new FileInputStream(file);
+        try {
+            in.getChannel().position(compressedStart);
+            // GZIPInputStream continues over the following members
+            InputStream text = new BufferedInputStream(new GZIPInputStream(new BufferedInputStream(in, 1 << 16), 1 << 16), 1 << 16);
+            // Offsets past the end give an empty stream, like a text file would
+            long remaining = offset - uncompressedStart;
+            while (remaining > 0) {
+                long skipped = text.skip(remaining);
+                if (skipped <= 0) {
+                    if (text.read() < 0) break;
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+            return text;
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the line starting at an offset
+     * @param file The archive file
+     * @param offset Uncompressed byte offset of the line
+     * @param maxBytes Longer lines are cut off
+     * @return The line without line separator, or null if it cannot be read
+     */
+    public static String readLine(File file, long offset, int maxBytes) {
+        try (InputStream in = open(file, offset)) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            int b;
+            while ((b = in.read()) >= 0 && b != '\n' && line.size() < maxBytes) line.write(b);
+            if (b < 0 && line.size() == 0) return null;
+
+            String text = line.toString(StandardCharsets.UTF_8);
+            return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Streams the whole conversation history with a player: rotated segments oldest first,
+     * compressed or not, followed by the live file
+     * @param directory The server archive directory
+     * @param playerName Sanitized player name
+     * @return Concatenated text of all segments
+     */
+    public static InputStream openHistory(File directory, String playerName) {
+        Iterator<File> files = segments(directory, playerName).iterator();
+        return new SequenceInputStream(new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return files.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                File file = files.next();
+                try {
+                    return open(file, 0);
+                } catch (IOException e) {
+                    // Keep streaming the other segments
+                    return InputStream.nullInputStream();
+                }
+            }
+        });
+    }
+
+    /**
+     * Lists the archive files of a player in chronological order
+     * @param directory The server archive directory
+     * @param playerName Sanitized player name
+     * @return Rotated segments by rotation time, then the live file if it exists
+     */
+    public static List<File> segments(File directory, String playerName) {
+        List<File> segments = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(playerName + "_")
+            && (name.endsWith(".txt") || name.endsWith(COMPRESSED_SUFFIX))
+            && playerName.equals(playerFromFileName(name)));
+        if (files != null) {
+            // Rotation timestamps sort chronologically as text
+            Arrays.sort(files, Comparator.comparing(File::getName));
+            segments.addAll(Arrays.asList(files));
+        }
+
+        File live = new File(directory, playerName + ".txt");
+        if (live.isFile()) segments.add(live);
+        return segments;
+    }
+
+    /**
+     * Gets the player an archive file belongs to
+     * @param name File name like {@code steve.txt}, {@code steve_20240101_120000.txt} or {@code steve_20240101_120000.txt.gz}
+     * @return The sanitized player name
+     */
+    public static String playerFromFileName(String name) {
+        String base = name;
+        if (base.endsWith(".gz")) base = base.substring(0, base.length() - 3);
+        if (base.endsWith(".txt")) base = base.substring(0, base.length() - 4);
+
+        int length = base.length();
+        if (length > 16 && base.charAt(length - 16) == '_' && base.charAt(length - 7) == '_'
+            && isDigits(base, length - 15, length - 7) && isDigits(base, length - 6, length)) {
+            return base.substring(0, length - 16);
+        }
+        return base;
+    }
+
+    /**
+     * @param name File name
+     * @return true if the file is a rotated, not yet compressed segment
+     */
+    static boolean isRotatedText(String name) {
+        return name.endsWith(".txt") && !playerFromFileName(name).equals(name.substring(0, name.length() - 4));
+    }
+
+    private static boolean isDigits(String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isDigit(text.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    // Last block starting at or before the offset, -1 without index
+    private static int findBlock(long[] index, long offset) {
+        int low = 0, high = index.length / 2 - 1, found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (index[mid * 2] <= offset) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    // Pairs of (uncompressed offset, compressed offset), empty if the sidecar is missing or damaged
+    private static long[] blockIndex(File file) {
+        long[] index = blockIndexes.get(file);
+        if (index != null) return index;
+
+        index = new long[0];
+        File sidecar = new File(file.getPath() + INDEX_SUFFIX);
+        if (sidecar.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+                if (in.readInt() == INDEX_MAGIC) {
+                    int count = in.readInt();
+                    if (count < 0 || count > sidecar.length() / 16) throw new IOException("Bad block count");
+                    long[] read = new long[count * 2];
+                    for (int i = 0; i < read.length; i++) read[i] = in.readLong();
+                    index = read;
+                }
+            } catch (IOException | RuntimeException ignored) {}
+        }
+
+        if (blockIndexes.size() >= MAX_CACHED_INDEXES) blockIndexes.clear();
+        blockIndexes.put(file, index);
+        return index;
+    }
+}
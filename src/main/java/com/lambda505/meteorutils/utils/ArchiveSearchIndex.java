@@ -0,0 +1,784 @@
+package com.lambda505.meteorutils.utils;
+
+import com.lambda505.meteorutils.LambdaUtilities;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Incremental inverted index over the archive files of one server directory of Private Message Archiver.
+ * <p>
+ * A background thread tails the archive files as they grow and indexes every new batch of messages as
+ * a small immutable segment (term to message postings). Segments of similar size are merged in tiers, so
+ * a search touches a handful of segments. Searches read the published segment list without locking and
+ * never wait for indexing. Postings only record messages, phrases are checked by reading the matching
+ * lines back from disk. Files are read through {@link ArchiveReader}, so segments compressed by
+ * {@link ArchiveCompactor} stay searchable.
+ * <p>
+ * One index is kept for the last server directory used, so rejoining that server or restarting its
+ * storage only indexes what changed since instead of reading every archive file again.
+ */
+public class ArchiveSearchIndex {
+    private static final long TAIL_DELAY_MILLIS = 500;
+    private static final long IDLE_PARK_MILLIS = 1000;
+    private static final int MERGE_FACTOR = 8;
+    private static final int MAX_TERM_LENGTH = 32;
+    private static final int MAX_LINE_BYTES = 16384;
+
+    private static ArchiveSearchIndex shared;
+
+    private final File root;
+    private final Thread worker;
+    private volatile boolean closed;
+    private volatile boolean ready;
+    private volatile boolean rescan;
+    private volatile List<Segment> segments = List.of();
+
+    // File to the time it may be tailed, slightly delayed so the log writer has written it
+    private final Map<File, Long> dirty = new ConcurrentHashMap<>();
+    private final Queue<Move> moves = new ConcurrentLinkedQueue<>();
+
+    // Worker thread state
+    private final Map<File, Doc> docs = new HashMap<>();
+
+    private ArchiveSearchIndex(File root) {
+        this.root = root;
+        this.worker = new Thread(this::run, "Lambda Utilities Archive Indexer");
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Gets the index of a server directory, starting it if needed. Existing archive files are indexed
+     * first. A running index of the same directory is reused and catches up with files changed while
+     * it was not notified, the index of any other directory is stopped.
+     * @param root The server's archive directory
+     * @return The running index
+     */
+    public static synchronized ArchiveSearchIndex open(File root) {
+        if (shared != null && !shared.closed && isSameDirectory(shared.root, root)) {
+            shared.rescan = true;
+            LockSupport.unpark(shared.worker);
+            return shared;
+        }
+
+        if (shared != null) shared.close();
+        shared = new ArchiveSearchIndex(root);
+        shared.worker.start();
+        return shared;
+    }
+
+    /**
+     * @param root The server's archive directory
+     * @return The running index of the directory, or null
+     */
+    public static synchronized ArchiveSearchIndex find(File root) {
+        return shared != null && !shared.closed && isSameDirectory(shared.root, root) ? shared : null;
+    }
+
+    private static boolean isSameDirectory(File a, File b) {
+        return a.getAbsoluteFile().equals(b.getAbsoluteFile());
+    }
+
+    /**
+     * Stops the indexer, searches keep working on what was indexed
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(worker);
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * @return true once all archive files present at start are indexed
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return Number of indexed messages
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) size += segment.size();
+        return size;
+    }
+
+    /**
+     * Notes that an archive file was appended to, it is indexed shortly after
+     * @param file The archive file
+     */
+    public void appended(File file) {
+        if (dirty.putIfAbsent(file, System.currentTimeMillis() + TAIL_DELAY_MILLIS) == null) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * Notes a rotation queued with {@link AsyncLogWriter#rotate(File, File)}, the indexed messages
+     * of the live file are moved to the rotated file
+     * @param liveFile The live archive file
+     * @param rotatedFile The name its contents were moved to
+     */
+    public void rotated(File liveFile, File rotatedFile) {
+        moves.add(new Move(liveFile, rotatedFile, true));
+        LockSupport.unpark(worker);
+    }
+
+    /**
+     * Notes that {@link ArchiveCompactor} replaced a text segment with its compressed file
+     * @param textFile The text segment
+     * @param compressedFile The compressed segment
+     */
+    public void compacted(File textFile, File compressedFile) {
+        moves.add(new Move(textFile, compressedFile, false));
+        LockSupport.unpark(worker);
+    }
+
+    /**
+     * Searches the index, call off the client thread as phrases and results are read from disk
+     * @param query The query
+     * @param limit Maximum number of results
+     * @return Matching messages, newest first
+     */
+    public List<Hit> search(Query query, int limit) {
+        List<String> required = new ArrayList<>(query.terms);
+        for (List<String> phrase : query.phrases) required.addAll(phrase);
+
+        // Candidates from all segments, newest first
+        List<Candidate> candidates = new ArrayList<>();
+        for (Segment segment : segments) segment.collect(required, query, candidates);
+        candidates.sort((a, b) -> Long.compare(b.time, a.time));
+
+        List<Hit> hits = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (hits.size() >= limit) break;
+
+            String line = ArchiveReader.readLine(candidate.doc.file, candidate.offset, MAX_LINE_BYTES);
+            if (line == null) continue;
+            String content = messageContent(line);
+            if (content == null || !query.matchesPhrases(content)) continue;
+
+            hits.add(new Hit(candidate.doc.player, candidate.doc.file, candidate.offset, candidate.time, line));
+        }
+        return hits;
+    }
+
+    private void run() {
+        try {
+            File[] files = root.listFiles((dir, name) -> isArchiveFile(name));
+            if (files != null) {
+                Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+                SegmentBuilder builder = new SegmentBuilder();
+                for (File file : files) {
+                    if (closed) return;
+                    try {
+                        tail(file, builder);
+                    } catch (IOException e) {
+                        LambdaUtilities.LOG.warn("Failed to index " + file.getName(), e);
+                    }
+                    if (builder.size() >= 65536) publish(builder);
+                }
+                publish(builder);
+            }
+            ready = true;
+
+            while (!closed) {
+                if (rescan) {
+                    rescan = false;
+                    markAll();
+                }
+                processMoves();
+                long wait = processDirty();
+                LockSupport.parkNanos(wait * 1_000_000L);
+            }
+        } catch (Exception e) {
+            LambdaUtilities.LOG.warn("Archive indexer stopped", e);
+        }
+    }
+
+    private void processMoves() {
+        if (moves.isEmpty()) return;
+
+        // Rotations happen on the log writer thread, wait until the queued ones are done
+        boolean drained = false;
+        Move move;
+        while ((move = moves.poll()) != null) {
+            if (move.rotation && !drained) {
+                AsyncLogWriter.drain(5000);
+                drained = true;
+            }
+
+            // Offsets are in the uncompressed text, so they stay valid in the new file
+            Doc doc = docs.remove(move.from);
+            if (doc != null) {
+                doc.file = move.to;
+                // The target may have been indexed on its own already
+                Doc replaced = docs.put(move.to, doc);
+                if (replaced != null) replaced.deleted = true;
+            }
+            dirty.put(move.to, 0L);
+        }
+    }
+
+    // Queues every archive file and every indexed file for tailing, changes are picked up and removed files dropped
+    private void markAll() {
+        File[] files = root.listFiles((dir, name) -> isArchiveFile(name));
+        if (files != null) {
+            for (File file : files) dirty.put(file, 0L);
+        }
+        for (File file : docs.keySet()) dirty.put(file, 0L);
+    }
+
+    // Tails due files, returns how long to wait for the next one
+    private long processDirty() {
+        long now = System.currentTimeMillis();
+        long wait = IDLE_PARK_MILLIS;
+        SegmentBuilder builder = new SegmentBuilder();
+
+        for (Map.Entry<File, Long> entry : dirty.entrySet()) {
+            if (entry.getValue() > now) {
+                wait = Math.min(wait, entry.getValue() - now);
+                continue;
+            }
+            dirty.remove(entry.getKey());
+            try {
+                tail(entry.getKey(), builder);
+            } catch (IOException e) {
+                LambdaUtilities.LOG.warn("Failed to index " + entry.getKey().getName(), e);
+            }
+        }
+
+        publish(builder);
+        return Math.max(1, wait);
+    }
+
+    // Indexes the complete lines appended to a file since it was last read
+    private void tail(File file, SegmentBuilder builder) throws IOException {
+        if (!file.isFile()) {
+            // Deleted, or compressed while the index was not notified
+            Doc gone = docs.remove(file);
+            if (gone != null) gone.deleted = true;
+            return;
+        }
+
+        boolean compressed = ArchiveReader.isCompressed(file);
+        Doc doc = docs.get(file);
+        // Compressed segments never change, text files can only grow
+        long length = compressed ? Long.MAX_VALUE : file.length();
+        if (doc == null || length < doc.indexedLength) {
+            // New file, or one that was replaced behind our back
+            if (doc != null) doc.deleted = true;
+            doc = new Doc(file, ArchiveReader.playerFromFileName(file.getName()));
+            docs.put(file, doc);
+        } else if (compressed && doc.complete) {
+            return;
+        }
+        if (length == doc.indexedLength) return;
+
+        try (InputStream in = ArchiveReader.open(file, doc.indexedLength)) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            long offset = doc.indexedLength;
+            long lineStart = offset;
+            List<String> tokens = new ArrayList<>();
+
+            while (offset < length) {
+                int b = in.read();
+                if (b < 0) break;
+                offset++;
+
+                if (b != '\n') {
+                    if (line.size() < MAX_LINE_BYTES) line.write(b);
+                    continue;
+                }
+
+                String text = line.toString(StandardCharsets.UTF_8);
+                if (text.endsWith("\r")) text = text.substring(0, text.length() - 1);
+                String content = messageContent(text);
+                if (content != null) {
+                    tokens.clear();
+                    tokenize(content, tokens);
+                    builder.add(doc, lineStart, LogWriter.parseTimestamp(text), tokens);
+                }
+
+                line.reset();
+                lineStart = offset;
+                doc.indexedLength = offset;
+            }
+            if (compressed) doc.complete = true;
+        }
+    }
+
+    private void publish(SegmentBuilder builder) {
+        if (builder.size() == 0) return;
+
+        List<Segment> updated = new ArrayList<>(segments);
+        updated.add(builder.build());
+        builder.clear();
+        segments = merge(updated);
+    }
+
+    // Merges the smallest tier holding MERGE_FACTOR segments until no tier is full
+    private List<Segment> merge(List<Segment> current) {
+        while (true) {
+            Map<Integer, List<Segment>> tiers = new TreeMap<>();
+            for (Segment segment : current) {
+                tiers.computeIfAbsent(tier(segment.size()), t -> new ArrayList<>()).add(segment);
+            }
+
+            List<Segment> full = null;
+            for (List<Segment> tier : tiers.values()) {
+                if (tier.size() >= MERGE_FACTOR) {
+                    full = tier;
+                    break;
+                }
+            }
+            if (full == null) return current;
+
+            List<Segment> merged = new ArrayList<>(current);
+            merged.removeAll(full);
+            Segment segment = Segment.merge(full);
+            if (segment.size() > 0) merged.add(segment);
+            current = merged;
+        }
+    }
+
+    private static int tier(int size) {
+        int tier = 0;
+        while (size >= MERGE_FACTOR) {
+            size /= MERGE_FACTOR;
+            tier++;
+        }
+        return tier;
+    }
+
+    private static boolean isArchiveFile(String name) {
+        return (name.endsWith(".txt") || name.endsWith(ArchiveReader.COMPRESSED_SUFFIX)) && !name.startsWith("pma_debug_");
+    }
+
+    /**
+     * Gets the message of an archive line
+     * @param line A line like {@code [2024-01-01 12:00:00] FROM steve: hi} or {@code TO steve: hi}
+     * @return The text after the player name, or null for session markers and other lines
+     */
+    static String messageContent(String line) {
+        int start = line.startsWith("[") && LogWriter.parseTimestamp(line) >= 0 ? 22 : 0;
+        if (!line.startsWith("FROM ", start) && !line.startsWith("TO ", start)) return null;
+
+        int colon = line.indexOf(": ", start);
+        return colon < 0 ? null : line.substring(colon + 2);
+    }
+
+    /**
+     * Splits text into lowercase letter and digit runs
+     * @param text The text
+     * @param out List the terms are added to
+     */
+    static void tokenize(String text, List<String> out) {
+        int i = 0, length = text.length();
+        StringBuilder term = new StringBuilder();
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            term.setLength(0);
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                if (term.length() < MAX_TERM_LENGTH) term.append(Character.toLowerCase(text.charAt(i)));
+                i++;
+            }
+            if (!term.isEmpty()) out.add(term.toString());
+        }
+    }
+
+    /**
+     * A parsed search query: terms, quoted phrases, {@code player:name}, {@code after:yyyy-MM-dd}
+     * and {@code before:yyyy-MM-dd}. All parts must match.
+     */
+    public static class Query {
+        final List<String> terms = new ArrayList<>();
+        final List<List<String>> phrases = new ArrayList<>();
+        String player;
+        long after = Long.MIN_VALUE, before = Long.MAX_VALUE;
+
+        /**
+         * Parses a query
+         * @param text The query text
+         * @return The query
+         * @throws IllegalArgumentException if a date is malformed
+         */
+        public static Query parse(String text) {
+            Query query = new Query();
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '"') {
+                    int end = text.indexOf('"', i + 1);
+                    if (end < 0) end = text.length();
+                    List<String> phrase = new ArrayList<>();
+                    tokenize(text.substring(i + 1, end), phrase);
+                    if (phrase.size() == 1) query.terms.add(phrase.get(0));
+                    else if (!phrase.isEmpty()) query.phrases.add(phrase);
+                    i = end + 1;
+                } else {
+                    int end = i;
+                    while (end < text.length() && !Character.isWhitespace(text.charAt(end))) end++;
+                    query.addWord(text.substring(i, end));
+                    i = end;
+                }
+            }
+            return query;
+        }
+
+        private void addWord(String word) {
+            String lower = word.toLowerCase(Locale.ROOT);
+            if (lower.startsWith("player:")) {
+                player = lower.substring(7);
+            } else if (lower.startsWith("after:")) {
+                after = parseDate(lower.substring(6)).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            } else if (lower.startsWith("before:")) {
+                before = parseDate(lower.substring(7)).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            } else {
+                tokenize(word, terms);
+            }
+        }
+
+        private static LocalDate parseDate(String date) {
+            try {
+                return LocalDate.parse(date);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid date " + date + ", expected yyyy-MM-dd");
+            }
+        }
+
+        public boolean isEmpty() {
+            return terms.isEmpty() && phrases.isEmpty() && player == null
+                && after == Long.MIN_VALUE && before == Long.MAX_VALUE;
+        }
+
+        /**
+         * Converts the query for a {@link StorageBackend} scan of messages. Words become substrings
+         * and phrases their words joined by spaces, so matches are a little looser than in the index.
+         * @return A query for incoming and outgoing messages, of any type
+         */
+        public StorageQuery toStorageQuery() {
+            StorageQuery query = new StorageQuery().player(player);
+            if (after != Long.MIN_VALUE) query.from(after);
+            if (before != Long.MAX_VALUE) query.to(before);
+            for (String term : terms) query.contains(term);
+            for (List<String> phrase : phrases) query.contains(String.join(" ", phrase));
+            return query;
+        }
+
+        boolean accepts(Doc doc, long time) {
+            if (doc.deleted) return false;
+            if (player != null && !doc.player.equals(player)) return false;
+            if (after != Long.MIN_VALUE && time < after) return false;
+            return before == Long.MAX_VALUE || (time >= 0 && time < before);
+        }
+
+        boolean matchesPhrases(String content) {
+            if (phrases.isEmpty()) return true;
+
+            List<String> tokens = new ArrayList<>();
+            tokenize(content, tokens);
+            for (List<String> phrase : phrases) {
+                if (Collections.indexOfSubList(tokens, phrase) < 0) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A search result
+     */
+    public static class Hit {
+        public final String player;
+        public final File file;
+        public final long offset;
+        public final long time;
+        public final String line;
+
+        Hit(String player, File file, long offset, long time, String line) {
+            this.player = player;
+            this.file = file;
+            this.offset = offset;
+            this.time = time;
+            this.line = line;
+        }
+    }
+
+    private static class Doc {
+        volatile File file;
+        final String player;
+        volatile boolean deleted;
+        long indexedLength;
+        boolean complete;
+
+        Doc(File file, String player) {
+            this.file = file;
+            this.player = player;
+        }
+    }
+
+    private static class Move {
+        final File from, to;
+        final boolean rotation;
+
+        Move(File from, File to, boolean rotation) {
+            this.from = from;
+            this.to = to;
+            this.rotation = rotation;
+        }
+    }
+
+    private static class Candidate {
+        final Doc doc;
+        final long offset, time;
+
+        Candidate(Doc doc, long offset, long time) {
+            this.doc = doc;
+            this.offset = offset;
+            this.time = time;
+        }
+    }
+
+    private static class SegmentBuilder {
+        final Map<String, int[]> postings = new HashMap<>();
+        final List<Doc> docs = new ArrayList<>();
+        long[] offsets = new long[256], times = new long[256];
+
+        int size() {
+            return docs.size();
+        }
+
+        void add(Doc doc, long offset, long time, List<String> tokens) {
+            int message = docs.size();
+            if (message == offsets.length) {
+                offsets = Arrays.copyOf(offsets, message * 2);
+                times = Arrays.copyOf(times, message * 2);
+            }
+            docs.add(doc);
+            offsets[message] = offset;
+            times[message] = time;
+
+            for (String token : tokens) {
+                // Count at index 0, ids ascending so a repeated term only needs the last id checked
+                int[] list = postings.get(token);
+                if (list == null) {
+                    list = new int[4];
+                    postings.put(token, list);
+                } else if (list[list[0]] == message) {
+                    continue;
+                } else if (list[0] + 1 == list.length) {
+                    list = Arrays.copyOf(list, list.length * 2);
+                    postings.put(token, list);
+                }
+                list[++list[0]] = message;
+            }
+        }
+
+        Segment build() {
+            String[] terms = postings.keySet().toArray(new String[0]);
+            Arrays.sort(terms);
+
+            PostingsWriter writer = new PostingsWriter(terms.length);
+            for (String term : terms) {
+                int[] list = postings.get(term);
+                writer.add(term, list, 1, list[0] + 1);
+            }
+            return new Segment(writer, docs.toArray(new Doc[0]), Arrays.copyOf(offsets, docs.size()),
+                Arrays.copyOf(times, docs.size()));
+        }
+
+        void clear() {
+            postings.clear();
+            docs.clear();
+        }
+    }
+
+    // Delta and varint encodes posting lists into one byte array
+    private static class PostingsWriter {
+        final List<String> terms;
+        int[] starts, counts;
+        byte[] bytes = new byte[1024];
+        int length;
+
+        PostingsWriter(int expectedTerms) {
+            int capacity = Math.max(16, expectedTerms);
+            terms = new ArrayList<>(capacity);
+            starts = new int[capacity + 1];
+            counts = new int[capacity];
+        }
+
+        void add(String term, int[] ids, int from, int to) {
+            int index = terms.size();
+            if (index == counts.length) {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+                counts = Arrays.copyOf(counts, counts.length * 2);
+            }
+            terms.add(term);
+            starts[index] = length;
+            counts[index] = to - from;
+
+            int previous = 0;
+            for (int i = from; i < to; i++) {
+                int delta = ids[i] - previous;
+                previous = ids[i];
+                if (length + 5 > bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                while ((delta & ~0x7F) != 0) {
+                    bytes[length++] = (byte) ((delta & 0x7F) | 0x80);
+                    delta >>>= 7;
+                }
+                bytes[length++] = (byte) delta;
+            }
+            starts[index + 1] = length;
+        }
+    }
+
+    private static class Segment {
+        final String[] terms;
+        final int[] starts, counts;
+        final byte[] postings;
+        final Doc[] docs;
+        final long[] offsets, times;
+
+        Segment(PostingsWriter writer, Doc[] docs, long[] offsets, long[] times) {
+            this.terms = writer.terms.toArray(new String[0]);
+            this.starts = Arrays.copyOf(writer.starts, terms.length + 1);
+            this.counts = Arrays.copyOf(writer.counts, terms.length);
+            this.postings = Arrays.copyOf(writer.bytes, writer.length);
+            this.docs = docs;
+            this.offsets = offsets;
+            this.times = times;
+        }
+
+        int size() {
+            return docs.length;
+        }
+
+        int[] postings(int term) {
+            int[] ids = new int[counts[term]];
+            int pos = starts[term];
+            int previous = 0;
+            for (int i = 0; i < ids.length; i++) {
+                int value = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = postings[pos++];
+                    value |= (b & 0x7F) << shift;
+                    if (b >= 0) break;
+                }
+                previous += value;
+                ids[i] = previous;
+            }
+            return ids;
+        }
+
+        void collect(List<String> required, Query query, List<Candidate> out) {
+            if (required.isEmpty()) {
+                for (int i = 0; i < docs.length; i++) offer(i, query, out);
+                return;
+            }
+
+            // Intersect the posting lists, rarest term first
+            int[][] lists = new int[required.size()][];
+            for (int i = 0; i < lists.length; i++) {
+                int term = Arrays.binarySearch(terms, required.get(i));
+                if (term < 0) return;
+                lists[i] = postings(term);
+            }
+            Arrays.sort(lists, Comparator.comparingInt(list -> list.length));
+
+            int[] result = lists[0];
+            int size = result.length;
+            for (int l = 1; l < lists.length && size > 0; l++) {
+                int[] other = lists[l];
+                int[] next = new int[size];
+                int count = 0, j = 0;
+                for (int i = 0; i < size && j < other.length; i++) {
+                    while (j < other.length && other[j] < result[i]) j++;
+                    if (j < other.length && other[j] == result[i]) next[count++] = result[i];
+                }
+                result = next;
+                size = count;
+            }
+
+            for (int i = 0; i < size; i++) offer(result[i], query, out);
+        }
+
+        private void offer(int message, Query query, List<Candidate> out) {
+            if (query.accepts(docs[message], times[message])) {
+                out.add(new Candidate(docs[message], offsets[message], times[message]));
+            }
+        }
+
+        // Concatenates segments, dropping messages of replaced files
+        static Segment merge(List<Segment> segments) {
+            int total = 0;
+            int[][] remap = new int[segments.size()][];
+            for (int s = 0; s < segments.size(); s++) {
+                Segment segment = segments.get(s);
+                remap[s] = new int[segment.size()];
+                for (int i = 0; i < segment.size(); i++) {
+                    remap[s][i] = segment.docs[i].deleted ? -1 : total++;
+                }
+            }
+
+            Doc[] docs = new Doc[total];
+            long[] offsets = new long[total], times = new long[total];
+            for (int s = 0; s < segments.size(); s++) {
+                Segment segment = segments.get(s);
+                for (int i = 0; i < segment.size(); i++) {
+                    int id = remap[s][i];
+                    if (id < 0) continue;
+                    docs[id] = segment.docs[i];
+                    offsets[id] = segment.offsets[i];
+                    times[id] = segment.times[i];
+                }
+            }
+
+            // K-way merge of the sorted term lists
+            PriorityQueue<int[]> cursors = new PriorityQueue<>(
+                (a, b) -> segments.get(a[0]).terms[a[1]].compareTo(segments.get(b[0]).terms[b[1]]));
+            for (int s = 0; s < segments.size(); s++) {
+                if (segments.get(s).terms.length > 0) cursors.add(new int[]{s, 0});
+            }
+
+            PostingsWriter writer = new PostingsWriter(segments.get(0).terms.length);
+            int[] ids = new int[64];
+            while (!cursors.isEmpty()) {
+                String term = segments.get(cursors.peek()[0]).terms[cursors.peek()[1]];
+                int count = 0;
+
+                // Segments are in order, so ids stay ascending
+                List<int[]> same = new ArrayList<>();
+                while (!cursors.isEmpty() && segments.get(cursors.peek()[0]).terms[cursors.peek()[1]].equals(term)) {
+                    same.add(cursors.poll());
+                }
+                same.sort(Comparator.comparingInt(cursor -> cursor[0]));
+
+                for (int[] cursor : same) {
+                    for (int id : segments.get(cursor[0]).postings(cursor[1])) {
+                        int mapped = remap[cursor[0]][id];
+                        if (mapped < 0) continue;
+                        if (count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+                        ids[count++] = mapped;
+                    }
+                    if (++cursor[1] < segments.get(cursor[0]).terms.length) cursors.add(cursor);
+                }
+
+                if (count > 0) writer.add(term, ids, 0, count);
+            }
+
+            return new Segment(writer, docs, offsets, times);
+        }
+    }
+}
@@ -0,0 +1,494 @@
+package com.lambda505.meteorutils.utils;
+
+import com.lambda505.meteorutils.LambdaUtilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class AsyncLogWriter {
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int MAX_BATCH = 1024;
+    private static final long IDLE_POLL_MILLIS = 1000;
+    // Pooled entries keep buffers up to this size, longer ones get a buffer of their own
+    private static final int MAX_POOLED_ENTRY = 8192;
+    // The journal is emptied once it grows past this or after this long, forcing the written files first
+    private static final long MAX_JOURNAL_BYTES = 4 << 20;
+    private static final long CHECKPOINT_MILLIS = 10_000;
+    private static final LatencyHistogram BATCH = Metrics.histogram("writer.batch");
+
+    private static final BlockingQueue<Op> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    // Written entries handed back by the writer thread for reuse
+    private static final BlockingQueue<Op> free = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final AtomicBoolean syncRequested = new AtomicBoolean();
+    private static final FileHandleCache handles = new FileHandleCache(64, 60_000);
+    private static Thread writerThread;
+
+    // Writer thread state - only touched by the writer thread
+    private static final Map<File, Pending> pending = new LinkedHashMap<>();
+    private static final Map<Path, Long> intervalDirty = new HashMap<>();
+    private static final List<Op> batch = new ArrayList<>(MAX_BATCH);
+    private static WriteAheadJournal journal;
+    private static long lastCheckpoint;
+
+    /**
+     * When written data is forced to disk
+     */
+    public enum FlushPolicy {
+        PerBatch,
+        Interval,
+        OnTick
+    }
+
+    /**
+     * Queues a log entry to be appended to a file by the background writer
+     * @param logFile The file to append to
+     * @param logEntry The entry to append
+     * @return true if the entry was queued
+     */
+    public static boolean enqueue(File logFile, String logEntry) {
+        return enqueue(logFile, logEntry, FlushPolicy.PerBatch, 0);
+    }
+
+    /**
+     * Queues a log entry to be appended to a file by the background writer.
+     * Blocks only when the queue is full, so entries are never dropped.
+     * @param logFile The file to append to
+     * @param logEntry The entry to append
+     * @param policy When the file is forced to disk after writing
+     * @param intervalMillis Minimum time between forces for {@link FlushPolicy#Interval}
+     * @return true if the entry was queued
+     */
+    public static boolean enqueue(File logFile, String logEntry, FlushPolicy policy, int intervalMillis) {
+        if (logFile == null || logEntry == null) return false;
+        return offer(new Op(Op.WRITE, logFile, null, logEntry, null, policy, intervalMillis, null));
+    }
+
+    /**
+     * Queues binary data to be appended to a file by the background writer.
+     * Blocks only when the queue is full, so data is never dropped.
+     * @param logFile The file to append to
+     * @param data The bytes to append, must not be modified afterwards
+     * @param policy When the file is forced to disk after writing
+     * @param intervalMillis Minimum time between forces for {@link FlushPolicy#Interval}
+     * @return true if the data was queued
+     */
+    public static boolean enqueue(File logFile, byte[] data, FlushPolicy policy, int intervalMillis) {
+        if (logFile == null || data == null) return false;
+        return offer(new Op(Op.WRITE, logFile, null, null, data, policy, intervalMillis, null));
+    }
+
+    /**
+     * Queues an encoded entry to be appended to a file by the background writer. The bytes are copied
+     * into a pooled buffer, so the encoder can be reused right away and nothing is allocated per entry.
+     * Blocks only when the queue is full, so entries are never dropped.
+     * @param logFile The file to append to
+     * @param entry The encoded entry
+     * @param policy When the file is forced to disk after writing
+     * @param intervalMillis Minimum time between forces for {@link FlushPolicy#Interval}
+     * @return true if the entry was queued
+     */
+    public static boolean enqueue(File logFile, LogEncoder entry, FlushPolicy policy, int intervalMillis) {
+        if (logFile == null || entry == null) return false;
+
+        Op op = free.poll();
+        if (op == null) {
+            op = new Op(Op.WRITE, null, null, null, null, policy, intervalMillis, null);
+            op.pooled = true;
+        }
+
+        int length = entry.length();
+        if (op.data == null || op.data.length < length) op.data = new byte[Math.max(length, 256)];
+        System.arraycopy(entry.array(), 0, op.data, 0, length);
+        op.length = length;
+        op.file = logFile;
+        op.policy = policy;
+        op.intervalMillis = intervalMillis;
+        return offer(op);
+    }
+
+    /**
+     * Queues a rotation: everything queued for the live file before this call is written,
+     * its cached handle is closed and the file is renamed. Later entries start a fresh live file.
+     * @param liveFile The file currently being appended to
+     * @param rotatedFile The name the current contents are moved to
+     * @return true if the rotation was queued
+     */
+    public static boolean rotate(File liveFile, File rotatedFile) {
+        return offer(new Op(Op.ROTATE, liveFile, rotatedFile, null, null, FlushPolicy.PerBatch, 0, null));
+    }
+
+    /**
+     * Requests that every file written so far is forced to disk.
+     * Cheap to call every tick, repeated requests are coalesced.
+     */
+    public static void sync() {
+        if (syncRequested.compareAndSet(false, true)) {
+            offer(new Op(Op.SYNC, null, null, null, null, FlushPolicy.OnTick, 0, null));
+        }
+    }
+
+    /**
+     * Waits until every entry queued before this call is written and forced to disk
+     * @param timeoutMillis Maximum time to wait
+     * @return true if the queue was drained in time
+     */
+    public static boolean drain(long timeoutMillis) {
+        CountDownLatch latch = new CountDownLatch(1);
+        if (!offer(new Op(Op.SYNC, null, null, null, null, FlushPolicy.PerBatch, 0, latch))) return false;
+
+        try {
+            return latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Records every later append in a write-ahead journal before it is made, so appends torn by a
+     * crash are redone when the journal is opened again. Leftovers of a previous run are replayed first.
+     * Applies to every file written, queued in order with writes.
+     * @param journalFile The journal file, or null to stop journaling and delete the current journal
+     * @param syncIntervalMillis Maximum time journaled appends stay unforced, 0 to force after every batch
+     * @return true if the change was queued
+     */
+    public static boolean configureJournal(File journalFile, int syncIntervalMillis) {
+        return offer(new Op(Op.JOURNAL, journalFile, null, null, null, FlushPolicy.PerBatch, syncIntervalMillis, null));
+    }
+
+    /**
+     * Replays a journal left by a previous run and deletes it, e.g. on startup when journaling may stay off
+     * @param journalFile The journal file
+     * @return true if the recovery was queued
+     */
+    public static boolean recoverJournal(File journalFile) {
+        return offer(new Op(Op.RECOVER, journalFile, null, null, null, FlushPolicy.PerBatch, 0, null));
+    }
+
+    /**
+     * Configures how many file handles the writer keeps open between batches
+     * @param maxOpen Maximum number of open handles, least recently used ones are closed first
+     * @param idleTimeoutMillis Handles unused for this long are closed
+     */
+    public static void configureHandles(int maxOpen, long idleTimeoutMillis) {
+        handles.configure(maxOpen, idleTimeoutMillis);
+    }
+
+    private static boolean offer(Op op) {
+        ensureStarted();
+        try {
+            queue.put(op);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static synchronized void ensureStarted() {
+        if (writerThread != null) return;
+
+        writerThread = new Thread(AsyncLogWriter::run, "Lambda Utilities Log Writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            drain(2000);
+            handles.closeAll();
+        }, "Lambda Utilities Log Drain"));
+    }
+
+    private static void run() {
+        while (true) {
+            try {
+                Op first = queue.poll(nextPollMillis(), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    long start = System.nanoTime();
+                    try {
+                        processBatch();
+                    } finally {
+                        BATCH.recordSince(start);
+                        recycle();
+                        batch.clear();
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                forceDueFiles(now);
+                journalTick(now);
+                handles.closeIdle(now);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                LambdaUtilities.LOG.warn("Log writer failed to process batch", e);
+            }
+        }
+    }
+
+    private static void processBatch() {
+        for (Op op : batch) {
+            if (op.kind == Op.WRITE) {
+                Pending group = pending.get(op.file);
+                if (group == null) {
+                    group = new Pending(op.file.toPath().toAbsolutePath());
+                    pending.put(op.file, group);
+                }
+                if (op.entry != null) group.bytes.writeBytes(op.entry.getBytes(StandardCharsets.UTF_8));
+                else group.bytes.write(op.data, 0, op.length);
+                group.policy = op.policy;
+                group.intervalMillis = op.intervalMillis;
+                continue;
+            }
+
+            // Control operations act as barriers: everything before them is written first
+            try {
+                writePending();
+                switch (op.kind) {
+                    case Op.ROTATE -> {
+                        // Journaled offsets refer to the live file, they must not outlive the rename
+                        checkpoint();
+                        rotateFile(op.file, op.target);
+                    }
+                    case Op.JOURNAL -> openJournal(op.file, op.intervalMillis);
+                    case Op.RECOVER -> recover(op.file);
+                    default -> {
+                        if (op.latch == null) syncRequested.set(false);
+                        handles.forceAll();
+                        intervalDirty.clear();
+                        checkpoint();
+                    }
+                }
+            } catch (RuntimeException e) {
+                // One failed operation must not take the rest of the batch with it
+                LambdaUtilities.LOG.warn("Log writer failed to process " + (op.file != null ? op.file.getName() : "sync"), e);
+            } finally {
+                // Waiters are released even when the operation failed, instead of waiting out their timeout
+                if (op.latch != null) op.latch.countDown();
+            }
+        }
+
+        writePending();
+        if (journal != null && journal.size() > MAX_JOURNAL_BYTES) checkpoint();
+    }
+
+    private static void recycle() {
+        for (Op op : batch) {
+            if (!op.pooled) continue;
+            op.file = null;
+            if (op.data.length > MAX_POOLED_ENTRY) op.data = null;
+            free.offer(op);
+        }
+    }
+
+    private static void writePending() {
+        if (pending.isEmpty()) return;
+        try {
+            if (journal != null) journalPending();
+            for (Pending group : pending.values()) writeGroup(group);
+        } finally {
+            pending.clear();
+        }
+    }
+
+    private static void writeGroup(Pending group) {
+        Path path = group.path;
+        try {
+            FileChannel channel = handles.get(path);
+            // One write per file per batch
+            ByteBuffer bytes = group.bytes.wrap();
+            while (bytes.hasRemaining()) channel.write(bytes);
+            handles.markDirty(path);
+
+            switch (group.policy) {
+                case PerBatch -> handles.force(path);
+                case Interval -> intervalDirty.putIfAbsent(path, System.currentTimeMillis() + group.intervalMillis);
+                case OnTick -> { }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Only this file's writes are lost, the other files of the batch are still written
+            LambdaUtilities.LOG.warn("Failed to write " + path.getFileName(), e);
+            handles.close(path);
+        }
+    }
+
+    // Records the appends before they are made, a crash during them is redone from the journal
+    private static void journalPending() {
+        try {
+            for (Pending group : pending.values()) {
+                FileChannel channel;
+                try {
+                    channel = handles.get(group.path);
+                } catch (IOException e) {
+                    // Reported when the write fails the same way
+                    continue;
+                }
+                journal.append(group.path, channel.size(), group.bytes.wrap());
+            }
+            journal.syncIfDue(System.currentTimeMillis());
+        } catch (IOException | RuntimeException e) {
+            LambdaUtilities.LOG.warn("Failed to write journal " + journal.getFile().getName() + ", journaling stopped", e);
+            journal = null;
+        }
+    }
+
+    private static void journalTick(long now) {
+        if (journal == null) return;
+        try {
+            journal.syncIfDue(now);
+        } catch (IOException e) {
+            LambdaUtilities.LOG.warn("Failed to flush journal " + journal.getFile().getName() + ", journaling stopped", e);
+            journal = null;
+            return;
+        }
+        if (now - lastCheckpoint >= CHECKPOINT_MILLIS) checkpoint();
+    }
+
+    // Forces every written file, after which the journaled appends are no longer needed
+    private static void checkpoint() {
+        lastCheckpoint = System.currentTimeMillis();
+        if (journal == null || journal.size() == 0) return;
+
+        handles.forceAll();
+        intervalDirty.clear();
+        try {
+            journal.checkpoint();
+        } catch (IOException e) {
+            LambdaUtilities.LOG.warn("Failed to checkpoint journal " + journal.getFile().getName() + ", journaling stopped", e);
+            journal = null;
+        }
+    }
+
+    private static void openJournal(File journalFile, int syncIntervalMillis) {
+        if (journal != null && journal.getFile().equals(journalFile)) {
+            journal.setSyncInterval(syncIntervalMillis);
+            return;
+        }
+
+        if (journal != null) {
+            checkpoint();
+            try {
+                if (journal != null) journal.close();
+            } catch (IOException e) {
+                LambdaUtilities.LOG.warn("Failed to close journal " + journal.getFile().getName(), e);
+            }
+            journal = null;
+        }
+        if (journalFile == null) return;
+
+        // Replayed appends bypass the cached handles
+        handles.closeAll();
+        try {
+            journal = WriteAheadJournal.open(journalFile, syncIntervalMillis);
+            lastCheckpoint = System.currentTimeMillis();
+        } catch (IOException e) {
+            LambdaUtilities.LOG.warn("Failed to open journal " + journalFile.getName(), e);
+        }
+    }
+
+    private static void recover(File journalFile) {
+        // An open journal was replayed when it was opened
+        if (journal != null && journal.getFile().equals(journalFile)) return;
+
+        handles.closeAll();
+        try {
+            WriteAheadJournal.recover(journalFile);
+        } catch (IOException e) {
+            LambdaUtilities.LOG.warn("Failed to recover journal " + journalFile.getName(), e);
+        }
+    }
+
+    private static void rotateFile(File liveFile, File rotatedFile) {
+        Path livePath = liveFile.toPath().toAbsolutePath();
+        handles.close(livePath);
+        intervalDirty.remove(livePath);
+
+        try {
+            if (Files.exists(livePath)) Files.move(livePath, rotatedFile.toPath());
+        } catch (IOException e) {
+            LambdaUtilities.LOG.warn("Failed to rotate " + liveFile.getName(), e);
+        }
+    }
+
+    private static long nextPollMillis() {
+        long wait = IDLE_POLL_MILLIS;
+        long now = System.currentTimeMillis();
+        if (journal != null && journal.getSyncDeadline() != Long.MAX_VALUE) {
+            wait = Math.min(wait, Math.max(1, journal.getSyncDeadline() - now));
+        }
+        for (long deadline : intervalDirty.values()) {
+            wait = Math.min(wait, Math.max(1, deadline - now));
+        }
+        return wait;
+    }
+
+    private static void forceDueFiles(long now) {
+        Iterator<Map.Entry<Path, Long>> it = intervalDirty.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Long> entry = it.next();
+            if (entry.getValue() <= now) {
+                handles.force(entry.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    private static class Op {
+        static final int WRITE = 0, ROTATE = 1, SYNC = 2, JOURNAL = 3, RECOVER = 4;
+
+        final int kind;
+        final File target;
+        final String entry;
+        final CountDownLatch latch;
+        // Reassigned when a pooled write is reused
+        File file;
+        byte[] data;
+        int length;
+        FlushPolicy policy;
+        int intervalMillis;
+        boolean pooled;
+
+        Op(int kind, File file, File target, String entry, byte[] data, FlushPolicy policy, int intervalMillis, CountDownLatch latch) {
+            this.kind = kind;
+            this.file = file;
+            this.target = target;
+            this.entry = entry;
+            this.data = data;
+            this.length = data != null ? data.length : 0;
+            this.policy = policy;
+            this.intervalMillis = intervalMillis;
+            this.latch = latch;
+        }
+    }
+
+    private static class Pending {
+        final Path path;
+        final Bytes bytes = new Bytes();
+        FlushPolicy policy;
+        int intervalMillis;
+
+        Pending(Path path) {
+            this.path = path;
+        }
+    }
+
+    // Exposes the buffer without copying it
+    private static class Bytes extends ByteArrayOutputStream {
+        ByteBuffer wrap() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
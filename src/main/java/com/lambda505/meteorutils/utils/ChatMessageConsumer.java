@@ -0,0 +1,12 @@
+package com.lambda505.meteorutils.utils;
+
+/**
+ * Receives chat messages from the {@link ChatPipeline}
+ */
+public interface ChatMessageConsumer {
+    /**
+     * Called for every received chat message while the consumer is registered
+     * @param message The parsed message
+     */
+    void onChatMessage(ParsedChatMessage message);
+}
@@ -5,18 +5,27 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class ChatMessageUtils {
+    // Common chat formats: <PlayerName> message, [PlayerName] message, PlayerName: message
+    private static final Pattern NAME_PATTERN = Pattern.compile("^(?:<([^>]+)>|\\[([^\\]]+)\\]|([^:]+):)");
+    private static final Pattern TIMESTAMP_PREFIX = Pattern.compile("^<\\d{1,2}:\\d{2}>\\s*");
 
     /**
-     * Extracts player name from various chat message formats
+     * Extracts player name from a chat message, using its text components first
+     * (see {@link SenderResolver}) and the name pattern as a fallback
      * @param message The chat message Text object
      * @return Player name or "Unknown" if not found
      */
     public static String extractPlayerName(Text message) {
-        String fullText = message.getString();
+        return SenderResolver.resolve(message);
+    }
 
-        // Common chat formats: <PlayerName> message, [PlayerName] message, PlayerName: message
-        Pattern namePattern = Pattern.compile("^(?:<([^>]+)>|\\[([^\\]]+)\\]|([^:]+):)");
-        Matcher nameMatcher = namePattern.matcher(fullText);
+    /**
+     * Extracts player name from an already flattened chat message using only the name pattern
+     * @param fullText The chat message text
+     * @return Player name or "Unknown" if not found
+     */
+    public static String extractPlayerName(String fullText) {
+        Matcher nameMatcher = NAME_PATTERN.matcher(fullText);
 
         if (nameMatcher.find()) {
             for (int i = 1; i <= nameMatcher.groupCount(); i++) {
@@ -40,4 +49,15 @@ public class ChatMessageUtils {
         String senderName = extractPlayerName(message);
         return senderName.equals(playerName);
     }
+
+    /**
+     * Removes a leading chat timestamp like {@code <12:34>}
+     * @param messageText The chat message text
+     * @return The message without the timestamp
+     */
+    public static String removeTimestamp(String messageText) {
+        if (messageText.isEmpty() || messageText.charAt(0) != '<') return messageText;
+        Matcher matcher = TIMESTAMP_PREFIX.matcher(messageText);
+        return matcher.find() ? messageText.substring(matcher.end()) : messageText;
+    }
 }
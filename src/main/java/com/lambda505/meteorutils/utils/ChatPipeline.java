@@ -0,0 +1,229 @@
+package com.lambda505.meteorutils.utils;
+
+import com.lambda505.meteorutils.LambdaUtilities;
+import meteordevelopment.meteorclient.events.game.ReceiveMessageEvent;
+import meteordevelopment.orbit.EventHandler;
+
+import net.minecraft.text.Text;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single subscriber to {@link ReceiveMessageEvent}. The event handler only captures the message and
+ * the {@link MessageOrigin} on the client thread; a worker flattens and parses every message once and
+ * hands the result to all registered consumers, each on its own worker. Every worker takes messages
+ * in arrival order, so consumers see chat in order, and the frame time does not depend on how much
+ * chat arrives or how slow a consumer is. Only the client thread's handoff to the parser drops messages
+ * when its queue is full, counted in {@code chat.dropped}; the parser waits for a full consumer queue,
+ * so a slow consumer holds up the parser instead of losing messages. Consumers must marshal user
+ * feedback back to the client thread, e.g. with {@code mc.execute}.
+ */
+public class ChatPipeline {
+    private static final ChatPipeline INSTANCE = new ChatPipeline();
+    private static final LatencyHistogram RECEIVE = Metrics.histogram("chat.receive");
+    private static final LatencyHistogram QUEUE = Metrics.histogram("chat.queue");
+    private static final LatencyHistogram PARSE = Metrics.histogram("chat.parse");
+    private static final AtomicLong DROPPED = Metrics.counter("chat.dropped");
+    private static final int LANE_CAPACITY = 4096;
+    private static final long STOP_TIMEOUT_MILLIS = 2000;
+
+    private final List<Registration> consumers = new CopyOnWriteArrayList<>();
+    private final Lane parser = new Lane("Lambda Utilities Chat Parser");
+
+    private ChatPipeline() {
+    }
+
+    public static ChatPipeline get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts delivering messages to a consumer, usually from a module's onActivate
+     * @param consumer The consumer to add
+     */
+    public synchronized void register(ChatMessageConsumer consumer) {
+        for (Registration registration : consumers) {
+            if (registration.consumer == consumer) return;
+        }
+        consumers.add(new Registration(consumer));
+    }
+
+    /**
+     * Stops delivering messages to a consumer, usually from a module's onDeactivate.
+     * Messages already queued for it are delivered before this returns.
+     * @param consumer The consumer to remove
+     */
+    public void unregister(ChatMessageConsumer consumer) {
+        Registration removed = null;
+        synchronized (this) {
+            for (Registration registration : consumers) {
+                if (registration.consumer == consumer) removed = registration;
+            }
+            if (removed == null) return;
+            consumers.remove(removed);
+        }
+        removed.lane.stop(STOP_TIMEOUT_MILLIS);
+    }
+
+    @EventHandler
+    private void onReceiveMessage(ReceiveMessageEvent event) {
+        if (consumers.isEmpty() || event.getMessage() == null) return;
+
+        long start = System.nanoTime();
+        Text text = event.getMessage();
+        long receivedAt = System.currentTimeMillis();
+        MessageOrigin origin = MessageOrigin.capture();
+        parser.submit(() -> parse(text, receivedAt, origin, start));
+        RECEIVE.recordSince(start);
+    }
+
+    // Runs on the parser worker
+    private void parse(Text text, long receivedAt, MessageOrigin origin, long receivedNanos) {
+        long start = System.nanoTime();
+        QUEUE.record(start - receivedNanos);
+        ParsedChatMessage message = new ParsedChatMessage(text, text.getString(), receivedAt, origin);
+        PARSE.recordSince(start);
+        if (message.isEmpty()) return;
+
+        for (Registration registration : consumers) {
+            registration.lane.put(() -> deliver(registration, message));
+        }
+    }
+
+    /**
+     * Delivers a message to every registered consumer on the calling thread, e.g. to replay chat
+     * @param message The parsed message
+     */
+    public void dispatch(ParsedChatMessage message) {
+        for (Registration registration : consumers) deliver(registration, message);
+    }
+
+    private static void deliver(Registration registration, ParsedChatMessage message) {
+        long start = System.nanoTime();
+        try {
+            registration.consumer.onChatMessage(message);
+        } catch (Exception e) {
+            LambdaUtilities.LOG.warn("Chat consumer failed", e);
+        }
+        registration.latency.recordSince(start);
+    }
+
+    /**
+     * Waits until every message received before this call was delivered, e.g. before closing log files
+     * @param timeoutMillis Maximum time to wait
+     * @return true if everything was delivered in time
+     */
+    public boolean drain(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        if (!parser.drain(timeoutMillis)) return false;
+
+        // The parser has handed everything to the consumer workers
+        for (Registration registration : consumers) {
+            if (!registration.lane.drain(Math.max(0, deadline - System.currentTimeMillis()))) return false;
+        }
+        return true;
+    }
+
+    // A consumer with its worker and the histogram of its handling time
+    private static class Registration {
+        final ChatMessageConsumer consumer;
+        final LatencyHistogram latency;
+        final Lane lane;
+
+        Registration(ChatMessageConsumer consumer) {
+            String name = consumer.getClass().getSimpleName();
+            this.consumer = consumer;
+            this.latency = Metrics.histogram("chat." + name);
+            this.lane = new Lane("Lambda Utilities Chat " + name);
+        }
+    }
+
+    /**
+     * A worker thread running tasks in submission order from a bounded queue
+     */
+    private static class Lane {
+        private static final Runnable STOP = () -> {};
+
+        private final String name;
+        private final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(LANE_CAPACITY);
+        private volatile Thread thread;
+        private volatile boolean stopped;
+
+        Lane(String name) {
+            this.name = name;
+        }
+
+        // For the client thread, which must never block: a full queue drops the message
+        void submit(Runnable task) {
+            if (thread == null) ensureStarted();
+            if (!queue.offer(task) && DROPPED.getAndIncrement() % 1000 == 0) {
+                LambdaUtilities.LOG.warn("Chat queue full, dropped " + DROPPED.get() + " messages in total on " + name);
+            }
+        }
+
+        // For workers: waits while the queue is full, nothing is dropped
+        void put(Runnable task) {
+            if (stopped) return;
+            if (thread == null) ensureStarted();
+            try {
+                queue.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        boolean drain(long timeoutMillis) {
+            if (thread == null) return true;
+
+            CountDownLatch latch = new CountDownLatch(1);
+            try {
+                if (!queue.offer(latch::countDown, timeoutMillis, TimeUnit.MILLISECONDS)) return false;
+                return latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        // Runs what is queued, then ends the thread
+        void stop(long timeoutMillis) {
+            stopped = true;
+            Thread current = thread;
+            if (current == null) return;
+
+            try {
+                if (queue.offer(STOP, timeoutMillis, TimeUnit.MILLISECONDS)) current.join(timeoutMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private synchronized void ensureStarted() {
+            if (thread != null) return;
+
+            thread = new Thread(this::run, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void run() {
+            while (true) {
+                try {
+                    Runnable task = queue.take();
+                    if (task == STOP) return;
+                    task.run();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    LambdaUtilities.LOG.warn("Chat worker failed on " + name, e);
+                }
+            }
+        }
+    }
+}
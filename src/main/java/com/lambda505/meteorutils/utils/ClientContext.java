@@ -0,0 +1,124 @@
+package com.lambda505.meteorutils.utils;
+
+import java.io.File;
+import java.util.Set;
+
+/**
+ * The client state read by the chat parsing and logging utilities. Kept behind this class so that
+ * code can run without a Minecraft client, e.g. in benchmarks or a replay, by installing a
+ * {@link Headless} context. Defaults to the running client.
+ */
+public abstract class ClientContext {
+    /**
+     * No server connection and an empty tab list, files go to the working directory
+     */
+    public static final ClientContext HEADLESS = new Headless("local", new File("").getAbsoluteFile(), null, "unknown");
+
+    private static volatile ClientContext current;
+
+    /**
+     * @return The installed context, the running client unless replaced
+     */
+    public static ClientContext get() {
+        ClientContext context = current;
+        if (context == null) {
+            // Created lazily so MinecraftClient is never loaded when a context is installed first
+            context = new MinecraftClientContext();
+            current = context;
+        }
+        return context;
+    }
+
+    /**
+     * Replaces the client state used by the utilities
+     * @param context The context, e.g. {@link #HEADLESS}
+     */
+    public static void set(ClientContext context) {
+        current = context;
+    }
+
+    /**
+     * @return Address of the current server, or null in singleplayer or when not connected
+     */
+    public abstract String getServerAddress();
+
+    /**
+     * @return Sanitized server name used for log files, see {@link ServerUtils#getServerName()}
+     */
+    public abstract String getServerName();
+
+    /**
+     * @return Directory log folders are created in
+     */
+    public abstract File getRunDirectory();
+
+    /**
+     * @return Name of the local player, or null if unknown
+     */
+    public abstract String getPlayerName();
+
+    /**
+     * @return Current dimension, e.g. "overworld", or "unknown"
+     */
+    public abstract String getDimensionName();
+
+    /**
+     * Snapshot of the profile names in the tab list. Call on the client thread, the snapshot itself
+     * can be read from any thread.
+     * @return Unmodifiable set of names, empty when not connected
+     */
+    public abstract Set<String> getTabListNames();
+
+    /**
+     * Fixed client state without a connection or tab list
+     */
+    public static class Headless extends ClientContext {
+        private final String serverName;
+        private final File runDirectory;
+        private final String playerName;
+        private final String dimensionName;
+
+        /**
+         * @param serverName Sanitized server name
+         * @param runDirectory Directory log folders are created in
+         * @param playerName Name of the local player, may be null
+         * @param dimensionName Dimension leaks are logged in
+         */
+        public Headless(String serverName, File runDirectory, String playerName, String dimensionName) {
+            this.serverName = serverName;
+            this.runDirectory = runDirectory;
+            this.playerName = playerName;
+            this.dimensionName = dimensionName;
+        }
+
+        @Override
+        public String getServerAddress() {
+            return null;
+        }
+
+        @Override
+        public String getServerName() {
+            return serverName;
+        }
+
+        @Override
+        public File getRunDirectory() {
+            return runDirectory;
+        }
+
+        @Override
+        public String getPlayerName() {
+            return playerName;
+        }
+
+        @Override
+        public String getDimensionName() {
+            return dimensionName;
+        }
+
+        @Override
+        public Set<String> getTabListNames() {
+            return Set.of();
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.lambda505.meteorutils.utils;
+
+/**
+ * Single-pass coordinate scanner for chat messages.
+ * Walks the message once, never backtracks and never allocates substrings.
+ * Results are stored in the scanner and overwritten by the next scan, so an
+ * instance must only be used by one thread at a time.
+ */
+public class CoordScanner {
+    public static final int LABELLED = 0;
+    public static final int PARENTHESISED = 1;
+    public static final int BARE = 2;
+
+    private static final int MAX_RESULTS = 16;
+
+    private final int[] xs = new int[MAX_RESULTS];
+    private final int[] ys = new int[MAX_RESULTS];
+    private final int[] zs = new int[MAX_RESULTS];
+    private final boolean[] hasYs = new boolean[MAX_RESULTS];
+    private final int[] kinds = new int[MAX_RESULTS];
+    private int count;
+
+    // Per-scan state
+    private CharSequence text;
+    private boolean includeXZ;
+    private int numberEnd, numberDigits;
+    private long numberValue;
+    private char labelAxis;
+    private int labelX, pairX, pairY;
+    private final int[] parenValues = new int[3];
+    private boolean haveLabelX, havePair;
+    private final int[] run = new int[3];
+    private final int[] runDigits = new int[3];
+    private int runLength;
+
+    /**
+     * Scans a message for coordinates: labelled ({@code x: 1 y: 2 z: 3}), parenthesised
+     * ({@code (1, 2, 3)}) and bare whitespace separated numbers ({@code 1 2 3})
+     * @param message The message text
+     * @param includeXZ Also report coordinates without a Y component
+     * @return Number of coordinates found
+     */
+    public int scan(CharSequence message, boolean includeXZ) {
+        this.text = message;
+        this.includeXZ = includeXZ;
+        count = 0;
+        haveLabelX = havePair = false;
+        runLength = 0;
+
+        int length = message.length();
+        int i = 0;
+        while (i < length) {
+            char c = message.charAt(i);
+
+            if (c == '(') {
+                int end = scanParenthesised(i + 1);
+                if (end > 0) {
+                    endRun();
+                    i = end;
+                    continue;
+                }
+            }
+
+            int label = isWordChar(i - 1) ? 0 : labelLength(i);
+            if (label != 0) {
+                int end = scanLabelled(i, label);
+                if (end > 0) {
+                    i = end;
+                    continue;
+                }
+            }
+
+            if (isNumberStart(i)) {
+                int start = i;
+                if (parseNumber(i) && !isWordChar(numberEnd)) {
+                    addToRun(start, (int) numberValue, numberDigits);
+                } else {
+                    endRun();
+                }
+                i = numberEnd;
+                continue;
+            }
+
+            if (!Character.isWhitespace(c)) endRun();
+            i++;
+        }
+
+        endRun();
+        text = null;
+        return count;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getX(int index) {
+        return xs[index];
+    }
+
+    public int getY(int index) {
+        return ys[index];
+    }
+
+    public int getZ(int index) {
+        return zs[index];
+    }
+
+    public boolean hasY(int index) {
+        return hasYs[index];
+    }
+
+    public int getKind(int index) {
+        return kinds[index];
+    }
+
+    // (x, y, z) or (x, z), called with the index after the opening parenthesis
+    private int scanParenthesised(int i) {
+        int found = 0;
+        boolean expectNumber = true;
+
+        i = skipWhitespace(i);
+        while (parseSigned(i)) {
+            parenValues[found++] = (int) numberValue;
+            i = skipWhitespace(numberEnd);
+            if (found == 3 || i >= text.length() || text.charAt(i) != ',') {
+                expectNumber = false;
+                break;
+            }
+            i = skipWhitespace(i + 1);
+        }
+
+        if (expectNumber || found < 2 || i >= text.length() || text.charAt(i) != ')') return -1;
+        if (found == 3) emit(parenValues[0], parenValues[1], parenValues[2], true, PARENTHESISED);
+        else emit(parenValues[0], 0, parenValues[1], false, PARENTHESISED);
+        return i + 1;
+    }
+
+    // label \s* [:=]? \s* -?\d+
+    private int scanLabelled(int i, int labelLength) {
+        int j = skipWhitespace(i + labelLength);
+        if (j < text.length() && (text.charAt(j) == ':' || text.charAt(j) == '=')) j = skipWhitespace(j + 1);
+
+        int start = j;
+        if (!parseSigned(j)) return -1;
+        int value = (int) numberValue;
+        boolean completed = false;
+
+        // Any x, then a later y, then a later z, like "x 1 ... y 2 ... z 3"
+        if (labelAxis == 'x') {
+            labelX = value;
+            haveLabelX = true;
+        } else if (labelAxis == 'y') {
+            if (haveLabelX) {
+                pairX = labelX;
+                pairY = value;
+                havePair = true;
+            }
+        } else if (havePair) {
+            emit(pairX, pairY, value, true, LABELLED);
+            haveLabelX = havePair = false;
+            completed = true;
+        } else if (haveLabelX) {
+            // Keep x, a later y and z can still complete a full coordinate
+            emit(labelX, 0, value, false, LABELLED);
+        }
+
+        // The label ends any bare run, but a number that completed no full coordinate may start one,
+        // e.g. "y-2000 1500" or "x 100 z 2 15 44"
+        endRun();
+        if (!completed && !isWordChar(numberEnd)) addToRun(start, value, numberDigits);
+        return numberEnd;
+    }
+
+    // Length of a coordinate label (x, pos, y, height, z) at the index, or 0. Sets labelAxis.
+    // Callers check that the label does not continue a word, like the y in "hey".
+    private int labelLength(int i) {
+        char c = Character.toLowerCase(text.charAt(i));
+        if (c == 'x' || c == 'y' || c == 'z') {
+            labelAxis = c;
+            return 1;
+        }
+        if (c == 'p' && regionMatches(i, "pos")) {
+            labelAxis = 'x';
+            return 3;
+        }
+        if (c == 'h' && regionMatches(i, "height")) {
+            labelAxis = 'y';
+            return 6;
+        }
+        return 0;
+    }
+
+    private boolean regionMatches(int i, String word) {
+        if (i + word.length() > text.length()) return false;
+        for (int k = 0; k < word.length(); k++) {
+            if (Character.toLowerCase(text.charAt(i + k)) != word.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    private void addToRun(int start, int value, int digits) {
+        // Bare numbers must be separated by whitespace only, anything else ends the run
+        if (runLength > 0 && (start == 0 || !Character.isWhitespace(text.charAt(start - 1)))) endRun();
+
+        // Longer runs keep their last three numbers, "1 2 3 4" reads as 2 3 4
+        if (runLength == 3) {
+            run[0] = run[1];
+            run[1] = run[2];
+            runDigits[0] = runDigits[1];
+            runDigits[1] = runDigits[2];
+            runLength = 2;
+        }
+        run[runLength] = value;
+        runDigits[runLength] = digits;
+        runLength++;
+    }
+
+    private void endRun() {
+        if (runLength == 3) {
+            emit(run[0], run[1], run[2], true, BARE);
+        } else if (runLength == 2 && runDigits[0] >= 3 && runDigits[1] >= 3) {
+            // Pairs need large numbers to be told apart from ordinary numbers in chat
+            emit(run[0], 0, run[1], false, BARE);
+        }
+        runLength = 0;
+    }
+
+    private void emit(int x, int y, int z, boolean hasY, int kind) {
+        if (!hasY && !includeXZ) return;
+        if (count == MAX_RESULTS) return;
+
+        for (int k = 0; k < count; k++) {
+            if (xs[k] == x && zs[k] == z && hasYs[k] == hasY && (!hasY || ys[k] == y)) return;
+        }
+
+        xs[count] = x;
+        ys[count] = y;
+        zs[count] = z;
+        hasYs[count] = hasY;
+        kinds[count] = kind;
+        count++;
+    }
+
+    private boolean isNumberStart(int i) {
+        if (i >= text.length()) return false;
+        char c = text.charAt(i);
+        if (c == '-') {
+            if (i + 1 >= text.length() || !isDigit(text.charAt(i + 1))) return false;
+        } else if (!isDigit(c)) {
+            return false;
+        }
+        return !isWordChar(i - 1);
+    }
+
+    private boolean parseSigned(int i) {
+        if (i >= text.length()) return false;
+        if (text.charAt(i) == '-' || isDigit(text.charAt(i))) return parseNumber(i);
+        return false;
+    }
+
+    // Parses -?\d+ at the index into numberValue/numberEnd/numberDigits, false if it is not an int
+    private boolean parseNumber(int i) {
+        int length = text.length();
+        boolean negative = text.charAt(i) == '-';
+        if (negative) i++;
+
+        long value = 0;
+        int digits = 0;
+        while (i < length && isDigit(text.charAt(i))) {
+            if (digits < 11) value = value * 10 + (text.charAt(i) - '0');
+            digits++;
+            i++;
+        }
+
+        numberEnd = i;
+        numberDigits = digits;
+        numberValue = negative ? -value : value;
+        return digits > 0 && digits <= 10 && numberValue >= Integer.MIN_VALUE && numberValue <= Integer.MAX_VALUE;
+    }
+
+    private int skipWhitespace(int i) {
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) i++;
+        return i;
+    }
+
+    private boolean isWordChar(int i) {
+        if (i < 0 || i >= text.length()) return false;
+        char c = text.charAt(i);
+        return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
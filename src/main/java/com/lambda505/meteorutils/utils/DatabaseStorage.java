@@ -0,0 +1,323 @@
+package com.lambda505.meteorutils.utils;
+
+import com.lambda505.meteorutils.LambdaUtilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Embedded H2 database keeping the leaks and private messages of every server in one indexed table,
+ * so lookups by server, player and time do not read whole logs. Records are queued and inserted by a
+ * writer thread in batches, one transaction per batch. Conversation markers are not stored, they only
+ * make sense between the lines of a text archive.
+ * <p>
+ * Both modules share one instance per database file, see {@link #acquire(File)}.
+ */
+public class DatabaseStorage implements StorageBackend {
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int MAX_BATCH = 512;
+    private static final long SCAN_WAIT_MILLIS = 2000;
+    private static final LatencyHistogram INSERT = Metrics.histogram("storage.insert");
+    private static final LatencyHistogram SCAN = Metrics.histogram("storage.scan");
+    // Queued by close to stop the writer after everything before it, unless the queue is full
+    private static final StorageRecord STOP = new StorageRecord();
+    private static final Map<File, DatabaseStorage> open = new HashMap<>();
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS records ("
+        + "id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+        + "kind TINYINT NOT NULL, "
+        + "server_name VARCHAR NOT NULL, "
+        + "logged_at BIGINT NOT NULL, "
+        + "player_name VARCHAR, "
+        + "player_key VARCHAR, "
+        + "content VARCHAR, "
+        + "x INT, y INT, z INT, "
+        + "has_y BOOLEAN, "
+        + "dimension VARCHAR)";
+    private static final String CREATE_TIME_INDEX =
+        "CREATE INDEX IF NOT EXISTS records_time ON records (server_name, kind, logged_at)";
+    private static final String CREATE_PLAYER_INDEX =
+        "CREATE INDEX IF NOT EXISTS records_player ON records (server_name, kind, player_key, logged_at)";
+    private static final String INSERT_RECORD = "INSERT INTO records "
+        + "(kind, server_name, logged_at, player_name, player_key, content, x, y, z, has_y, dimension) "
+        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String SELECT_RECORDS =
+        "SELECT kind, server_name, logged_at, player_name, content, x, y, z, has_y, dimension FROM records";
+
+    private final File file;
+    // Owned by the writer thread, which closes them when it stops
+    private final Connection writeConnection;
+    private final PreparedStatement insert;
+    // Scans get their own connection so they never wait for a batch
+    private final Connection readConnection;
+    private final BlockingQueue<StorageRecord> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final List<StorageRecord> batch = new ArrayList<>(MAX_BATCH);
+    private final Thread writer;
+    private int references;
+    private volatile boolean closing;
+
+    // Records queued and records committed (or failed), committed is guarded by the instance lock
+    private final AtomicLong queued = new AtomicLong();
+    private long committed;
+
+    private DatabaseStorage(File file) throws SQLException {
+        this.file = file;
+        String url = "jdbc:h2:file:" + file.getAbsolutePath();
+        // The driver is created directly, DriverManager does not see classes of mod class loaders
+        org.h2.Driver driver = new org.h2.Driver();
+        this.writeConnection = driver.connect(url, new Properties());
+        try (Statement statement = writeConnection.createStatement()) {
+            statement.execute(CREATE_TABLE);
+            statement.execute(CREATE_TIME_INDEX);
+            statement.execute(CREATE_PLAYER_INDEX);
+        }
+        writeConnection.setAutoCommit(false);
+        this.insert = writeConnection.prepareStatement(INSERT_RECORD);
+        this.readConnection = driver.connect(url, new Properties());
+
+        this.writer = new Thread(this::run, "Lambda Utilities Database Writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Opens a database, or shares the instance already open. Every call needs a matching {@link #close()}.
+     * @param file Database file without extension, H2 adds {@code .mv.db}
+     * @return The database
+     * @throws SQLException if the database cannot be opened, e.g. it is locked by another client
+     */
+    public static synchronized DatabaseStorage acquire(File file) throws SQLException {
+        File key = file.getAbsoluteFile();
+        DatabaseStorage storage = open.get(key);
+        if (storage == null) {
+            File parent = key.getParentFile();
+            if (parent != null) parent.mkdirs();
+            storage = new DatabaseStorage(key);
+            open.put(key, storage);
+        }
+        storage.references++;
+        return storage;
+    }
+
+    /**
+     * @return The database both modules use, {@code LambdaMeteorUtilities/storage.mv.db} in the run directory
+     */
+    public static File getDefaultFile() {
+        return new File(ClientContext.get().getRunDirectory(), "LambdaMeteorUtilities" + File.separator + "storage");
+    }
+
+    /**
+     * Queues a leak or message for insertion, waits while the queue is full
+     * @return false if interrupted while waiting, true without storing anything for markers
+     */
+    @Override
+    public boolean append(StorageRecord record) {
+        if (record.type == StorageRecord.Type.Marker) return true;
+
+        try {
+            queue.put(record.copy());
+            queued.incrementAndGet();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void flush() {
+        // The writer inserts whatever is queued
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, MAX_BATCH - 1);
+
+                    boolean stop = batch.remove(STOP);
+                    if (!batch.isEmpty()) insertBatch();
+                    batch.clear();
+                    // Close could not queue STOP into a full queue, stop once it is empty
+                    if (stop || (closing && queue.isEmpty())) return;
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    LambdaUtilities.LOG.warn("Database writer failed on " + file.getName(), e);
+                    batch.clear();
+                }
+            }
+        } finally {
+            queue.remove(STOP);
+            if (!queue.isEmpty()) {
+                LambdaUtilities.LOG.warn(queue.size() + " records were not stored in " + file.getName());
+            }
+            try {
+                insert.close();
+                writeConnection.close();
+            } catch (SQLException e) {
+                LambdaUtilities.LOG.warn("Failed to close " + file.getName(), e);
+            }
+        }
+    }
+
+    private void insertBatch() {
+        long start = System.nanoTime();
+        try {
+            for (StorageRecord record : batch) {
+                insert.setByte(1, (byte) record.type.ordinal());
+                insert.setString(2, record.server);
+                insert.setLong(3, record.time);
+                insert.setString(4, record.player);
+                insert.setString(5, record.player != null ? record.player.toLowerCase(Locale.ROOT) : null);
+                insert.setString(6, record.message);
+                insert.setInt(7, record.x);
+                insert.setInt(8, record.y);
+                insert.setInt(9, record.z);
+                insert.setBoolean(10, record.hasY);
+                insert.setString(11, record.dimension);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            writeConnection.commit();
+        } catch (SQLException e) {
+            LambdaUtilities.LOG.warn("Failed to store " + batch.size() + " records in " + file.getName(), e);
+            try {
+                insert.clearBatch();
+                writeConnection.rollback();
+            } catch (SQLException ignored) {}
+        }
+        INSERT.recordSince(start);
+
+        synchronized (this) {
+            committed += batch.size();
+            notifyAll();
+        }
+    }
+
+    @Override
+    public int scan(StorageQuery query, Consumer<StorageRecord> consumer) throws IOException {
+        if (query.getLimit() == 0 || query.getType() == StorageRecord.Type.Marker) return 0;
+        awaitCommitted(queued.get(), SCAN_WAIT_MILLIS);
+
+        StringBuilder sql = new StringBuilder(SELECT_RECORDS).append(" WHERE logged_at >= ?");
+        List<Object> parameters = new ArrayList<>();
+        // Records without a known time only match queries without a time range
+        parameters.add(query.hasTimeRange() ? Math.max(0, query.getFrom()) : Long.MIN_VALUE);
+        if (query.getTo() != Long.MAX_VALUE) {
+            sql.append(" AND logged_at < ?");
+            parameters.add(query.getTo());
+        }
+        if (query.getServer() != null) {
+            sql.append(" AND server_name = ?");
+            parameters.add(query.getServer());
+        }
+        if (query.getType() != null) {
+            sql.append(" AND kind = ?");
+            parameters.add((byte) query.getType().ordinal());
+        }
+        if (query.getPlayer() != null) {
+            sql.append(" AND player_key = ?");
+            parameters.add(query.getPlayer());
+        }
+        for (String term : query.getTerms()) {
+            sql.append(" AND LOWER(content) LIKE ? ESCAPE '\\'");
+            parameters.add("%" + escapeLike(term) + "%");
+        }
+        String order = query.isNewestFirst() ? " DESC" : "";
+        sql.append(" ORDER BY logged_at").append(order).append(", id").append(order);
+        if (query.getLimit() != Integer.MAX_VALUE) {
+            sql.append(" LIMIT ?");
+            parameters.add(query.getLimit());
+        }
+
+        long start = System.nanoTime();
+        int count = 0;
+        synchronized (readConnection) {
+            try (PreparedStatement select = readConnection.prepareStatement(sql.toString())) {
+                for (int i = 0; i < parameters.size(); i++) select.setObject(i + 1, parameters.get(i));
+                select.setFetchSize(256);
+
+                StorageRecord.Type[] types = StorageRecord.Type.values();
+                StorageRecord record = new StorageRecord();
+                try (ResultSet rows = select.executeQuery()) {
+                    while (rows.next()) {
+                        record.set(types[rows.getByte(1)], rows.getString(2), rows.getLong(3), rows.getString(4), rows.getString(5));
+                        record.x = rows.getInt(6);
+                        record.y = rows.getInt(7);
+                        record.z = rows.getInt(8);
+                        record.hasY = rows.getBoolean(9);
+                        record.dimension = rows.getString(10);
+                        consumer.accept(record);
+                        count++;
+                    }
+                }
+            } catch (SQLException e) {
+                throw new IOException("Failed to query " + file.getName(), e);
+            }
+        }
+        SCAN.recordSince(start);
+        return count;
+    }
+
+    private static String escapeLike(String term) {
+        return term.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    // Waits until the writer committed the given number of records, or the timeout passed
+    private synchronized void awaitCommitted(long target, long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            long remaining;
+            while (committed < target && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String getLocation() {
+        return file.getName() + ".mv.db";
+    }
+
+    /**
+     * Releases one reference, the last one stops the writer and closes the database. The writer stores
+     * the queued records and closes its own connection, this waits for it briefly and never blocks on
+     * a full queue.
+     */
+    @Override
+    public void close() {
+        synchronized (DatabaseStorage.class) {
+            if (--references > 0) return;
+            open.remove(file);
+        }
+
+        closing = true;
+        queue.offer(STOP);
+        try {
+            writer.join(SCAN_WAIT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            LambdaUtilities.LOG.warn("Still storing " + queue.size() + " queued records in " + file.getName());
+        }
+
+        synchronized (readConnection) {
+            try {
+                readConnection.close();
+            } catch (SQLException e) {
+                LambdaUtilities.LOG.warn("Failed to close " + file.getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.lambda505.meteorutils.utils;
+
+import com.lambda505.meteorutils.LambdaUtilities;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+public class FileHandleCache {
+    private final Map<Path, Handle> handles = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<Path> knownDirectories = new HashSet<>();
+    private volatile int maxOpen;
+    private volatile long idleTimeoutMillis;
+    private long opened, evicted;
+
+    /**
+     * Creates a cache of append-mode file channels
+     * @param maxOpen Maximum number of channels kept open at once
+     * @param idleTimeoutMillis Channels unused for this long are closed by {@link #closeIdle(long)}
+     */
+    public FileHandleCache(int maxOpen, long idleTimeoutMillis) {
+        this.maxOpen = Math.max(1, maxOpen);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Gets an append-mode channel for a path, opening it and its parent directories if needed.
+     * Opening a new channel evicts the least recently used ones above the limit.
+     * @param path The resolved file path
+     * @return Open channel positioned at the end of the file
+     */
+    public synchronized FileChannel get(Path path) throws IOException {
+        Handle handle = handles.get(path);
+        if (handle != null && handle.channel.isOpen()) {
+            handle.lastUsed = System.currentTimeMillis();
+            return handle.channel;
+        }
+
+        Path parentDir = path.getParent();
+        if (parentDir != null && !knownDirectories.contains(parentDir)) {
+            Files.createDirectories(parentDir);
+            knownDirectories.add(parentDir);
+        }
+
+        handle = new Handle(FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+        handles.put(path, handle);
+        opened++;
+
+        evictOverLimit();
+        return handle.channel;
+    }
+
+    /**
+     * Marks a channel as holding data that has not been forced to disk yet
+     * @param path The resolved file path
+     */
+    public synchronized void markDirty(Path path) {
+        Handle handle = handles.get(path);
+        if (handle != null) handle.dirty = true;
+    }
+
+    /**
+     * Forces a channel's written data to disk, keeping it open
+     * @param path The resolved file path
+     */
+    public synchronized void force(Path path) {
+        Handle handle = handles.get(path);
+        if (handle != null) force(path, handle);
+    }
+
+    /**
+     * Forces every dirty channel to disk, keeping them open
+     */
+    public synchronized void forceAll() {
+        for (Map.Entry<Path, Handle> entry : handles.entrySet()) {
+            force(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Forces and closes the channel for a path, e.g. before the file is renamed
+     * @param path The resolved file path
+     */
+    public synchronized void close(Path path) {
+        Handle handle = handles.remove(path);
+        if (handle != null) close(path, handle);
+    }
+
+    /**
+     * Closes channels that have not been used within the idle timeout
+     * @param now Current time in milliseconds
+     */
+    public synchronized void closeIdle(long now) {
+        Iterator<Map.Entry<Path, Handle>> it = handles.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Handle> entry = it.next();
+            // Access order: the first handle that is still fresh means the rest are too
+            if (now - entry.getValue().lastUsed < idleTimeoutMillis) break;
+            close(entry.getKey(), entry.getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * Forces and closes every cached channel
+     */
+    public synchronized void closeAll() {
+        for (Map.Entry<Path, Handle> entry : handles.entrySet()) {
+            close(entry.getKey(), entry.getValue());
+        }
+        handles.clear();
+        knownDirectories.clear();
+    }
+
+    /**
+     * Updates the cache limits, evicting channels if the new limit is lower
+     * @param maxOpen Maximum number of channels kept open at once
+     * @param idleTimeoutMillis Idle time after which channels are closed
+     */
+    public synchronized void configure(int maxOpen, long idleTimeoutMillis) {
+        this.maxOpen = Math.max(1, maxOpen);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        evictOverLimit();
+    }
+
+    public synchronized int getOpenCount() {
+        return handles.size();
+    }
+
+    public synchronized long getOpenedCount() {
+        return opened;
+    }
+
+    public synchronized long getEvictedCount() {
+        return evicted;
+    }
+
+    private void evictOverLimit() {
+        Iterator<Map.Entry<Path, Handle>> it = handles.entrySet().iterator();
+        while (handles.size() > maxOpen && it.hasNext()) {
+            Map.Entry<Path, Handle> entry = it.next();
+            close(entry.getKey(), entry.getValue());
+            it.remove();
+            evicted++;
+        }
+    }
+
+    private void force(Path path, Handle handle) {
+        if (!handle.dirty) return;
+        try {
+            handle.channel.force(false);
+        } catch (IOException e) {
+            LambdaUtilities.LOG.warn("Failed to flush " + path.getFileName(), e);
+        }
+        handle.dirty = false;
+    }
+
+    private void close(Path path, Handle handle) {
+        force(path, handle);
+        try {
+            handle.channel.close();
+        } catch (IOException e) {
+            LambdaUtilities.LOG.warn("Failed to close " + path.getFileName(), e);
+        }
+    }
+
+    private static class Handle {
+        final FileChannel channel;
+        long lastUsed = System.currentTimeMillis();
+        boolean dirty;
+
+        Handle(FileChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
@@ -7,9 +7,11 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.io.IOException;
+import java.util.regex.Pattern;
 
 public class FileUtils {
     private static final MinecraftClient mc = MinecraftClient.getInstance();
+    private static final Pattern INVALID_FILE_CHARS = Pattern.compile("[<>:\"/\\\\|?*]");
 
     /**
      * Creates the full directory structure for a given base path and sub folder
@@ -109,6 +111,6 @@ public class FileUtils {
      * @return Sanitized filename in lowercase
      */
     public static String sanitizeFileName(String fileName) {
-        return fileName.replaceAll("[<>:\"/\\\\|?*]", "_").toLowerCase();
+        return INVALID_FILE_CHARS.matcher(fileName).replaceAll("_").toLowerCase();
     }
 }
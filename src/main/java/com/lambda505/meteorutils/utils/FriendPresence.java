@@ -0,0 +1,205 @@
+package com.lambda505.meteorutils.utils;
+
+import com.lambda505.meteorutils.LambdaUtilities;
+import meteordevelopment.meteorclient.events.game.GameJoinedEvent;
+import meteordevelopment.meteorclient.events.game.GameLeftEvent;
+import meteordevelopment.meteorclient.events.packets.PacketEvent;
+import meteordevelopment.meteorclient.events.world.TickEvent;
+import meteordevelopment.meteorclient.systems.friends.Friend;
+import meteordevelopment.meteorclient.systems.friends.Friends;
+import meteordevelopment.orbit.EventHandler;
+import net.minecraft.client.network.ClientPlayNetworkHandler;
+import net.minecraft.client.network.PlayerListEntry;
+import net.minecraft.network.packet.s2c.play.PlayerListS2CPacket;
+import net.minecraft.network.packet.s2c.play.PlayerRemoveS2CPacket;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static meteordevelopment.meteorclient.MeteorClient.mc;
+
+/**
+ * Tracks which friends are in the tab list. Player list packets update the online friends as players
+ * join and leave, looked up in a hashed copy of the friends list, so the tab list is only walked again
+ * after joining a server or when the friends list changed. Readers compare {@link #getVersion()} to
+ * know when to rebuild what they show.
+ */
+public class FriendPresence {
+    private static final FriendPresence INSTANCE = new FriendPresence();
+    private static final LatencyHistogram UPDATE = Metrics.histogram("friends.update");
+    private static final String[] NONE = new String[0];
+    private static final int FRIENDS_CHECK_TICKS = 20;
+    // The server sends the tab list in parts after joining, those are not joins
+    private static final int QUIET_TICKS_AFTER_JOIN = 40;
+
+    // Filled on the network thread, applied on the next tick
+    private final Queue<Change> changes = new ConcurrentLinkedQueue<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Client thread only
+    private final Set<String> friendNames = new HashSet<>();
+    private final Map<UUID, String> online = new HashMap<>();
+    private int friendsFingerprint;
+    private int ticksUntilFriendsCheck;
+    private int quietTicks;
+    private boolean resync = true;
+
+    private volatile String[] sorted = NONE;
+    private volatile int version;
+
+    /**
+     * Notified on the client thread when a friend joins or leaves, not for the tab list received when joining a server
+     */
+    public interface Listener {
+        void onFriendJoined(String name);
+
+        void onFriendLeft(String name);
+    }
+
+    // A player added to (name set) or removed from (name null) the tab list
+    private record Change(UUID id, String name) {
+    }
+
+    private FriendPresence() {
+    }
+
+    public static FriendPresence get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return Names of the online friends, sorted case-insensitively. Shared, do not modify.
+     */
+    public String[] getOnlineFriends() {
+        return sorted;
+    }
+
+    /**
+     * @return Number that changes whenever the online friends change
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    public void addListener(Listener listener) {
+        if (!listeners.contains(listener)) listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @EventHandler
+    private void onPacketReceive(PacketEvent.Receive event) {
+        if (event.packet instanceof PlayerListS2CPacket packet) {
+            if (!packet.getActions().contains(PlayerListS2CPacket.Action.ADD_PLAYER)) return;
+            for (PlayerListS2CPacket.Entry entry : packet.getPlayerAdditionEntries()) {
+                if (entry.profile() != null) changes.add(new Change(entry.profileId(), entry.profile().getName()));
+            }
+        } else if (event.packet instanceof PlayerRemoveS2CPacket packet) {
+            for (UUID id : packet.profileIds()) changes.add(new Change(id, null));
+        }
+    }
+
+    @EventHandler
+    private void onGameJoined(GameJoinedEvent event) {
+        resync = true;
+        quietTicks = QUIET_TICKS_AFTER_JOIN;
+    }
+
+    @EventHandler
+    private void onGameLeft(GameLeftEvent event) {
+        changes.clear();
+        online.clear();
+        publish();
+    }
+
+    @EventHandler
+    private void onTick(TickEvent.Pre event) {
+        if (quietTicks > 0) quietTicks--;
+        if (--ticksUntilFriendsCheck <= 0) {
+            ticksUntilFriendsCheck = FRIENDS_CHECK_TICKS;
+            if (friendsChanged()) resync = true;
+        }
+        if (!resync && changes.isEmpty()) return;
+
+        long start = System.nanoTime();
+        if (resync) resync();
+
+        boolean changed = false;
+        Change change;
+        while ((change = changes.poll()) != null) {
+            if (change.name() != null) {
+                if (!friendNames.contains(change.name().toLowerCase(Locale.ROOT)) || isSelf(change.id())) continue;
+                if (online.put(change.id(), change.name()) == null) {
+                    changed = true;
+                    if (quietTicks == 0) {
+                        for (Listener listener : listeners) notify(listener, change.name(), true);
+                    }
+                }
+            } else {
+                String name = online.remove(change.id());
+                if (name != null) {
+                    changed = true;
+                    if (quietTicks == 0) {
+                        for (Listener listener : listeners) notify(listener, name, false);
+                    }
+                }
+            }
+        }
+
+        if (changed) publish();
+        UPDATE.recordSince(start);
+    }
+
+    // Cheap check run once a second, the friends system has no change event
+    private boolean friendsChanged() {
+        Friends friends = Friends.get();
+        int fingerprint = friends.count();
+        for (Friend friend : friends) fingerprint = 31 * fingerprint + friend.getName().hashCode();
+
+        if (fingerprint == friendsFingerprint) return false;
+        friendsFingerprint = fingerprint;
+        return true;
+    }
+
+    // Walks the whole tab list, after joining or when the friends list changed
+    private void resync() {
+        resync = false;
+
+        friendNames.clear();
+        for (Friend friend : Friends.get()) friendNames.add(friend.getName().toLowerCase(Locale.ROOT));
+
+        online.clear();
+        ClientPlayNetworkHandler handler = mc.getNetworkHandler();
+        if (handler != null) {
+            for (PlayerListEntry entry : handler.getPlayerList()) {
+                String name = entry.getProfile().getName();
+                UUID id = entry.getProfile().getId();
+                if (friendNames.contains(name.toLowerCase(Locale.ROOT)) && !isSelf(id)) online.put(id, name);
+            }
+        }
+        publish();
+    }
+
+    private boolean isSelf(UUID id) {
+        return mc.player != null && id.equals(mc.player.getGameProfile().getId());
+    }
+
+    private void publish() {
+        String[] names = online.values().toArray(NONE);
+        Arrays.sort(names, String.CASE_INSENSITIVE_ORDER);
+        sorted = names;
+        version++;
+    }
+
+    private static void notify(Listener listener, String name, boolean joined) {
+        try {
+            if (joined) listener.onFriendJoined(name);
+            else listener.onFriendLeft(name);
+        } catch (Exception e) {
+            LambdaUtilities.LOG.warn("Friend presence listener failed for " + name, e);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.lambda505.meteorutils.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size log-linear histogram of durations in nanoseconds. Each power of two is split into
+ * 16 buckets, so reported values are within about 6% of the recorded ones. Recording is lock-free
+ * and allocation-free and may happen from any thread. Registered by name in {@link Metrics}.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records a duration
+     * @param nanos Duration in nanoseconds, negative values count as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucket(nanos));
+        sum.addAndGet(nanos);
+
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) current = max.get();
+    }
+
+    /**
+     * Records the time since a {@link System#nanoTime()} reading
+     * @param startNanos The reading taken before the measured work
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Clears all recorded values. Values recorded during the reset may be partially kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @return Copy of everything recorded so far
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, sum.get(), max.get());
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Highest value that falls into a bucket
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Immutable copy of a histogram. Subtracting an earlier snapshot gives the values recorded in between.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return Number of recorded values
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * @return Mean in nanoseconds, 0 if empty
+         */
+        public double mean() {
+            return count > 0 ? (double) sum / count : 0;
+        }
+
+        /**
+         * @param percentile Between 0 and 100
+         * @return Value in nanoseconds at or below which the percentile of values lie, 0 if empty
+         */
+        public long percentile(double percentile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(highestValue(i), max);
+            }
+            return max;
+        }
+
+        /**
+         * @return Largest value in nanoseconds, exact for a full snapshot and within a bucket for a difference
+         */
+        public long max() {
+            return max;
+        }
+
+        /**
+         * @param earlier A snapshot of the same histogram taken before this one
+         * @return The values recorded between the two snapshots
+         */
+        public Snapshot minus(Snapshot earlier) {
+            long[] difference = new long[counts.length];
+            long highest = 0;
+            for (int i = 0; i < counts.length; i++) {
+                // A reset in between makes counts go down, treat that as a fresh start
+                difference[i] = Math.max(0, counts[i] - earlier.counts[i]);
+                if (difference[i] > 0) highest = i;
+            }
+            long windowCount = Math.max(0, count - earlier.count);
+            long windowMax = windowCount > 0 ? Math.min(highestValue((int) highest), max) : 0;
+            return new Snapshot(difference, windowCount, Math.max(0, sum - earlier.sum), windowMax);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.lambda505.meteorutils.utils;
+
+/**
+ * Layout of the binary coordinate leak log written by {@link LeakRecordWriter}.
+ * <p>
+ * The file is a sequence of blocks: {@code MAGIC, varint payloadLength, payload, CRC32(payload)}.
+ * A payload starts with a flags byte and the varint epoch millis of its first leak, followed by entries:
+ * <ul>
+ *     <li>{@code STRING}: varint length and UTF-8 bytes, appended to the string table</li>
+ *     <li>{@code LEAK_XZ} / {@code LEAK_XYZ}: zigzag time delta to the previous leak, zigzag x, [y], z,
+ *     then varint string table ids of the player, dimension and message</li>
+ * </ul>
+ * The string table spans blocks and is cleared by blocks flagged {@code RESET_STRINGS}, which every
+ * writer emits first so appending never needs to read the existing file, and again every few blocks
+ * so a damaged block does not make the rest of the log unreadable.
+ */
+class LeakBinaryFormat {
+    static final int MAGIC = 0x4C4B4231; // "LKB1"
+    static final int MAX_PAYLOAD = 1 << 20;
+
+    static final int RESET_STRINGS = 1;
+
+    static final int STRING = 0;
+    static final int LEAK_XZ = 1;
+    static final int LEAK_XYZ = 2;
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
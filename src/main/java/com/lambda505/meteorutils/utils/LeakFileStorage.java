@@ -0,0 +1,115 @@
+package com.lambda505.meteorutils.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.function.Consumer;
+
+/**
+ * The Chat Coord Logger's leak logs of one server, text or binary depending on
+ * {@link LeakRecorder.Config#logFormat()}. This is the default {@link StorageBackend} for leaks.
+ * Scans read the whole binary log, then the whole text log.
+ */
+public class LeakFileStorage implements StorageBackend {
+    private final String server;
+    private final File textFile;
+    private final File binaryFile;
+    private final LeakRecorder.Config config;
+
+    private final LeakRecord leak = new LeakRecord();
+    private LeakRecordWriter binaryWriter;
+
+    /**
+     * @param server Server name set on scanned records
+     * @param textFile Text log, see {@link LeakLogFormat}
+     * @param binaryFile Binary log, see {@link LeakRecordWriter}
+     * @param config Log format and flush options, read for every leak
+     */
+    public LeakFileStorage(String server, File textFile, File binaryFile, LeakRecorder.Config config) {
+        this.server = server;
+        this.textFile = textFile;
+        this.binaryFile = binaryFile;
+        this.config = config;
+    }
+
+    /**
+     * @return The file new leaks are logged to with the current format
+     */
+    public File getCurrentFile() {
+        return config.logFormat() == LeakRecorder.LogFormat.Binary ? binaryFile : textFile;
+    }
+
+    @Override
+    public synchronized boolean append(StorageRecord record) {
+        if (record.type != StorageRecord.Type.Leak) return false;
+
+        record.toLeak(leak);
+        if (config.logFormat() == LeakRecorder.LogFormat.Binary) {
+            if (binaryWriter == null) binaryWriter = new LeakRecordWriter(binaryFile);
+            return binaryWriter.append(leak, config.flushPolicy(), config.flushInterval());
+        }
+        return LeakLogFormat.encode(leak, LogEncoder.get().reset()).enqueue(textFile, config.flushPolicy(), config.flushInterval());
+    }
+
+    /**
+     * Queues binary log entries that are still collected into a block
+     */
+    @Override
+    public synchronized void flush() {
+        LeakRecordWriter writer = binaryWriter;
+        if (writer != null && writer.hasPending()) {
+            writer.flush(config.flushPolicy(), config.flushInterval());
+        }
+    }
+
+    @Override
+    public int scan(StorageQuery query, Consumer<StorageRecord> consumer) throws IOException {
+        ScanResults results = new ScanResults(query, consumer);
+        if ((query.getType() == null || query.getType() == StorageRecord.Type.Leak)
+            && (query.getServer() == null || query.getServer().equals(server))) {
+            // Blocks still being collected are not on disk yet
+            flush();
+            AsyncLogWriter.drain(2000);
+            if (scanBinary(results)) scanText(results);
+        }
+        return results.finish();
+    }
+
+    private boolean scanBinary(ScanResults results) throws IOException {
+        if (!binaryFile.exists()) return true;
+
+        LeakRecord read = new LeakRecord();
+        StorageRecord record = new StorageRecord();
+        try (LeakRecordReader reader = new LeakRecordReader(binaryFile, binaryFile.length())) {
+            while (reader.next(read)) {
+                if (!results.offer(record.setLeak(server, read))) return false;
+            }
+        }
+        return true;
+    }
+
+    private void scanText(ScanResults results) throws IOException {
+        if (!textFile.exists()) return;
+
+        LeakRecord read = new LeakRecord();
+        StorageRecord record = new StorageRecord();
+        try (BufferedReader lines = Files.newBufferedReader(textFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (LeakLogFormat.parse(line, read) && !results.offer(record.setLeak(server, read))) return;
+            }
+        }
+    }
+
+    @Override
+    public String getLocation() {
+        return getCurrentFile().getName();
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+}
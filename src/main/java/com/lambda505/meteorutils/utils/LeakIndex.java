@@ -0,0 +1,291 @@
+package com.lambda505.meteorutils.utils;
+
+import java.util.*;
+
+/**
+ * In-memory spatial index over logged coordinate leaks of one server.
+ * Leaks are stored column-wise and bucketed per dimension into a hash grid of
+ * 512x512 block cells on x/z, so radius, box and nearest queries only visit the
+ * cells around the query instead of every leak.
+ */
+public class LeakIndex {
+    private static final int CELL_SHIFT = 9;
+    private static final String UNKNOWN_DIMENSION = "unknown";
+
+    private final Map<String, Grid> grids = new HashMap<>();
+    private final Map<String, Integer> playerIds = new HashMap<>();
+    private final List<String> players = new ArrayList<>();
+
+    private int size;
+    private int[] xs = new int[1024], ys = new int[1024], zs = new int[1024], playerOf = new int[1024];
+    private long[] times = new long[1024];
+    private boolean[] hasYs = new boolean[1024];
+
+    /**
+     * Adds a leak to the index
+     * @param record The leak, a null dimension is indexed as "unknown"
+     */
+    public synchronized void add(LeakRecord record) {
+        if (size == xs.length) grow();
+
+        Integer playerId = playerIds.get(record.player);
+        if (playerId == null) {
+            playerId = players.size();
+            players.add(record.player);
+            playerIds.put(record.player, playerId);
+        }
+
+        int id = size++;
+        xs[id] = record.x;
+        ys[id] = record.y;
+        zs[id] = record.z;
+        hasYs[id] = record.hasY;
+        times[id] = record.time;
+        playerOf[id] = playerId;
+
+        String dimension = record.dimension != null ? record.dimension : UNKNOWN_DIMENSION;
+        grids.computeIfAbsent(dimension, d -> new Grid()).add(id, record.x, record.z);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Finds leaks within a radius, closest first
+     * @param dimension Dimension to search, null searches all
+     * @param x Center x
+     * @param z Center z
+     * @param radius Radius in blocks
+     * @param limit Maximum number of results
+     * @return Matching leaks sorted by distance
+     */
+    public synchronized List<Leak> radius(String dimension, int x, int z, int radius, int limit) {
+        long radiusSq = (long) radius * radius;
+        Collector collector = new Collector(x, z, limit);
+
+        for (Grid grid : gridsFor(dimension)) {
+            grid.forEachInBox(x - radius, z - radius, x + radius, z + radius, id -> {
+                long distanceSq = distanceSq(id, x, z);
+                if (distanceSq <= radiusSq) collector.offer(id, distanceSq);
+            });
+        }
+        return collector.results();
+    }
+
+    /**
+     * Finds leaks inside a box, closest to its center first
+     * @param dimension Dimension to search, null searches all
+     * @param x1 First corner x
+     * @param z1 First corner z
+     * @param x2 Opposite corner x
+     * @param z2 Opposite corner z
+     * @param limit Maximum number of results
+     * @return Matching leaks
+     */
+    public synchronized List<Leak> box(String dimension, int x1, int z1, int x2, int z2, int limit) {
+        int minX = Math.min(x1, x2), maxX = Math.max(x1, x2);
+        int minZ = Math.min(z1, z2), maxZ = Math.max(z1, z2);
+        int centerX = (int) (((long) minX + maxX) / 2), centerZ = (int) (((long) minZ + maxZ) / 2);
+        Collector collector = new Collector(centerX, centerZ, limit);
+
+        for (Grid grid : gridsFor(dimension)) {
+            grid.forEachInBox(minX, minZ, maxX, maxZ, id -> {
+                if (xs[id] >= minX && xs[id] <= maxX && zs[id] >= minZ && zs[id] <= maxZ) {
+                    collector.offer(id, distanceSq(id, centerX, centerZ));
+                }
+            });
+        }
+        return collector.results();
+    }
+
+    /**
+     * Finds the k leaks closest to a point
+     * @param dimension Dimension to search, null searches all
+     * @param x Center x
+     * @param z Center z
+     * @param k Number of leaks to find
+     * @return Up to k leaks sorted by distance
+     */
+    public synchronized List<Leak> nearest(String dimension, int x, int z, int k) {
+        Collector collector = new Collector(x, z, k);
+        for (Grid grid : gridsFor(dimension)) {
+            grid.nearest(x, z, collector);
+        }
+        return collector.results();
+    }
+
+    private Collection<Grid> gridsFor(String dimension) {
+        if (dimension == null) return grids.values();
+        Grid grid = grids.get(dimension);
+        return grid != null ? List.of(grid) : List.of();
+    }
+
+    private long distanceSq(int id, int x, int z) {
+        long dx = (long) xs[id] - x, dz = (long) zs[id] - z;
+        return dx * dx + dz * dz;
+    }
+
+    private void grow() {
+        int capacity = xs.length * 2;
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        zs = Arrays.copyOf(zs, capacity);
+        hasYs = Arrays.copyOf(hasYs, capacity);
+        times = Arrays.copyOf(times, capacity);
+        playerOf = Arrays.copyOf(playerOf, capacity);
+    }
+
+    private static long cellKey(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * A query result
+     */
+    public static class Leak {
+        public final String player;
+        public final int x, y, z;
+        public final boolean hasY;
+        public final long time;
+        public final double distance;
+
+        Leak(String player, int x, int y, int z, boolean hasY, long time, double distance) {
+            this.player = player;
+            this.x = x;
+            this.y = y;
+            this.hasY = hasY;
+            this.z = z;
+            this.time = time;
+            this.distance = distance;
+        }
+    }
+
+    private interface IdConsumer {
+        void accept(int id);
+    }
+
+    // Keeps the closest `limit` ids in a max-heap on distance
+    private class Collector {
+        final int x, z, limit;
+        final PriorityQueue<long[]> heap = new PriorityQueue<>((a, b) -> Long.compare(b[1], a[1]));
+
+        Collector(int x, int z, int limit) {
+            this.x = x;
+            this.z = z;
+            this.limit = Math.max(1, limit);
+        }
+
+        void offer(int id, long distanceSq) {
+            if (heap.size() < limit) {
+                heap.add(new long[]{id, distanceSq});
+            } else if (distanceSq < heap.peek()[1]) {
+                heap.poll();
+                heap.add(new long[]{id, distanceSq});
+            }
+        }
+
+        // Squared distance a candidate must beat, or Long.MAX_VALUE while not full
+        long worst() {
+            return heap.size() < limit ? Long.MAX_VALUE : heap.peek()[1];
+        }
+
+        List<Leak> results() {
+            List<Leak> results = new ArrayList<>(heap.size());
+            for (long[] entry : heap) {
+                int id = (int) entry[0];
+                results.add(new Leak(players.get(playerOf[id]), xs[id], ys[id], zs[id], hasYs[id], times[id],
+                    Math.sqrt(entry[1])));
+            }
+            results.sort(Comparator.comparingDouble(leak -> leak.distance));
+            return results;
+        }
+    }
+
+    private class Grid {
+        // Leak ids per cell, the number of ids is stored at index 0
+        final Map<Long, int[]> cells = new HashMap<>();
+        int minCellX = Integer.MAX_VALUE, maxCellX = Integer.MIN_VALUE;
+        int minCellZ = Integer.MAX_VALUE, maxCellZ = Integer.MIN_VALUE;
+
+        void add(int id, int x, int z) {
+            int cellX = x >> CELL_SHIFT, cellZ = z >> CELL_SHIFT;
+            long key = cellKey(cellX, cellZ);
+
+            int[] cell = cells.get(key);
+            if (cell == null) {
+                cell = new int[5];
+                cells.put(key, cell);
+            } else if (cell[0] + 1 == cell.length) {
+                cell = Arrays.copyOf(cell, cell.length * 2);
+                cells.put(key, cell);
+            }
+            cell[++cell[0]] = id;
+
+            minCellX = Math.min(minCellX, cellX);
+            maxCellX = Math.max(maxCellX, cellX);
+            minCellZ = Math.min(minCellZ, cellZ);
+            maxCellZ = Math.max(maxCellZ, cellZ);
+        }
+
+        void forEachInBox(int minX, int minZ, int maxX, int maxZ, IdConsumer consumer) {
+            int fromX = Math.max(minX >> CELL_SHIFT, minCellX), toX = Math.min(maxX >> CELL_SHIFT, maxCellX);
+            int fromZ = Math.max(minZ >> CELL_SHIFT, minCellZ), toZ = Math.min(maxZ >> CELL_SHIFT, maxCellZ);
+            if (fromX > toX || fromZ > toZ) return;
+
+            // Large boxes over a sparse grid: walk the occupied cells instead of the box
+            if ((long) (toX - fromX + 1) * (toZ - fromZ + 1) > cells.size()) {
+                for (Map.Entry<Long, int[]> entry : cells.entrySet()) {
+                    int cellX = (int) (entry.getKey() >> 32), cellZ = (int) (long) entry.getKey();
+                    if (cellX >= fromX && cellX <= toX && cellZ >= fromZ && cellZ <= toZ) visit(entry.getValue(), consumer);
+                }
+                return;
+            }
+
+            for (int cellX = fromX; cellX <= toX; cellX++) {
+                for (int cellZ = fromZ; cellZ <= toZ; cellZ++) {
+                    int[] cell = cells.get(cellKey(cellX, cellZ));
+                    if (cell != null) visit(cell, consumer);
+                }
+            }
+        }
+
+        // Visits rings of cells around the point until no unvisited cell can hold a closer leak
+        void nearest(int x, int z, Collector collector) {
+            if (cells.isEmpty()) return;
+            int centerX = x >> CELL_SHIFT, centerZ = z >> CELL_SHIFT;
+            int maxRing = Math.max(Math.max(Math.abs(centerX - minCellX), Math.abs(maxCellX - centerX)),
+                Math.max(Math.abs(centerZ - minCellZ), Math.abs(maxCellZ - centerZ)));
+
+            for (int ring = 0; ring <= maxRing; ring++) {
+                // Closest possible distance of any cell in this ring
+                long reach = (long) Math.max(0, ring - 1) << CELL_SHIFT;
+                if (reach * reach > collector.worst()) return;
+
+                // Rings bigger than the number of occupied cells: check those cells directly
+                if ((long) ring * 8 > cells.size()) {
+                    for (Map.Entry<Long, int[]> entry : cells.entrySet()) {
+                        int cellX = (int) (entry.getKey() >> 32), cellZ = (int) (long) entry.getKey();
+                        if (Math.max(Math.abs(cellX - centerX), Math.abs(cellZ - centerZ)) >= ring) {
+                            visit(entry.getValue(), id -> collector.offer(id, distanceSq(id, x, z)));
+                        }
+                    }
+                    return;
+                }
+
+                for (int dx = -ring; dx <= ring; dx++) {
+                    boolean edge = dx == -ring || dx == ring;
+                    for (int dz = -ring; dz <= ring; dz += edge ? 1 : 2 * ring) {
+                        int[] cell = cells.get(cellKey(centerX + dx, centerZ + dz));
+                        if (cell != null) visit(cell, id -> collector.offer(id, distanceSq(id, x, z)));
+                        if (ring == 0) break;
+                    }
+                }
+            }
+        }
+
+        private void visit(int[] cell, IdConsumer consumer) {
+            for (int i = 1; i <= cell[0]; i++) consumer.accept(cell[i]);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.lambda505.meteorutils.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Reads and writes lines of the Chat Coord Logger text log:
+ * {@code [yyyy-MM-dd HH:mm:ss] Player: name | Coords (XYZ): x, y, z | Dim: overworld | Message: text}.
+ * Lines written before dimensions were logged have no {@code Dim} field.
+ */
+public class LeakLogFormat {
+    private static final String PLAYER = "] Player: ";
+    // The same field after the encoder's timestamp prefix, which ends with "] "
+    private static final String ENCODED_PLAYER = "Player: ";
+    private static final String COORDS = " | Coords (";
+    private static final String DIM = " | Dim: ";
+    private static final String MESSAGE = " | Message: ";
+    // Index of the closing bracket of the timestamp
+    private static final int TIMESTAMP_END = 20;
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+        .withZone(ZoneId.systemDefault());
+
+    /**
+     * Formats a leak as a log line
+     * @param record The leak, the Dim field is left out if its dimension is null
+     * @return The line including line separator
+     */
+    public static String format(LeakRecord record) {
+        StringBuilder line = new StringBuilder(96 + (record.message != null ? record.message.length() : 0));
+        line.append('[');
+        TIME_FORMATTER.formatTo(Instant.ofEpochMilli(record.time), line);
+        line.append(PLAYER).append(record.player)
+            .append(COORDS).append(record.getType()).append("): ")
+            .append(record.x).append(", ");
+        if (record.hasY) line.append(record.y);
+        else line.append('?');
+        line.append(", ").append(record.z);
+        if (record.dimension != null) line.append(DIM).append(record.dimension);
+        line.append(MESSAGE).append(record.message).append(System.lineSeparator());
+        return line.toString();
+    }
+
+    /**
+     * Encodes a leak as a log line, the same line {@link #format(LeakRecord)} returns
+     * @param record The leak, the Dim field is left out if its dimension is null
+     * @param entry Encoder to append to, usually reset
+     * @return The encoder, including line separator
+     */
+    public static LogEncoder encode(LeakRecord record, LogEncoder entry) {
+        entry.timestamp(record.time).append(ENCODED_PLAYER).append(record.player)
+            .append(COORDS).append(record.getType()).append("): ")
+            .append(record.x).append(", ");
+        if (record.hasY) entry.append(record.y);
+        else entry.append('?');
+        entry.append(", ").append(record.z);
+        if (record.dimension != null) entry.append(DIM).append(record.dimension);
+        return entry.append(MESSAGE).append(record.message).newline();
+    }
+
+    /**
+     * Regenerates the text log from a binary log
+     * @param binaryFile Log written by {@link LeakRecordWriter}
+     * @param textFile File to write, replaced if it exists
+     * @return Number of exported leaks
+     */
+    public static int export(File binaryFile, File textFile) throws IOException {
+        int exported = 0;
+        LeakRecord record = new LeakRecord();
+        try (LeakRecordReader reader = new LeakRecordReader(binaryFile, binaryFile.length());
+             BufferedWriter writer = Files.newBufferedWriter(textFile.toPath(), StandardCharsets.UTF_8)) {
+            while (reader.next(record)) {
+                writer.write(format(record));
+                exported++;
+            }
+        }
+        return exported;
+    }
+
+    /**
+     * Parses a log line
+     * @param line The line, without line separator
+     * @param out Record to fill
+     * @return true if the line is a coordinate leak entry
+     */
+    public static boolean parse(String line, LeakRecord out) {
+        if (line.length() < TIMESTAMP_END + PLAYER.length() || line.charAt(0) != '[' || !line.startsWith(PLAYER, TIMESTAMP_END)) {
+            return false;
+        }
+
+        try {
+            long time = LogWriter.parseTimestamp(line);
+            if (time < 0) return false;
+
+            int playerStart = TIMESTAMP_END + PLAYER.length();
+            int coordsStart = line.indexOf(COORDS, playerStart);
+            if (coordsStart < 0) return false;
+            String player = line.substring(playerStart, coordsStart);
+
+            int valuesStart = line.indexOf("): ", coordsStart) + 3;
+            if (valuesStart < 3) return false;
+            int valuesEnd = line.indexOf(" | ", valuesStart);
+            if (valuesEnd < 0) return false;
+
+            int comma1 = line.indexOf(", ", valuesStart);
+            int comma2 = line.indexOf(", ", comma1 + 2);
+            if (comma1 < 0 || comma2 < 0 || comma2 > valuesEnd) return false;
+
+            int x = Integer.parseInt(line, valuesStart, comma1, 10);
+            boolean hasY = line.charAt(comma1 + 2) != '?';
+            int y = hasY ? Integer.parseInt(line, comma1 + 2, comma2, 10) : 0;
+            int z = Integer.parseInt(line, comma2 + 2, valuesEnd, 10);
+
+            String dimension = null;
+            int messageStart;
+            if (line.startsWith(DIM, valuesEnd)) {
+                int dimStart = valuesEnd + DIM.length();
+                int dimEnd = line.indexOf(MESSAGE, dimStart);
+                if (dimEnd < 0) return false;
+                dimension = line.substring(dimStart, dimEnd);
+                messageStart = dimEnd + MESSAGE.length();
+            } else if (line.startsWith(MESSAGE, valuesEnd)) {
+                messageStart = valuesEnd + MESSAGE.length();
+            } else {
+                return false;
+            }
+
+            out.set(time, player, x, y, hasY, z, dimension, line.substring(messageStart));
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.lambda505.meteorutils.utils;
+
+/**
+ * One coordinate leak as logged by Chat Coord Logger. Mutable so readers can reuse one
+ * instance while streaming through large logs.
+ */
+public class LeakRecord {
+    public long time;
+    public String player;
+    public int x, y, z;
+    public boolean hasY;
+    public String dimension;
+    public String message;
+
+    public LeakRecord set(long time, String player, int x, int y, boolean hasY, int z, String dimension, String message) {
+        this.time = time;
+        this.player = player;
+        this.x = x;
+        this.y = y;
+        this.hasY = hasY;
+        this.z = z;
+        this.dimension = dimension;
+        this.message = message;
+        return this;
+    }
+
+    /**
+     * @return "XYZ" or "XZ", as written in the log
+     */
+    public String getType() {
+        return hasY ? "XYZ" : "XZ";
+    }
+}
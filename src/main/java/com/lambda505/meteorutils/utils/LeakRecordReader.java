@@ -0,0 +1,211 @@
+package com.lambda505.meteorutils.utils;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static com.lambda505.meteorutils.utils.LeakBinaryFormat.*;
+
+/**
+ * Streams the leaks of a binary log written by {@link LeakRecordWriter}, one block in memory at a time.
+ * A damaged or torn block is skipped and reading resumes at the next magic after its start, so a bad
+ * length cannot swallow the blocks behind it. The string table is unknown after a skipped block, the
+ * leaks of following blocks are dropped until a block resets the table.
+ */
+public class LeakRecordReader implements Closeable {
+    private final BufferedInputStream in;
+    private final long limit;
+    private final CRC32 crc = new CRC32();
+    private final List<String> strings = new ArrayList<>();
+
+    private long position;
+    private byte[] payload = new byte[1024];
+    private int payloadLength;
+    private int pos;
+    private long lastTime;
+    private int skippedBlocks;
+    // False from a skipped block until the next block flagged RESET_STRINGS
+    private boolean stringsValid = true;
+
+    /**
+     * Opens a binary log
+     * @param file The log file
+     * @param length Only blocks ending before this byte offset are read
+     */
+    public LeakRecordReader(File file, long length) throws IOException {
+        this.in = new BufferedInputStream(Files.newInputStream(file.toPath()), 1 << 16);
+        this.limit = length;
+    }
+
+    /**
+     * Reads the next leak
+     * @param out Record to fill
+     * @return false at the end of the log
+     */
+    public boolean next(LeakRecord out) throws IOException {
+        while (true) {
+            if (pos >= payloadLength && !readBlock()) return false;
+
+            try {
+                int tag = payload[pos++];
+                if (tag == STRING) {
+                    int size = readVarInt();
+                    if (size < 0 || pos + size > payloadLength) throw new IllegalStateException("String past block end");
+                    strings.add(new String(payload, pos, size, StandardCharsets.UTF_8));
+                    pos += size;
+                } else if (tag == LEAK_XZ || tag == LEAK_XYZ) {
+                    boolean hasY = tag == LEAK_XYZ;
+                    long time = lastTime + unzigzag(readVarLong());
+                    int x = unzigzag(readVarInt());
+                    int y = hasY ? unzigzag(readVarInt()) : 0;
+                    int z = unzigzag(readVarInt());
+                    String player = string(readVarInt());
+                    String dimension = string(readVarInt());
+                    String message = string(readVarInt());
+                    if (pos > payloadLength) throw new IllegalStateException("Leak past block end");
+
+                    lastTime = time;
+                    out.set(time, player, x, y, hasY, z, dimension, message);
+                    return true;
+                } else {
+                    throw new IllegalStateException("Unknown entry " + tag);
+                }
+            } catch (RuntimeException e) {
+                // Checksum matched but the payload does not decode, drop the rest of the block
+                skippedBlocks++;
+                stringsValid = false;
+                payloadLength = 0;
+            }
+        }
+    }
+
+    /**
+     * @return Number of corrupt blocks, and of blocks unreadable after one, skipped so far
+     */
+    public int getSkippedBlocks() {
+        return skippedBlocks;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean readBlock() throws IOException {
+        while (true) {
+            pos = 0;
+            payloadLength = 0;
+
+            // Resynchronize on the next magic after a damaged block
+            int window = 0;
+            int matched = 0;
+            while (matched < 4 || window != MAGIC) {
+                int b = read();
+                if (b < 0) return false;
+                window = (window << 8) | b;
+                matched++;
+            }
+
+            // A torn block may claim a length covering the blocks after it, go back here if it fails
+            long blockStart = position;
+            in.mark(MAX_PAYLOAD + 16);
+
+            int length = readBlockPayload();
+            if (length < 0) {
+                skippedBlocks++;
+                stringsValid = false;
+                in.reset();
+                position = blockStart;
+                continue;
+            }
+
+            payloadLength = length;
+            if ((payload[pos++] & RESET_STRINGS) != 0) {
+                strings.clear();
+                stringsValid = true;
+            }
+            if (!stringsValid) {
+                // Its string ids point into a table that was partly lost
+                skippedBlocks++;
+                payloadLength = 0;
+                continue;
+            }
+            lastTime = readVarLong();
+            return true;
+        }
+    }
+
+    // Reads length, payload and checksum after a magic, -1 if any of them is bad or cut off
+    private int readBlockPayload() throws IOException {
+        int length = readStreamVarInt();
+        if (length < 2 || length > MAX_PAYLOAD) return -1;
+        if (payload.length < length) payload = new byte[Math.max(length, payload.length * 2)];
+        if (!readFully(payload, length)) return -1;
+
+        int checksum = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = read();
+            if (b < 0) return -1;
+            checksum = (checksum << 8) | b;
+        }
+
+        crc.reset();
+        crc.update(payload, 0, length);
+        return (int) crc.getValue() == checksum ? length : -1;
+    }
+
+    private String string(int id) {
+        return id < strings.size() ? strings.get(id) : "unknown";
+    }
+
+    private int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = payload[pos++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    private long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = payload[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    private int readStreamVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = read();
+            if (b < 0) return -1;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        return -1;
+    }
+
+    private int read() throws IOException {
+        if (position >= limit) return -1;
+        int b = in.read();
+        if (b >= 0) position++;
+        return b;
+    }
+
+    private boolean readFully(byte[] buffer, int length) throws IOException {
+        if (position + length > limit) return false;
+        int read = in.readNBytes(buffer, 0, length);
+        position += read;
+        return read == length;
+    }
+}
@@ -0,0 +1,178 @@
+package com.lambda505.meteorutils.utils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static com.lambda505.meteorutils.utils.LeakBinaryFormat.*;
+
+/**
+ * Appends coordinate leaks to a binary log, see {@link LeakBinaryFormat}. Leaks are collected
+ * into a block that is sealed and handed to {@link AsyncLogWriter} when it is full or on {@link #flush}.
+ * The first block of every writer and every {@value #RESET_INTERVAL_BLOCKS}th block after it reset the
+ * string table, so a damaged block only makes the reader lose the blocks up to the next reset.
+ * Not thread-safe.
+ */
+public class LeakRecordWriter {
+    private static final int MAX_BLOCK_RECORDS = 256;
+    private static final int MAX_STRINGS = 4096;
+    private static final int RESET_INTERVAL_BLOCKS = 16;
+
+    private final File file;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final CRC32 crc = new CRC32();
+    private boolean resetStrings = true;
+    private int blocksSinceReset;
+
+    private byte[] payload = new byte[1024];
+    private int length;
+    private int records;
+    private long lastTime;
+
+    public LeakRecordWriter(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Adds a leak to the current block
+     * @param record The leak
+     * @param policy Flush policy used if the block is sealed
+     * @param intervalMillis Flush interval used if the block is sealed
+     * @return false if a sealed block could not be queued
+     */
+    public boolean append(LeakRecord record, AsyncLogWriter.FlushPolicy policy, int intervalMillis) {
+        boolean queued = true;
+
+        // Up to three new strings per leak, start a new table before it overflows
+        if (strings.size() + 3 > MAX_STRINGS) {
+            queued = flush(policy, intervalMillis);
+            strings.clear();
+            resetStrings = true;
+        }
+
+        if (records == 0) {
+            if (blocksSinceReset >= RESET_INTERVAL_BLOCKS) {
+                strings.clear();
+                resetStrings = true;
+            }
+            if (resetStrings) blocksSinceReset = 0;
+            writeByte(resetStrings ? RESET_STRINGS : 0);
+            writeVarLong(record.time);
+            resetStrings = false;
+            lastTime = record.time;
+        }
+
+        int player = intern(record.player != null ? record.player : "Unknown");
+        int dimension = intern(record.dimension != null ? record.dimension : "unknown");
+        int message = intern(record.message != null ? record.message : "");
+
+        writeByte(record.hasY ? LEAK_XYZ : LEAK_XZ);
+        writeVarLong(zigzag(record.time - lastTime));
+        writeVarInt(zigzag(record.x));
+        if (record.hasY) writeVarInt(zigzag(record.y));
+        writeVarInt(zigzag(record.z));
+        writeVarInt(player);
+        writeVarInt(dimension);
+        writeVarInt(message);
+        lastTime = record.time;
+
+        if (++records >= MAX_BLOCK_RECORDS || length >= MAX_PAYLOAD / 2) {
+            queued &= flush(policy, intervalMillis);
+        }
+        return queued;
+    }
+
+    /**
+     * Seals the current block and queues it for writing
+     * @param policy When the file is forced to disk after writing
+     * @param intervalMillis Minimum time between forces for {@link AsyncLogWriter.FlushPolicy#Interval}
+     * @return false if the block could not be queued
+     */
+    public boolean flush(AsyncLogWriter.FlushPolicy policy, int intervalMillis) {
+        if (records == 0) return true;
+
+        byte[] block = new byte[4 + 5 + length + 4];
+        int pos = putInt(block, 0, MAGIC);
+        pos = putVarInt(block, pos, length);
+        System.arraycopy(payload, 0, block, pos, length);
+        crc.reset();
+        crc.update(payload, 0, length);
+        pos = putInt(block, pos + length, (int) crc.getValue());
+
+        length = 0;
+        records = 0;
+        blocksSinceReset++;
+        return AsyncLogWriter.enqueue(file, Arrays.copyOf(block, pos), policy, intervalMillis);
+    }
+
+    /**
+     * @return true if leaks are waiting for {@link #flush}
+     */
+    public boolean hasPending() {
+        return records > 0;
+    }
+
+    private int intern(String value) {
+        Integer id = strings.get(value);
+        if (id != null) return id;
+
+        id = strings.size();
+        strings.put(value, id);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeByte(STRING);
+        writeVarInt(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, payload, length, bytes.length);
+        length += bytes.length;
+        return id;
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        payload[length++] = (byte) value;
+    }
+
+    private void writeVarInt(int value) {
+        ensureCapacity(5);
+        length = putVarInt(payload, length, value);
+    }
+
+    private void writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            payload[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        payload[length++] = (byte) value;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > payload.length) {
+            payload = Arrays.copyOf(payload, Math.max(payload.length * 2, length + extra));
+        }
+    }
+
+    private static int putVarInt(byte[] buffer, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int putInt(byte[] buffer, int pos, int value) {
+        buffer[pos] = (byte) (value >>> 24);
+        buffer[pos + 1] = (byte) (value >>> 16);
+        buffer[pos + 2] = (byte) (value >>> 8);
+        buffer[pos + 3] = (byte) value;
+        return pos + 4;
+    }
+}
@@ -0,0 +1,275 @@
+package com.lambda505.meteorutils.utils;
+
+import com.lambda505.meteorutils.LambdaUtilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds coordinate leaks in chat messages and logs them for one server through a {@link StorageBackend},
+ * keeping the server's {@link LeakIndex} up to date. This is the Chat Coord Logger without its settings
+ * and client events, so it also runs outside the game, e.g. to replay a recorded chat log.
+ * Messages are usually fed from a chat worker while the client thread flushes, both are synchronized.
+ */
+public class LeakRecorder implements ChatMessageConsumer {
+    private static final LatencyHistogram SCAN = Metrics.histogram("coords.scan");
+    private static final LatencyHistogram WRITE = Metrics.histogram("coords.write");
+
+    private final ServerSession.Directory directory;
+    private final Config config;
+    private final Listener listener;
+    private final File textFile;
+    private final File binaryFile;
+    private final File exportFile;
+    private final StorageBackend storage;
+
+    // Reused for every message
+    private final CoordScanner coordScanner = new CoordScanner();
+    private final StorageRecord storageRecord = new StorageRecord();
+    private volatile LeakIndex leakIndex;
+    // Leaks logged while the index loads, the load may read them from storage as well
+    private volatile Set<LeakKey> loggedWhileLoading;
+
+    /**
+     * How leaks are stored
+     */
+    public enum LogFormat {
+        Text,
+        Binary
+    }
+
+    /**
+     * Filter and output options, read for every message so they can change at any time.
+     * The defaults match the Chat Coord Logger's default settings.
+     */
+    public interface Config {
+        default boolean logOwnCoords() {
+            return false;
+        }
+
+        default boolean detectXZCoords() {
+            return true;
+        }
+
+        default int minCoordValue() {
+            return 100;
+        }
+
+        default boolean ignoreSpawnRadius() {
+            return true;
+        }
+
+        default int spawnRadius() {
+            return 1500;
+        }
+
+        default LogFormat logFormat() {
+            return LogFormat.Binary;
+        }
+
+        default AsyncLogWriter.FlushPolicy flushPolicy() {
+            return AsyncLogWriter.FlushPolicy.PerBatch;
+        }
+
+        default int flushInterval() {
+            return 1000;
+        }
+    }
+
+    /**
+     * Notified for every logged leak
+     */
+    public interface Listener {
+        /**
+         * @param record The leak, only valid during the call
+         * @param location Where it was logged, see {@link StorageBackend#getLocation()}
+         * @param queued false if the write could not be queued
+         */
+        void onLogged(LeakRecord record, String location, boolean queued);
+    }
+
+    // Seconds and the stored placeholder name, as the text and binary logs keep them
+    private record LeakKey(long second, String player, int x, int y, int z) {
+        LeakKey(LeakRecord record) {
+            this(Math.floorDiv(record.time, 1000), record.player != null ? record.player : "Unknown", record.x, record.y, record.z);
+        }
+    }
+
+    /**
+     * Logs to the server's text or binary log, see {@link LeakFileStorage}
+     * @param directory The leak log directory, see {@link ServerSession#getDirectory(String, String)}
+     * @param config Filter and output options
+     * @param listener Notified for every logged leak, may be null
+     */
+    public LeakRecorder(ServerSession.Directory directory, Config config, Listener listener) {
+        this(directory, config, null, listener);
+    }
+
+    /**
+     * @param directory The leak log directory, see {@link ServerSession#getDirectory(String, String)}
+     * @param config Filter and output options
+     * @param storage Where leaks are logged, closed with the recorder. Null for the server's log files.
+     * @param listener Notified for every logged leak, may be null
+     */
+    public LeakRecorder(ServerSession.Directory directory, Config config, StorageBackend storage, Listener listener) {
+        this.directory = directory;
+        this.config = config;
+        this.listener = listener;
+
+        String serverName = directory.getSession().getServerName();
+        this.textFile = directory.getFile("ccl_" + serverName + ".txt");
+        this.binaryFile = directory.getFile("ccl_" + serverName + ".bin");
+        this.exportFile = directory.getFile("ccl_" + serverName + "_export.txt");
+        this.storage = storage != null ? storage : new LeakFileStorage(serverName, textFile, binaryFile, config);
+    }
+
+    public StorageBackend getStorage() {
+        return storage;
+    }
+
+    public ServerSession.Directory getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return Binary log of the server, see {@link LeakRecordWriter}
+     */
+    public File getBinaryFile() {
+        return binaryFile;
+    }
+
+    /**
+     * @return Text file the binary log is exported to
+     */
+    public File getExportFile() {
+        return exportFile;
+    }
+
+    /**
+     * @return The file new leaks are logged to with the current format
+     */
+    public File getCurrentFile() {
+        return config.logFormat() == LogFormat.Binary ? binaryFile : textFile;
+    }
+
+    @Override
+    public synchronized void onChatMessage(ParsedChatMessage message) {
+        if (!message.mayContainCoords()) return;
+
+        // Skip if it's our own message and we don't want to log our coordinates
+        if (!config.logOwnCoords() && message.isOwn()) return;
+
+        // One pass over the message reports every coordinate in it
+        String messageText = message.getRaw();
+        long start = System.nanoTime();
+        int found = coordScanner.scan(messageText, config.detectXZCoords());
+        SCAN.recordSince(start);
+        for (int i = 0; i < found; i++) {
+            checkCoordinates(i, message);
+        }
+    }
+
+    private void checkCoordinates(int index, ParsedChatMessage message) {
+        int coordX = coordScanner.getX(index);
+        int coordZ = coordScanner.getZ(index);
+        boolean hasY = coordScanner.hasY(index);
+
+        // Check if X-Z coordinates are large enough to be actual coordinates
+        int minCoordValue = config.minCoordValue();
+        if (!hasY && Math.abs(coordX) < minCoordValue && Math.abs(coordZ) < minCoordValue) {
+            return; // Numbers too small, probably not coordinates
+        }
+
+        // Check spawn radius filter
+        if (config.ignoreSpawnRadius() && isWithinSpawnRadius(coordX, coordZ)) {
+            return;
+        }
+
+        int coordY = hasY ? coordScanner.getY(index) : 0;
+        LeakRecord record = new LeakRecord().set(message.getReceivedAt(), message.getSender(), coordX, coordY, hasY, coordZ,
+            message.getOrigin().getDimensionName(), message.getRaw());
+
+        // Index before writing, a loading index skips what it reads from storage after this
+        getLeakIndex().add(record);
+        Set<LeakKey> loading = loggedWhileLoading;
+        if (loading != null) loading.add(new LeakKey(record));
+        logCoordinates(record);
+    }
+
+    private boolean isWithinSpawnRadius(int x, int z) {
+        double distance = Math.sqrt((double) x * x + (double) z * z);
+        return distance <= config.spawnRadius();
+    }
+
+    private void logCoordinates(LeakRecord record) {
+        long start = System.nanoTime();
+        boolean queued = storage.append(storageRecord.setLeak(directory.getSession().getServerName(), record));
+        WRITE.recordSince(start);
+
+        if (listener != null) listener.onLogged(record, storage.getLocation(), queued);
+    }
+
+    /**
+     * Queues log entries the storage still collects, e.g. into a binary block
+     */
+    public synchronized void flush() {
+        storage.flush();
+    }
+
+    /**
+     * Flushes and releases the storage
+     */
+    public synchronized void close() {
+        storage.close();
+    }
+
+    /**
+     * Gets the spatial index of the leaks logged on the server. The index is built from
+     * the storage in the background, queries made before that finishes see only part of the leaks.
+     * @return The leak index
+     */
+    public LeakIndex getLeakIndex() {
+        LeakIndex index = leakIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = leakIndex;
+                if (index == null) {
+                    index = new LeakIndex();
+                    loggedWhileLoading = ConcurrentHashMap.newKeySet();
+                    loadLeakIndex(index);
+                    leakIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private void loadLeakIndex(LeakIndex index) {
+        // Leaks logged from now on are added live, the load skips those it reads again
+        String serverName = directory.getSession().getServerName();
+        StorageQuery query = new StorageQuery().type(StorageRecord.Type.Leak).server(serverName);
+
+        Thread loader = new Thread(() -> {
+            Set<LeakKey> skip = loggedWhileLoading;
+            LeakRecord leak = new LeakRecord();
+            int[] loaded = {0};
+            try {
+                storage.scan(query, record -> {
+                    record.toLeak(leak);
+                    if (skip.remove(new LeakKey(leak))) return;
+                    index.add(leak);
+                    loaded[0]++;
+                });
+                LambdaUtilities.LOG.info("Indexed " + loaded[0] + " coordinate leaks for " + serverName);
+            } catch (IOException e) {
+                LambdaUtilities.LOG.warn("Failed to index coordinate leaks for " + serverName, e);
+            } finally {
+                loggedWhileLoading = null;
+            }
+        }, "Lambda Utilities Leak Indexer");
+        loader.setDaemon(true);
+        loader.start();
+    }
+}
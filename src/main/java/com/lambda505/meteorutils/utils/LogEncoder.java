@@ -0,0 +1,219 @@
+package com.lambda505.meteorutils.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Builds a log entry as UTF-8 bytes in a reusable buffer, one per thread. The {@code [yyyy-MM-dd HH:mm:ss] }
+ * prefix is formatted once per second and numbers are written digit by digit, so encoding an entry
+ * and handing it to {@link AsyncLogWriter} allocates nothing once the buffer has grown to size.
+ * <p>
+ * Usage: {@code LogEncoder.get().reset().timestamp(time).append(name).append(": ").append(text).newline()}.
+ * The encoder is shared by everything on the thread, so finish an entry before starting the next one.
+ */
+public class LogEncoder {
+    private static final ThreadLocal<LogEncoder> LOCAL = ThreadLocal.withInitial(LogEncoder::new);
+    private static final DateTimeFormatter PREFIX_FORMATTER = DateTimeFormatter.ofPattern("'['yyyy-MM-dd HH:mm:ss'] '")
+        .withZone(ZoneId.systemDefault());
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final int PREFIX_LENGTH = 22;
+
+    private byte[] buffer = new byte[256];
+    private int length;
+
+    private final byte[] prefix = new byte[PREFIX_LENGTH];
+    private long prefixSecond = Long.MIN_VALUE;
+
+    private LogEncoder() {
+    }
+
+    /**
+     * @return The encoder of the current thread, not reset
+     */
+    public static LogEncoder get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Clears the entry
+     * @return This encoder
+     */
+    public LogEncoder reset() {
+        length = 0;
+        return this;
+    }
+
+    /**
+     * Appends the {@code [yyyy-MM-dd HH:mm:ss] } prefix in the local time zone
+     * @param time Epoch millis
+     * @return This encoder
+     */
+    public LogEncoder timestamp(long time) {
+        long second = Math.floorDiv(time, 1000);
+        if (second != prefixSecond) {
+            String formatted = PREFIX_FORMATTER.format(Instant.ofEpochSecond(second));
+            for (int i = 0; i < PREFIX_LENGTH; i++) prefix[i] = (byte) formatted.charAt(i);
+            prefixSecond = second;
+        }
+
+        ensureCapacity(PREFIX_LENGTH);
+        System.arraycopy(prefix, 0, buffer, length, PREFIX_LENGTH);
+        length += PREFIX_LENGTH;
+        return this;
+    }
+
+    /**
+     * Appends text as UTF-8, unpaired surrogates are written as '?' like {@link String#getBytes}
+     * @param text The text, null is written as "null"
+     * @return This encoder
+     */
+    public LogEncoder append(String text) {
+        if (text == null) text = "null";
+        int count = text.length();
+        ensureCapacity(count * 3);
+
+        byte[] bytes = buffer;
+        int pos = length;
+        for (int i = 0; i < count; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[pos++] = (byte) (0xC0 | c >> 6);
+                bytes[pos++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(text.charAt(i + 1))) {
+                // Four bytes for two chars, covered by the three per char reserved above
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                bytes[pos++] = (byte) (0xF0 | codePoint >> 18);
+                bytes[pos++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                bytes[pos++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                bytes[pos++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                bytes[pos++] = '?';
+            } else {
+                bytes[pos++] = (byte) (0xE0 | c >> 12);
+                bytes[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+                bytes[pos++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        length = pos;
+        return this;
+    }
+
+    /**
+     * Appends a single character as UTF-8, surrogates are written as '?'
+     * @return This encoder
+     */
+    public LogEncoder append(char c) {
+        ensureCapacity(3);
+        if (c < 0x80) {
+            buffer[length++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[length++] = (byte) (0xC0 | c >> 6);
+            buffer[length++] = (byte) (0x80 | c & 0x3F);
+        } else if (Character.isSurrogate(c)) {
+            buffer[length++] = '?';
+        } else {
+            buffer[length++] = (byte) (0xE0 | c >> 12);
+            buffer[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+            buffer[length++] = (byte) (0x80 | c & 0x3F);
+        }
+        return this;
+    }
+
+    /**
+     * Appends a number in decimal
+     * @return This encoder
+     */
+    public LogEncoder append(int value) {
+        return append((long) value);
+    }
+
+    /**
+     * Appends a number in decimal
+     * @return This encoder
+     */
+    public LogEncoder append(long value) {
+        // Long.MIN_VALUE has no positive counterpart
+        if (value == Long.MIN_VALUE) return append("-9223372036854775808");
+
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) digits++;
+
+        int pos = length + digits;
+        length = pos;
+        do {
+            buffer[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        return this;
+    }
+
+    /**
+     * Appends the platform line separator
+     * @return This encoder
+     */
+    public LogEncoder newline() {
+        ensureCapacity(LINE_SEPARATOR.length);
+        System.arraycopy(LINE_SEPARATOR, 0, buffer, length, LINE_SEPARATOR.length);
+        length += LINE_SEPARATOR.length;
+        return this;
+    }
+
+    /**
+     * @return Length of the entry in bytes
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Queues a copy of the entry to be appended to a file by the background writer
+     * @param logFile The file to append to
+     * @param policy When the file is forced to disk after writing
+     * @param intervalMillis Minimum time between forces for {@link AsyncLogWriter.FlushPolicy#Interval}
+     * @return true if the entry was queued
+     */
+    public boolean enqueue(File logFile, AsyncLogWriter.FlushPolicy policy, int intervalMillis) {
+        return AsyncLogWriter.enqueue(logFile, this, policy, intervalMillis);
+    }
+
+    /**
+     * Writes the entry to a stream, for files written outside the background writer
+     * @param out The stream
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    /**
+     * Decodes the entry, for callers that need it as a string
+     */
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // Valid up to length(), only read by the writer while the entry is copied
+    byte[] array() {
+        return buffer;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra <= buffer.length) return;
+        byte[] grown = new byte[Math.max(buffer.length * 2, length + extra)];
+        System.arraycopy(buffer, 0, grown, 0, length);
+        buffer = grown;
+    }
+}
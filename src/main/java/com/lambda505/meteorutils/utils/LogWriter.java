@@ -2,13 +2,16 @@ package com.lambda505.meteorutils.utils;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneId;
 
 public class LogWriter {
-    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String SEPARATOR = "=".repeat(52);
+    private static final LatencyHistogram WRITE = Metrics.histogram("writer.sync");
 
     /**
      * Writes a log entry to a file with proper error handling and directory creation
@@ -17,14 +20,9 @@ public class LogWriter {
      * @return true if write was successful
      */
     public static boolean writeLogEntry(File logFile, String logEntry) {
+        long start = System.nanoTime();
         try {
-            // Create all necessary directories
-            File parentDir = logFile.getParentFile();
-            if (parentDir != null && !parentDir.exists()) {
-                if (!parentDir.mkdirs()) {
-                    return false;
-                }
-            }
+            if (!createParent(logFile)) return false;
 
             // Append to file with proper error handling
             try (BufferedWriter writer = new BufferedWriter(new FileWriter(logFile, true))) {
@@ -35,17 +33,73 @@ public class LogWriter {
             return true;
         } catch (IOException e) {
             return false;
+        } finally {
+            WRITE.recordSince(start);
+        }
+    }
+
+    /**
+     * Writes an encoded entry to a file, without converting it back to a string
+     * @param logFile The file to write to
+     * @param entry The entry to write
+     * @return true if write was successful
+     */
+    public static boolean writeLogEntry(File logFile, LogEncoder entry) {
+        long start = System.nanoTime();
+        try {
+            if (!createParent(logFile)) return false;
+
+            try (OutputStream out = new FileOutputStream(logFile, true)) {
+                out.write(entry.array(), 0, entry.length());
+            }
+
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            WRITE.recordSince(start);
         }
     }
 
+    // Create all necessary directories
+    private static boolean createParent(File logFile) {
+        File parentDir = logFile.getParentFile();
+        return parentDir == null || parentDir.exists() || parentDir.mkdirs();
+    }
+
+    /**
+     * Starts a timestamped entry in the thread's encoder, append the content and a newline to it
+     * @param time Epoch millis the entry is timestamped with
+     * @return The encoder, reset and holding the timestamp prefix
+     */
+    public static LogEncoder encodeTimestampedEntry(long time) {
+        return LogEncoder.get().reset().timestamp(time);
+    }
+
     /**
      * Creates a formatted log entry with timestamp
      * @param content The main content to log
      * @return Formatted log entry with timestamp
      */
     public static String createTimestampedEntry(String content) {
-        String timestamp = LocalDateTime.now().format(TIME_FORMATTER);
-        return String.format("[%s] %s%n", timestamp, content);
+        return createSafeTimestampedEntry(content);
+    }
+
+    /**
+     * Parses the {@code [yyyy-MM-dd HH:mm:ss]} prefix written by the timestamped entry methods
+     * @param line The log line
+     * @return Epoch millis in the local time zone, or -1 if the line has no timestamp
+     */
+    public static long parseTimestamp(String line) {
+        if (line.length() < 21 || line.charAt(0) != '[' || line.charAt(20) != ']') return -1;
+        try {
+            LocalDateTime time = LocalDateTime.of(
+                Integer.parseInt(line, 1, 5, 10), Integer.parseInt(line, 6, 8, 10), Integer.parseInt(line, 9, 11, 10),
+                Integer.parseInt(line, 12, 14, 10), Integer.parseInt(line, 15, 17, 10), Integer.parseInt(line, 18, 20, 10));
+            return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (RuntimeException e) {
+            return -1;
+        }
     }
 
     /**
@@ -70,27 +124,24 @@ public class LogWriter {
     }
 
     /**
-     * Creates a formatted log entry with timestamp and custom format
+     * Creates a formatted log entry with timestamp and custom format.
+     * Prefer {@link #encodeTimestampedEntry(long)} with typed appends on hot paths.
      * @param format The format string (timestamp will be prepended)
      * @param args The arguments for the format
      * @return Formatted log entry with timestamp
      */
     public static String createTimestampedFormattedEntry(String format, Object... args) {
+        LogEncoder entry = encodeTimestampedEntry(System.currentTimeMillis());
         try {
-            String timestamp = LocalDateTime.now().format(TIME_FORMATTER);
-            String content = String.format(format, args);
-            return String.format("[%s] %s%n", timestamp, content);
+            entry.append(String.format(format, args));
         } catch (Exception e) {
             // Fallback: use simple concatenation
-            String timestamp = LocalDateTime.now().format(TIME_FORMATTER);
-            StringBuilder sb = new StringBuilder();
-            sb.append("[").append(timestamp).append("] ").append(format);
+            entry.append(format);
             for (Object arg : args) {
-                sb.append(" ").append(arg);
+                entry.append(' ').append(String.valueOf(arg));
             }
-            sb.append(System.lineSeparator());
-            return sb.toString();
         }
+        return entry.newline().toString();
     }
 
     /**
@@ -99,8 +150,17 @@ public class LogWriter {
      * @return Formatted entry with timestamp
      */
     public static String createSafeTimestampedEntry(String content) {
-        String timestamp = LocalDateTime.now().format(TIME_FORMATTER);
-        return "[" + timestamp + "] " + content + System.lineSeparator();
+        return createSafeTimestampedEntry(System.currentTimeMillis(), content);
+    }
+
+    /**
+     * Safe method to create timestamped entries for a given time
+     * @param time Epoch millis the entry is timestamped with
+     * @param content The content to log
+     * @return Formatted entry with timestamp
+     */
+    public static String createSafeTimestampedEntry(long time, String content) {
+        return encodeTimestampedEntry(time).append(content).newline().toString();
     }
 
     /**
@@ -109,10 +169,29 @@ public class LogWriter {
      * @return Formatted session separator
      */
     public static String createSessionSeparator(String sessionInfo) {
-        String timestamp = LocalDateTime.now().format(TIME_FORMATTER);
-        String separator = "=" + "=".repeat(50) + "=";
-        return separator + System.lineSeparator() +
-            "[" + timestamp + "] SESSION: " + sessionInfo + System.lineSeparator() +
-            separator + System.lineSeparator();
+        return createSessionSeparator(System.currentTimeMillis(), sessionInfo);
+    }
+
+    /**
+     * Creates a session separator entry for a given time
+     * @param time Epoch millis the separator is timestamped with
+     * @param sessionInfo Information about the session
+     * @return Formatted session separator
+     */
+    public static String createSessionSeparator(long time, String sessionInfo) {
+        return encodeSessionSeparator(time, sessionInfo).toString();
+    }
+
+    /**
+     * Encodes a session separator entry in the thread's encoder
+     * @param time Epoch millis the separator is timestamped with
+     * @param sessionInfo Information about the session
+     * @return The encoder holding the separator
+     */
+    public static LogEncoder encodeSessionSeparator(long time, String sessionInfo) {
+        return LogEncoder.get().reset()
+            .append(SEPARATOR).newline()
+            .timestamp(time).append("SESSION: ").append(sessionInfo).newline()
+            .append(SEPARATOR).newline();
     }
 }
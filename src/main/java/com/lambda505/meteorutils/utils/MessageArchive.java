@@ -0,0 +1,349 @@
+package com.lambda505.meteorutils.utils;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Archives the private messages of one server through a {@link StorageBackend}, by default
+ * {@link ArchiveFileStorage}, tracking conversations to write their start and end markers. This is the Private
+ * Message Archiver without its settings and client events, so it also runs outside the game,
+ * e.g. to replay a recorded chat log. Messages are usually fed from a chat worker while the client
+ * thread ticks and ends conversations, so everything changing the conversation state is synchronized.
+ * Matching and debug lines stay outside that lock, the debug queue has a lock of its own for its one consumer.
+ */
+public class MessageArchive implements ChatMessageConsumer {
+    private static final LatencyHistogram MATCH = Metrics.histogram("pm.match");
+    private static final LatencyHistogram WRITE = Metrics.histogram("pm.write");
+    // Ended conversations kept to tell a new conversation from a resumed one, the oldest are forgotten first
+    private static final int MAX_IDLE_CONVERSATIONS = 1024;
+    private static final int DEBUG_QUEUE_CAPACITY = 1024;
+
+    private final ServerSession.Directory directory;
+    private final Config config;
+    private final StorageBackend storage;
+    private final StorageRecord record = new StorageRecord();
+
+    // Conversation state, active ones ordered by last activity and ended ones by end time, oldest first
+    private final Map<String, Conversation> conversations = new HashMap<>();
+    private final ConversationList active = new ConversationList();
+    private final ConversationList idle = new ConversationList();
+    private final MpscRingBuffer<String> debugQueue = new MpscRingBuffer<>(DEBUG_QUEUE_CAPACITY);
+    private final StringBuilder debugBatch = new StringBuilder();
+
+    /**
+     * Archive options, read for every message so they can change at any time.
+     * The defaults match the Private Message Archiver's default settings.
+     */
+    public interface Config {
+        default boolean logOwnMessages() {
+            return true;
+        }
+
+        default boolean includeTimestamps() {
+            return true;
+        }
+
+        default int maxMessagesPerFile() {
+            return 1000;
+        }
+
+        default AsyncLogWriter.FlushPolicy flushPolicy() {
+            return AsyncLogWriter.FlushPolicy.PerBatch;
+        }
+
+        default int flushInterval() {
+            return 1000;
+        }
+
+        default boolean compressRotated() {
+            return true;
+        }
+
+        default boolean indexMessages() {
+            return true;
+        }
+
+        default int sessionTimeoutMinutes() {
+            return 30;
+        }
+
+        default boolean logSessionMarkers() {
+            return true;
+        }
+
+        default boolean debugToFile() {
+            return false;
+        }
+    }
+
+    /**
+     * @param directory The server's archive directory, see {@link ServerSession#getServerDirectory(String, String)}
+     * @param config Archive options
+     */
+    public MessageArchive(ServerSession.Directory directory, Config config) {
+        this(directory, config, null);
+    }
+
+    /**
+     * @param directory The server's archive directory, see {@link ServerSession#getServerDirectory(String, String)}
+     * @param config Archive options
+     * @param storage Where messages go, null for the text archive in the directory
+     */
+    public MessageArchive(ServerSession.Directory directory, Config config, StorageBackend storage) {
+        this.directory = directory;
+        this.config = config;
+        this.storage = storage != null ? storage : new ArchiveFileStorage(directory, config);
+    }
+
+    /**
+     * @return Where messages go
+     */
+    public StorageBackend getStorage() {
+        return storage;
+    }
+
+    public ServerSession.Directory getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return Archive directory of the server
+     */
+    public File getRoot() {
+        return directory.getRoot();
+    }
+
+    /**
+     * Creates the archive directory, and for the text archive starts the search index and queues
+     * leftover rotated files for compression
+     * @return false if the directory could not be created
+     */
+    public boolean start() {
+        if (storage instanceof ArchiveFileStorage files) return files.start();
+        return directory.ensureExists();
+    }
+
+    /**
+     * Writes queued debug messages and closes the storage
+     */
+    public void close() {
+        processDebugQueue();
+        synchronized (this) {
+            storage.close();
+        }
+    }
+
+    @Override
+    public void onChatMessage(ParsedChatMessage message) {
+        try {
+            // No private message keyword means no pattern can match
+            if (!message.mayBePrivate()) return;
+
+            String messageText = message.getRaw();
+            long start = System.nanoTime();
+            PrivateMessageMatcher.MatchResult result = PrivateMessageMatcher.match(message.getClean());
+            MATCH.recordSince(start);
+
+            if (result != null) {
+                if (!result.isIncoming && !config.logOwnMessages()) return;
+
+                String sanitizedPlayerName = directory.getSession().sanitize(result.playerName);
+                archiveMessage(sanitizedPlayerName, result.content, result.isIncoming, message.getReceivedAt());
+
+                if (config.debugToFile()) {
+                    queueDebugMessage("MATCHED: " + (result.isIncoming ? "IN" : "OUT") +
+                        " | " + result.playerName + " | " + messageText);
+                }
+            } else if (config.debugToFile()) {
+                queueDebugMessage("UNMATCHED: " + messageText);
+            }
+
+        } catch (Exception e) {
+            if (config.debugToFile()) {
+                queueDebugMessage("ERROR: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Periodic work: ends timed out conversations and writes queued debug messages
+     * @param now Current time in epoch millis
+     */
+    public void tick(long now) {
+        synchronized (this) {
+            checkSessionTimeouts(now);
+        }
+        processDebugQueue();
+    }
+
+    private synchronized void archiveMessage(String playerName, String content, boolean isIncoming, long time) {
+        try {
+            Conversation conversation = getConversation(playerName);
+            if (!conversation.active && config.logSessionMarkers()) {
+                startSession(conversation, time);
+            }
+
+            long start = System.nanoTime();
+            boolean written = storage.append(record.setMessage(directory.getSession().getServerName(), time, playerName, isIncoming, content));
+            WRITE.recordSince(start);
+
+            if (written) touch(conversation, time);
+        } catch (Exception ignored) {}
+    }
+
+    private Conversation getConversation(String playerName) {
+        Conversation conversation = conversations.get(playerName);
+        if (conversation == null) {
+            conversation = new Conversation(playerName);
+            conversations.put(playerName, conversation);
+            idle.addLast(conversation);
+            evictIdle();
+        }
+        return conversation;
+    }
+
+    // Message times only grow, so appending keeps the active list sorted by last activity
+    private void touch(Conversation conversation, long time) {
+        (conversation.active ? active : idle).remove(conversation);
+        conversation.active = true;
+        conversation.lastActivity = time;
+        active.addLast(conversation);
+    }
+
+    private void evictIdle() {
+        while (idle.size > MAX_IDLE_CONVERSATIONS) {
+            Conversation oldest = idle.head;
+            idle.remove(oldest);
+            conversations.remove(oldest.playerName);
+        }
+    }
+
+    private void startSession(Conversation conversation, long time) {
+        try {
+            if (config.logSessionMarkers()) {
+                String sessionInfo = "CONVERSATION STARTED WITH " + conversation.playerName.toUpperCase();
+                writeMarker(conversation, sessionInfo, time);
+            }
+        } catch (Exception ignored) {}
+    }
+
+    private void endSession(Conversation conversation, String reason, long time) {
+        try {
+            if (config.logSessionMarkers()) {
+                String sessionInfo = "CONVERSATION ENDED WITH " + conversation.playerName.toUpperCase() + " - " + reason;
+                writeMarker(conversation, sessionInfo, time);
+            }
+        } catch (Exception ignored) {}
+
+        active.remove(conversation);
+        conversation.active = false;
+        idle.addLast(conversation);
+        evictIdle();
+    }
+
+    // Only looks at the conversations that timed out
+    private void checkSessionTimeouts(long now) {
+        int timeoutMinutes = config.sessionTimeoutMinutes();
+        long timeoutMillis = timeoutMinutes * 60 * 1000L;
+
+        while (active.head != null && now - active.head.lastActivity > timeoutMillis) {
+            endSession(active.head, "TIMEOUT (" + timeoutMinutes + " minutes)", now);
+        }
+    }
+
+    /**
+     * Ends every active conversation
+     * @param reason Reason written to the end markers, e.g. "DISCONNECTED"
+     * @param time Time of the end markers in epoch millis
+     */
+    public synchronized void endAllSessions(String reason, long time) {
+        while (active.head != null) {
+            endSession(active.head, reason, time);
+        }
+    }
+
+    private boolean write(File file, String entry) {
+        return AsyncLogWriter.enqueue(file, entry, config.flushPolicy(), config.flushInterval());
+    }
+
+    private void writeMarker(Conversation conversation, String sessionInfo, long time) {
+        storage.append(record.setMarker(directory.getSession().getServerName(), time, conversation.playerName, sessionInfo));
+    }
+
+    /**
+     * Gets the search index of the text archive, starting it if needed
+     * @return The index, or null if indexing is disabled or messages go to another backend
+     */
+    public ArchiveSearchIndex getSearchIndex() {
+        return storage instanceof ArchiveFileStorage files ? files.getSearchIndex() : null;
+    }
+
+    /**
+     * Stops notifying the search index of the text archive, it catches up on next use
+     */
+    public void releaseSearchIndex() {
+        if (storage instanceof ArchiveFileStorage files) files.releaseSearchIndex();
+    }
+
+    private void queueDebugMessage(String message) {
+        debugQueue.offer(LocalDateTime.now() + " - " + message);
+    }
+
+    // Writes everything queued with one append, the batch lock keeps it to one consumer
+    private void processDebugQueue() {
+        if (!config.debugToFile() || (debugQueue.isEmpty() && debugQueue.getDropped() == 0)) return;
+
+        synchronized (debugBatch) {
+            debugBatch.setLength(0);
+            debugQueue.drain(entry -> debugBatch.append(entry).append(System.lineSeparator()), debugQueue.capacity());
+            long dropped = debugQueue.takeDropped();
+            if (dropped > 0) {
+                debugBatch.append(LocalDateTime.now()).append(" - DROPPED: ").append(dropped)
+                    .append(" debug messages, queue full").append(System.lineSeparator());
+            }
+
+            if (debugBatch.length() > 0) {
+                File debugFile = directory.getFile("pma_debug_" + directory.getSession().getServerName() + ".txt");
+                write(debugFile, debugBatch.toString());
+            }
+        }
+    }
+
+    // One player's conversation state
+    private static class Conversation {
+        final String playerName;
+        long lastActivity;
+        boolean active;
+        Conversation previous, next;
+
+        Conversation(String playerName) {
+            this.playerName = playerName;
+        }
+    }
+
+    // Doubly linked list through the conversations, O(1) append and removal
+    private static class ConversationList {
+        Conversation head, tail;
+        int size;
+
+        void addLast(Conversation conversation) {
+            conversation.previous = tail;
+            conversation.next = null;
+            if (tail != null) tail.next = conversation;
+            else head = conversation;
+            tail = conversation;
+            size++;
+        }
+
+        void remove(Conversation conversation) {
+            if (conversation.previous != null) conversation.previous.next = conversation.next;
+            else head = conversation.next;
+            if (conversation.next != null) conversation.next.previous = conversation.previous;
+            else tail = conversation.previous;
+            conversation.previous = null;
+            conversation.next = null;
+            size--;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.lambda505.meteorutils.utils;
+
+import java.util.Set;
+
+/**
+ * Client state at the moment a chat message was received: server session, server address, local
+ * player, dimension and tab list names. Captured on the client thread so consumers running on the chat workers see
+ * the state the message arrived in, not whatever the client is doing by the time they get to it.
+ */
+public class MessageOrigin {
+    private final ServerSession session;
+    private final String serverAddress;
+    private final String playerName;
+    private final String dimensionName;
+    private final Set<String> tabListNames;
+
+    public MessageOrigin(ServerSession session, String serverAddress, String playerName, String dimensionName, Set<String> tabListNames) {
+        this.session = session;
+        this.serverAddress = serverAddress;
+        this.playerName = playerName;
+        this.dimensionName = dimensionName;
+        this.tabListNames = tabListNames;
+    }
+
+    /**
+     * Reads the current state from {@link ClientContext}, on the client thread when in game
+     * @return The captured state
+     */
+    public static MessageOrigin capture() {
+        ClientContext client = ClientContext.get();
+        return new MessageOrigin(ServerSession.current(), client.getServerAddress(), client.getPlayerName(), client.getDimensionName(),
+            client.getTabListNames());
+    }
+
+    public ServerSession getSession() {
+        return session;
+    }
+
+    /**
+     * @return Server address, or null in singleplayer or when not connected
+     */
+    public String getServerAddress() {
+        return serverAddress;
+    }
+
+    /**
+     * @return Name of the local player, or null if unknown
+     */
+    public String getPlayerName() {
+        return playerName;
+    }
+
+    /**
+     * @return Dimension the player was in, e.g. "overworld", or "unknown"
+     */
+    public String getDimensionName() {
+        return dimensionName;
+    }
+
+    /**
+     * @return Unmodifiable snapshot of the profile names in the tab list, empty when not connected
+     */
+    public Set<String> getTabListNames() {
+        return tabListNames;
+    }
+}
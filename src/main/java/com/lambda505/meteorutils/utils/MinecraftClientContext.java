@@ -0,0 +1,80 @@
+package com.lambda505.meteorutils.utils;
+
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.network.ClientPlayNetworkHandler;
+import net.minecraft.client.network.PlayerListEntry;
+import net.minecraft.client.network.ServerInfo;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * {@link ClientContext} backed by the running Minecraft client. The tab list is only safe to read on
+ * the client thread, so it is copied there into a snapshot other threads can read.
+ */
+class MinecraftClientContext extends ClientContext {
+    // Chat bursts share one snapshot, a player renamed in the tab list shows up after this long
+    private static final long TAB_LIST_REFRESH_MILLIS = 1000;
+
+    private final MinecraftClient mc = MinecraftClient.getInstance();
+
+    // Written on the client thread only, other threads get the last snapshot
+    private ClientPlayNetworkHandler tabListHandler;
+    private volatile Set<String> tabListNames = Set.of();
+    private long tabListBuiltAt;
+
+    @Override
+    public String getServerAddress() {
+        ServerInfo server = mc != null ? mc.getCurrentServerEntry() : null;
+        return server != null ? server.address : null;
+    }
+
+    @Override
+    public String getServerName() {
+        return ServerUtils.getServerName();
+    }
+
+    @Override
+    public File getRunDirectory() {
+        return mc.runDirectory.getAbsoluteFile();
+    }
+
+    @Override
+    public String getPlayerName() {
+        String name = ServerUtils.getCurrentPlayerName();
+        return name.equals("unknown") ? null : name;
+    }
+
+    @Override
+    public String getDimensionName() {
+        return ServerUtils.getDimensionName();
+    }
+
+    @Override
+    public Set<String> getTabListNames() {
+        if (mc == null || !mc.isOnThread()) return tabListNames;
+
+        ClientPlayNetworkHandler handler = mc.getNetworkHandler();
+        if (handler == null) {
+            tabListHandler = null;
+            tabListNames = Set.of();
+            return tabListNames;
+        }
+
+        Collection<PlayerListEntry> entries = handler.getPlayerList();
+        long now = System.currentTimeMillis();
+        Set<String> names = tabListNames;
+        if (handler != tabListHandler || entries.size() != names.size() || now - tabListBuiltAt >= TAB_LIST_REFRESH_MILLIS) {
+            Set<String> snapshot = new HashSet<>(entries.size() * 2);
+            for (PlayerListEntry entry : entries) snapshot.add(entry.getProfile().getName());
+            names = Collections.unmodifiableSet(snapshot);
+            tabListNames = names;
+            tabListHandler = handler;
+            tabListBuiltAt = now;
+        }
+        return names;
+    }
+}
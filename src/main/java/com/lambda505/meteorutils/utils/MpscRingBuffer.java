@@ -0,0 +1,124 @@
+package com.lambda505.meteorutils.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock-free queue for many producers and one consumer. Producers never block: when the
+ * buffer is full the entry is dropped and counted, so a burst cannot stall the thread that produces
+ * it. Each slot has a sequence number telling whether it is free, being written or ready to read
+ * (Vyukov's bounded queue). The consumer drains in batches, e.g. to write them with one append.
+ * @param <T> Entry type
+ */
+public class MpscRingBuffer<T> {
+    private final int mask;
+    private final AtomicReferenceArray<T> entries;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long head;
+
+    /**
+     * @param capacity Maximum number of queued entries, rounded up to a power of two
+     */
+    public MpscRingBuffer(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.entries = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Queues an entry, from any thread
+     * @param entry The entry, not null
+     * @return false if the buffer was full and the entry was dropped
+     */
+    public boolean offer(T entry) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    entries.lazySet(index, entry);
+                    // Publishes the entry to the consumer
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                // The consumer has not freed this slot yet
+                dropped.incrementAndGet();
+                return false;
+            }
+            // Another producer took the slot, try the next one
+        }
+    }
+
+    /**
+     * Takes the oldest entry, only from the consumer thread
+     * @return The entry, or null if the buffer is empty
+     */
+    public T poll() {
+        long position = head;
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) return null;
+
+        T entry = entries.get(index);
+        entries.lazySet(index, null);
+        // Frees the slot for the producer one lap ahead
+        sequences.set(index, position + mask + 1);
+        head = position + 1;
+        return entry;
+    }
+
+    /**
+     * Takes up to {@code limit} entries in order, only from the consumer thread
+     * @param consumer Receives each entry
+     * @param limit Maximum number of entries
+     * @return Number of entries taken
+     */
+    public int drain(Consumer<? super T> consumer, int limit) {
+        int count = 0;
+        T entry;
+        while (count < limit && (entry = poll()) != null) {
+            consumer.accept(entry);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return Approximate number of queued entries
+     */
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return Entries dropped because the buffer was full, since creation or the last {@link #takeDropped()}
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Reads and resets the drop counter, e.g. to report drops together with a drained batch
+     * @return Entries dropped since the last call
+     */
+    public long takeDropped() {
+        return dropped.getAndSet(0);
+    }
+}
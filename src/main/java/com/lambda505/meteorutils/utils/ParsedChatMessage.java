@@ -0,0 +1,140 @@
+package com.lambda505.meteorutils.utils;
+
+import net.minecraft.text.Text;
+
+import java.util.List;
+
+/**
+ * A chat message flattened and pre-parsed once, shared by every chat consumer.
+ * Instances are immutable apart from the lazily resolved sender, and carry the
+ * {@link MessageOrigin} captured when the message was received.
+ */
+public class ParsedChatMessage {
+    // Every private message format contains one of these, see PrivateMessageArchiver.PATTERNS
+    private static final AhoCorasick PRIVATE_KEYWORDS = new AhoCorasick(
+        List.of("whisper", "tell", "message", " -> ", "from ", "to ", "reply"), true);
+
+    private final Text text;
+    private final String raw;
+    private final String clean;
+    private final long receivedAt;
+    private final boolean mayBePrivate;
+    private final boolean mayContainCoords;
+    private final MessageOrigin origin;
+    private volatile String sender;
+
+    /**
+     * Parses a message received in the current client state
+     * @param text The original message, may be null for messages not coming from the game
+     * @param raw The flattened message text
+     * @param receivedAt Time the message was received in milliseconds
+     */
+    public ParsedChatMessage(Text text, String raw, long receivedAt) {
+        this(text, raw, receivedAt, MessageOrigin.capture());
+    }
+
+    /**
+     * Parses a message
+     * @param text The original message, may be null for messages not coming from the game
+     * @param raw The flattened message text
+     * @param receivedAt Time the message was received in milliseconds
+     * @param origin Client state when the message was received
+     */
+    public ParsedChatMessage(Text text, String raw, long receivedAt, MessageOrigin origin) {
+        this.text = text;
+        this.origin = origin;
+        this.raw = raw;
+        this.clean = ChatMessageUtils.removeTimestamp(raw);
+        this.receivedAt = receivedAt;
+        this.mayBePrivate = PRIVATE_KEYWORDS.findAll(clean) != 0;
+        this.mayContainCoords = containsDigit(raw);
+    }
+
+    /**
+     * @return The original message, null for messages not coming from the game
+     */
+    public Text getText() {
+        return text;
+    }
+
+    /**
+     * @return The flattened message text
+     */
+    public String getRaw() {
+        return raw;
+    }
+
+    /**
+     * @return The message text without a leading {@code <HH:mm>} timestamp
+     */
+    public String getClean() {
+        return clean;
+    }
+
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    /**
+     * @return Client state when the message was received
+     */
+    public MessageOrigin getOrigin() {
+        return origin;
+    }
+
+    /**
+     * @return true if the message contains a private message keyword. False means it
+     * cannot be a private message, true only means it might be
+     */
+    public boolean mayBePrivate() {
+        return mayBePrivate;
+    }
+
+    /**
+     * @return true if the message contains a digit, false means it cannot contain coordinates
+     */
+    public boolean mayContainCoords() {
+        return mayContainCoords;
+    }
+
+    /**
+     * @return Sender name, resolved on first use, or "Unknown"
+     */
+    public String getSender() {
+        // Consumers on different workers may resolve it at the same time, both get the same name
+        String resolved = sender;
+        if (resolved == null) {
+            resolved = text != null ? SenderResolver.resolve(text, raw, origin.getServerAddress(), origin.getTabListNames()) : ChatMessageUtils.extractPlayerName(raw);
+            sender = resolved;
+        }
+        return resolved;
+    }
+
+    /**
+     * @return true if the local player sent the message
+     */
+    public boolean isOwn() {
+        return isFrom(origin.getPlayerName());
+    }
+
+    /**
+     * Checks if the message was sent by a player
+     * @param playerName The player's name
+     * @return true if the sender matches
+     */
+    public boolean isFrom(String playerName) {
+        return playerName != null && getSender().equals(playerName);
+    }
+
+    public boolean isEmpty() {
+        return raw.isBlank();
+    }
+
+    private static boolean containsDigit(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,344 @@
+package com.lambda505.meteorutils.utils;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import meteordevelopment.meteorclient.events.entity.EntityAddedEvent;
+import meteordevelopment.meteorclient.events.entity.EntityRemovedEvent;
+import meteordevelopment.meteorclient.events.world.TickEvent;
+import meteordevelopment.orbit.EventHandler;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.entity.player.PlayerEntity;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static meteordevelopment.meteorclient.MeteorClient.mc;
+
+/**
+ * Keeps the loaded players in a grid of 16x16 block columns, so range queries only look at players
+ * near us instead of every player in the world. Players are added and removed by entity events and
+ * moved between cells once per tick when their position changed. Queries select the closest players
+ * with a bounded heap, so asking for the nearest 20 of 150 players does not sort all 150.
+ * Shared by everything that needs nearby players; all calls must come from the client thread.
+ */
+public class PlayerTracker {
+    private static final PlayerTracker INSTANCE = new PlayerTracker();
+    private static final LatencyHistogram UPDATE = Metrics.histogram("players.update");
+    private static final LatencyHistogram QUERY = Metrics.histogram("players.query");
+    private static final int CELL_BITS = 4;
+
+    // Dense array for the per-tick position check, ids for the entity events
+    private Tracked[] tracked = new Tracked[64];
+    private int size;
+    private final Map<Integer, Tracked> byId = new HashMap<>();
+    private final Long2ObjectOpenHashMap<Cell> cells = new Long2ObjectOpenHashMap<>();
+    private ClientWorld world;
+
+    private PlayerTracker() {
+    }
+
+    public static PlayerTracker get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return Number of tracked players, not counting us
+     */
+    public int size() {
+        syncWorld();
+        return size;
+    }
+
+    /**
+     * Finds the players closest to us. The result is reused by the caller so repeated queries do not allocate.
+     * @param range Maximum distance in blocks
+     * @param limit Maximum number of players returned, 0 for all in range
+     * @param result Filled with the players in range, closest first
+     * @return Number of players returned
+     */
+    public int query(double range, int limit, Result result) {
+        syncWorld();
+        result.reset(limit);
+        PlayerEntity observer = mc.player;
+        if (observer == null) return 0;
+
+        long start = System.nanoTime();
+        double ox = observer.getX(), oy = observer.getY(), oz = observer.getZ();
+        double rangeSquared = range * range;
+
+        int minX = cell(ox - range), maxX = cell(ox + range);
+        int minZ = cell(oz - range), maxZ = cell(oz + range);
+        long cellCount = (long) (maxX - minX + 1) * (maxZ - minZ + 1);
+
+        if (cellCount > size) {
+            // Fewer players than cells to look at, checking everyone is cheaper
+            for (int i = 0; i < size; i++) offer(tracked[i], observer, ox, oy, oz, rangeSquared, result);
+        } else {
+            for (int cx = minX; cx <= maxX; cx++) {
+                for (int cz = minZ; cz <= maxZ; cz++) {
+                    Cell cell = cells.get(key(cx, cz));
+                    if (cell == null) continue;
+                    for (int i = 0; i < cell.size; i++) offer(cell.members[i], observer, ox, oy, oz, rangeSquared, result);
+                }
+            }
+        }
+
+        result.sort();
+        QUERY.recordSince(start);
+        return result.size;
+    }
+
+    private static void offer(Tracked player, PlayerEntity observer, double ox, double oy, double oz, double rangeSquared, Result result) {
+        if (player.entity == observer) return;
+
+        double dx = player.x - ox, dy = player.y - oy, dz = player.z - oz;
+        double distanceSquared = dx * dx + dy * dy + dz * dz;
+        if (distanceSquared <= rangeSquared) result.offer(player, distanceSquared);
+    }
+
+    @EventHandler
+    private void onEntityAdded(EntityAddedEvent event) {
+        if (!syncWorld() && event.entity instanceof PlayerEntity player) add(player);
+    }
+
+    @EventHandler
+    private void onEntityRemoved(EntityRemovedEvent event) {
+        if (event.entity instanceof PlayerEntity player) remove(byId.get(player.getId()));
+    }
+
+    @EventHandler
+    private void onTick(TickEvent.Post event) {
+        if (syncWorld() || world == null) return;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            Tracked player = tracked[i];
+            if (player.entity.isRemoved()) {
+                remove(player);
+                i--;
+                continue;
+            }
+
+            double x = player.entity.getX(), y = player.entity.getY(), z = player.entity.getZ();
+            if (x == player.x && y == player.y && z == player.z) continue;
+
+            player.x = x;
+            player.y = y;
+            player.z = z;
+            long key = key(cell(x), cell(z));
+            if (key != player.cellKey) {
+                removeFromCell(player);
+                addToCell(player, key);
+            }
+        }
+        UPDATE.recordSince(start);
+    }
+
+    // Rebuilds everything when the world changed, e.g. after joining or changing dimension
+    private boolean syncWorld() {
+        if (mc.world == world) return false;
+
+        for (int i = 0; i < size; i++) tracked[i] = null;
+        size = 0;
+        byId.clear();
+        cells.clear();
+        world = mc.world;
+
+        if (world != null) {
+            List<? extends PlayerEntity> players = world.getPlayers();
+            for (int i = 0; i < players.size(); i++) add(players.get(i));
+        }
+        return true;
+    }
+
+    private void add(PlayerEntity entity) {
+        if (entity == mc.player || byId.containsKey(entity.getId())) return;
+
+        Tracked player = new Tracked(entity);
+        if (size == tracked.length) tracked = Arrays.copyOf(tracked, size * 2);
+        player.index = size;
+        tracked[size++] = player;
+        byId.put(entity.getId(), player);
+        addToCell(player, key(cell(player.x), cell(player.z)));
+    }
+
+    private void remove(Tracked player) {
+        if (player == null) return;
+
+        // Swap the last player into the gap
+        Tracked last = tracked[--size];
+        tracked[player.index] = last;
+        last.index = player.index;
+        tracked[size] = null;
+
+        byId.remove(player.entity.getId());
+        removeFromCell(player);
+    }
+
+    private void addToCell(Tracked player, long key) {
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            cell = new Cell();
+            cells.put(key, cell);
+        }
+        cell.add(player);
+        player.cellKey = key;
+    }
+
+    private void removeFromCell(Tracked player) {
+        Cell cell = cells.get(player.cellKey);
+        if (cell == null) return;
+        cell.remove(player);
+        if (cell.size == 0) cells.remove(player.cellKey);
+    }
+
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate) >> CELL_BITS;
+    }
+
+    private static long key(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+
+    // A player with the position of its last update
+    private static class Tracked {
+        final PlayerEntity entity;
+        final String name;
+        double x, y, z;
+        long cellKey;
+        int index;
+        int cellIndex;
+
+        Tracked(PlayerEntity entity) {
+            this.entity = entity;
+            // The profile name is a field, getName() would build a new Text
+            this.name = entity.getGameProfile().getName();
+            this.x = entity.getX();
+            this.y = entity.getY();
+            this.z = entity.getZ();
+        }
+    }
+
+    private static class Cell {
+        Tracked[] members = new Tracked[4];
+        int size;
+
+        void add(Tracked player) {
+            if (size == members.length) members = Arrays.copyOf(members, size * 2);
+            player.cellIndex = size;
+            members[size++] = player;
+        }
+
+        void remove(Tracked player) {
+            Tracked last = members[--size];
+            members[player.cellIndex] = last;
+            last.cellIndex = player.cellIndex;
+            members[size] = null;
+        }
+    }
+
+    /**
+     * Players returned by {@link #query(double, int, Result)}, closest first. Keep one per caller and reuse it.
+     */
+    public static class Result {
+        private Tracked[] players = new Tracked[16];
+        private double[] distancesSquared = new double[16];
+        private int size;
+        private int limit;
+        private int total;
+
+        /**
+         * @return Number of players returned
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return Number of players in range, including those cut off by the limit
+         */
+        public int total() {
+            return total;
+        }
+
+        public PlayerEntity getPlayer(int index) {
+            return players[index].entity;
+        }
+
+        public String getName(int index) {
+            return players[index].name;
+        }
+
+        public double getDistance(int index) {
+            return Math.sqrt(distancesSquared[index]);
+        }
+
+        public double getSquaredDistance(int index) {
+            return distancesSquared[index];
+        }
+
+        private void reset(int limit) {
+            Arrays.fill(players, 0, size, null);
+            this.size = 0;
+            this.total = 0;
+            this.limit = limit > 0 ? limit : Integer.MAX_VALUE;
+        }
+
+        // Max-heap on distance while collecting, the farthest kept player is at the root
+        private void offer(Tracked player, double distanceSquared) {
+            total++;
+            if (size < limit) {
+                if (size == players.length) {
+                    players = Arrays.copyOf(players, size * 2);
+                    distancesSquared = Arrays.copyOf(distancesSquared, size * 2);
+                }
+                players[size] = player;
+                distancesSquared[size] = distanceSquared;
+                siftUp(size++);
+            } else if (distanceSquared < distancesSquared[0]) {
+                players[0] = player;
+                distancesSquared[0] = distanceSquared;
+                siftDown(0, size);
+            }
+        }
+
+        // Heap sort, leaves the closest player first
+        private void sort() {
+            for (int end = size - 1; end > 0; end--) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+        }
+
+        private void siftUp(int index) {
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (distancesSquared[parent] >= distancesSquared[index]) return;
+                swap(parent, index);
+                index = parent;
+            }
+        }
+
+        private void siftDown(int index, int end) {
+            while (true) {
+                int largest = index;
+                int left = 2 * index + 1, right = left + 1;
+                if (left < end && distancesSquared[left] > distancesSquared[largest]) largest = left;
+                if (right < end && distancesSquared[right] > distancesSquared[largest]) largest = right;
+                if (largest == index) return;
+                swap(index, largest);
+                index = largest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            Tracked player = players[a];
+            players[a] = players[b];
+            players[b] = player;
+            double distance = distancesSquared[a];
+            distancesSquared[a] = distancesSquared[b];
+            distancesSquared[b] = distance;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.lambda505.meteorutils.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Recognizes private messages in the formats used by vanilla, Essentials and common anarchy servers.
+ * Has no client dependencies, so it can be used headless, e.g. from benchmarks.
+ */
+public class PrivateMessageMatcher {
+    private static final List<MessagePattern> PATTERNS = Arrays.asList(
+        // Incoming patterns
+        new MessagePattern(" whispers to you", true, true),
+        new MessagePattern(" tells you", true, true),
+        new MessagePattern(" messages you", true, true),
+        new MessagePattern(" -> you", true, true),
+        new MessagePattern(" -> YOU", true, true), // Added for case variations
+        new MessagePattern(" whispers:", true, true),
+        new MessagePattern("From ", false, true, 5),
+        new MessagePattern("from ", false, true, 5),
+        new MessagePattern("FROM ", false, true, 5),
+        new MessagePattern("[", false, true) { // Special case for [Player -> You]
+            @Override
+            String marker() {
+                return " -> You]";
+            }
+
+            @Override
+            public MatchResult tryMatch(String msg) {
+                if (!msg.startsWith("[") || !msg.contains(" -> You]")) return null;
+                int arrowIndex = msg.indexOf(" -> You]");
+                if (arrowIndex <= 1) return null;
+                String player = msg.substring(1, arrowIndex).trim();
+                String content = extractContent(msg, msg.indexOf("]") + 1);
+                return new MatchResult(player, content, true);
+            }
+        },
+
+        // Outgoing patterns
+        new MessagePattern("You whisper to ", false, false, "You whisper to ".length()),
+        new MessagePattern("You tell ", false, false, "You tell ".length()),
+        new MessagePattern("You message ", false, false, "You message ".length()),
+        new MessagePattern("To ", false, false, 3),
+        new MessagePattern("to ", false, false, 3),
+        new MessagePattern("TO ", false, false, 3),
+        new MessagePattern("you -> ", false, false, "you -> ".length()),
+        new MessagePattern("YOU -> ", false, false, "YOU -> ".length()), // Added for uppercase case
+        new MessagePattern("[You -> ", false, false) { // Special case for [You -> Player]
+            @Override
+            public MatchResult tryMatch(String msg) {
+                if (!msg.startsWith("[You -> ")) return null;
+                int bracketIndex = msg.indexOf("]");
+                if (bracketIndex <= "[You -> ".length()) return null;
+                String player = msg.substring("[You -> ".length(), bracketIndex).trim();
+                String content = extractContent(msg, bracketIndex + 1);
+                return new MatchResult(player, content, false);
+            }
+        },
+        new MessagePattern("You -> ", false, false, "You -> ".length()),
+        new MessagePattern("Reply to ", false, false, "Reply to ".length()),
+
+        // Custom patterns for Name -> YOU and YOU -> Name format
+        new MessagePattern(null, false, false) { // Custom outgoing pattern for "YOU -> Name"
+            @Override
+            String marker() {
+                return "YOU -> ";
+            }
+
+            @Override
+            public MatchResult tryMatch(String msg) {
+                if (!msg.startsWith("YOU -> ")) return null;
+                int colonIndex = msg.indexOf(":");
+                if (colonIndex <= "YOU -> ".length()) return null;
+                String player = msg.substring("YOU -> ".length(), colonIndex).trim();
+                String content = extractContent(msg, colonIndex);
+                return new MatchResult(player, content, false);
+            }
+        },
+        new MessagePattern(null, false, true) { // Custom incoming pattern for "Name -> YOU"
+            @Override
+            String marker() {
+                return " -> YOU:";
+            }
+
+            @Override
+            public MatchResult tryMatch(String msg) {
+                if (!msg.contains(" -> YOU:")) return null;
+                int arrowIndex = msg.indexOf(" -> YOU:");
+                if (arrowIndex <= 0) return null;
+                String player = msg.substring(0, arrowIndex).trim();
+                String content = extractContent(msg, arrowIndex + " -> YOU:".length());
+                return new MatchResult(player, content, true);
+            }
+        }
+    );
+
+    // Every pattern needs its marker somewhere in the message, so one automaton pass
+    // over the case-folded markers rules out all patterns that cannot match
+    private static final AhoCorasick MARKERS;
+    private static final long[] PATTERN_MARKER_BITS = new long[PATTERNS.size()];
+
+    static {
+        List<String> markers = new ArrayList<>();
+        for (int i = 0; i < PATTERNS.size(); i++) {
+            String marker = PATTERNS.get(i).marker().toLowerCase();
+            int index = markers.indexOf(marker);
+            if (index < 0) {
+                index = markers.size();
+                markers.add(marker);
+            }
+            PATTERN_MARKER_BITS[i] = 1L << index;
+        }
+        MARKERS = new AhoCorasick(markers, true);
+    }
+
+    /**
+     * Matches a private message against the known formats, in list order
+     * @param message The chat message without timestamp
+     * @return The match, or null if the message is not a private message
+     */
+    public static MatchResult match(String message) {
+        long candidates = MARKERS.findAll(message);
+        if (candidates == 0) return null;
+
+        // Patterns still run in list order, only those whose marker was found
+        for (int i = 0; i < PATTERNS.size(); i++) {
+            if ((candidates & PATTERN_MARKER_BITS[i]) == 0) continue;
+
+            MatchResult result = PATTERNS.get(i).tryMatch(message);
+            if (result != null) {
+                result.playerName = cleanPlayerName(result.playerName);
+                if (result.playerName != null && !result.playerName.isEmpty() &&
+                    result.content != null && !result.content.isEmpty()) {
+                    return result;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes rank prefixes, suffixes and decorations like {@code [VIP] *Steve*} from a name
+     * @param playerName The raw name
+     * @return The cleaned name
+     */
+    public static String cleanPlayerName(String playerName) {
+        if (playerName == null) return null;
+        return playerName.replaceAll("^\\[.*?\\]\\s*", "")
+            .replaceAll("\\s*\\[.*?\\]$", "")
+            .replaceAll("^\\*+\\s*", "")
+            .replaceAll("\\s*\\*+$", "")
+            .trim();
+    }
+
+    /**
+     * A matched private message
+     */
+    public static class MatchResult {
+        public String playerName, content;
+        public boolean isIncoming;
+
+        MatchResult(String playerName, String content, boolean isIncoming) {
+            this.playerName = playerName;
+            this.content = content;
+            this.isIncoming = isIncoming;
+        }
+    }
+
+    private static class MessagePattern {
+        final String pattern;
+        final boolean contains, isIncoming;
+        final int prefixLength;
+
+        MessagePattern(String pattern, boolean contains, boolean isIncoming) {
+            this(pattern, contains, isIncoming, 0);
+        }
+
+        MessagePattern(String pattern, boolean contains, boolean isIncoming, int prefixLength) {
+            this.pattern = pattern;
+            this.contains = contains;
+            this.isIncoming = isIncoming;
+            this.prefixLength = prefixLength;
+        }
+
+        // Literal that must occur in any message this pattern matches
+        String marker() {
+            return pattern;
+        }
+
+        MatchResult tryMatch(String message) {
+            if (pattern == null) return null; // For custom patterns
+
+            boolean matches = contains ? message.contains(pattern) : message.startsWith(pattern);
+            if (!matches) return null;
+
+            int patternIndex = contains ? message.indexOf(pattern) : 0;
+            String playerName = message.substring(prefixLength,
+                contains ? patternIndex : message.indexOf(":")).trim();
+
+            int contentStart = contains ? patternIndex + pattern.length() : message.indexOf(":") + 1;
+            String content = extractContent(message, contentStart);
+
+            return new MatchResult(playerName, content, isIncoming);
+        }
+
+        protected String extractContent(String message, int start) {
+            if (start >= message.length()) return "";
+            if (message.charAt(start) == ':') start++;
+            return message.substring(start).trim();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.lambda505.meteorutils.utils;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Applies a query's filter, limit and order to records read in time order, for the file backends
+ * that filter while reading. Newest-first scans keep the last {@code limit} matches and pass them on at the end.
+ */
+class ScanResults {
+    private final StorageQuery query;
+    private final Consumer<StorageRecord> consumer;
+    private final ArrayDeque<StorageRecord> newest;
+    private int count;
+
+    ScanResults(StorageQuery query, Consumer<StorageRecord> consumer) {
+        this.query = query;
+        this.consumer = consumer;
+        this.newest = query.isNewestFirst() ? new ArrayDeque<>() : null;
+    }
+
+    /**
+     * @param record A record read by the backend, only used during the call
+     * @return false once the limit is reached and reading can stop
+     */
+    boolean offer(StorageRecord record) {
+        if (query.getLimit() == 0) return false;
+        if (!query.matches(record)) return true;
+
+        if (newest != null) {
+            if (newest.size() == query.getLimit()) newest.pollFirst();
+            newest.addLast(record.copy());
+            return true;
+        }
+
+        consumer.accept(record);
+        return ++count < query.getLimit();
+    }
+
+    /**
+     * @return Number of records passed to the consumer
+     */
+    int finish() {
+        if (newest != null) {
+            while (!newest.isEmpty()) {
+                consumer.accept(newest.pollLast());
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,186 @@
+package com.lambda505.meteorutils.utils;
+
+import net.minecraft.text.ClickEvent;
+import net.minecraft.text.HoverEvent;
+import net.minecraft.text.Style;
+import net.minecraft.text.Text;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the sender of a chat message from the structure of its {@link Text} instead of
+ * regex matching the flattened string. Player name components usually carry the name in their
+ * insertion, an entity hover or a {@code /msg name} click suggestion, which also works with
+ * rank prefixes. Tab list names and the name pattern are used as fallbacks.
+ * Client state is read through {@link ClientContext}, or passed in by callers off the client thread.
+ */
+public class SenderResolver {
+    private static final String[] MESSAGE_COMMANDS = {"/msg ", "/tell ", "/w ", "/whisper ", "/m ", "/t "};
+    private static final int HEADER_LENGTH = 64;
+
+    // Strategy that last worked for each server, tried first for the next message
+    private static final Map<String, Strategy> preferredStrategy = new ConcurrentHashMap<>();
+
+    private enum Strategy {
+        Insertion,
+        Hover,
+        Click,
+        TabList,
+        Pattern
+    }
+
+    /**
+     * Resolves the sender of a chat message
+     * @param message The chat message Text object
+     * @return Player name or "Unknown" if not found
+     */
+    public static String resolve(Text message) {
+        return resolve(message, message.getString());
+    }
+
+    /**
+     * Resolves the sender of a chat message, on the client thread
+     * @param message The chat message Text object
+     * @param fullText The already flattened message
+     * @return Player name or "Unknown" if not found
+     */
+    public static String resolve(Text message, String fullText) {
+        ClientContext client = ClientContext.get();
+        return resolve(message, fullText, client.getServerAddress(), client.getTabListNames());
+    }
+
+    /**
+     * Resolves the sender of a chat message received on a known server, from any thread
+     * @param message The chat message Text object
+     * @param fullText The already flattened message
+     * @param serverAddress Address of the server the message came from, null in singleplayer
+     * @param tabListNames Tab list names when the message was received, see {@link MessageOrigin#getTabListNames()}
+     * @return Player name or "Unknown" if not found
+     */
+    public static String resolve(Text message, String fullText, String serverAddress, Set<String> tabListNames) {
+        String server = serverAddress != null ? serverAddress : "local";
+        Components components = Components.collect(message);
+
+        Strategy preferred = preferredStrategy.get(server);
+        if (preferred != null) {
+            String name = tryStrategy(preferred, components, fullText, tabListNames);
+            if (name != null) return name;
+        }
+
+        for (Strategy strategy : Strategy.values()) {
+            if (strategy == preferred) continue;
+            String name = tryStrategy(strategy, components, fullText, tabListNames);
+            if (name != null) {
+                // Only component strategies describe the server's chat format, system
+                // messages falling back to the tab list or pattern must not replace them
+                if (strategy.ordinal() <= Strategy.Click.ordinal()) preferredStrategy.put(server, strategy);
+                return name;
+            }
+        }
+
+        return "Unknown";
+    }
+
+    /**
+     * Forgets the learned chat formats, e.g. when leaving a server
+     */
+    public static void clearCache() {
+        preferredStrategy.clear();
+    }
+
+    private static String tryStrategy(Strategy strategy, Components components, String fullText, Set<String> tabListNames) {
+        return switch (strategy) {
+            case Insertion -> components.insertion;
+            case Hover -> components.hoverName;
+            case Click -> components.clickName;
+            case TabList -> findTabListName(fullText, tabListNames);
+            case Pattern -> {
+                String name = ChatMessageUtils.extractPlayerName(fullText);
+                yield name.equals("Unknown") ? null : name;
+            }
+        };
+    }
+
+    // Checks name-like words at the start of the message against the tab list
+    private static String findTabListName(String fullText, Set<String> tabListNames) {
+        if (tabListNames.isEmpty()) return null;
+
+        int end = Math.min(fullText.length(), HEADER_LENGTH);
+        int i = 0;
+        while (i < end) {
+            while (i < end && !isNameChar(fullText.charAt(i))) i++;
+            int start = i;
+            while (i < end && isNameChar(fullText.charAt(i))) i++;
+
+            int length = i - start;
+            if (length >= 3 && length <= 16) {
+                String word = fullText.substring(start, i);
+                if (tabListNames.contains(word)) return word;
+            }
+        }
+        return null;
+    }
+
+    private static String nameFromCommand(String command) {
+        for (String prefix : MESSAGE_COMMANDS) {
+            if (command.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                int start = prefix.length();
+                int end = start;
+                while (end < command.length() && isNameChar(command.charAt(end))) end++;
+                return validName(command.substring(start, end));
+            }
+        }
+        return null;
+    }
+
+    private static String validName(String name) {
+        if (name == null || name.isEmpty() || name.length() > 16) return null;
+        for (int i = 0; i < name.length(); i++) {
+            if (!isNameChar(name.charAt(i))) return null;
+        }
+        return name;
+    }
+
+    private static boolean isNameChar(char c) {
+        return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    // Sender hints found in the styles of a message, first occurrence of each wins
+    private static class Components {
+        String insertion, hoverName, clickName;
+
+        static Components collect(Text message) {
+            Components components = new Components();
+            message.visit((style, text) -> {
+                components.accept(style);
+                return components.isComplete() ? Optional.of(Boolean.TRUE) : Optional.empty();
+            }, Style.EMPTY);
+            return components;
+        }
+
+        void accept(Style style) {
+            if (insertion == null) insertion = validName(style.getInsertion());
+
+            HoverEvent hover = style.getHoverEvent();
+            if (hoverName == null && hover != null) {
+                HoverEvent.EntityContent entity = hover.getValue(HoverEvent.Action.SHOW_ENTITY);
+                if (entity != null && entity.name.isPresent()) {
+                    hoverName = validName(entity.name.get().getString());
+                }
+            }
+
+            ClickEvent click = style.getClickEvent();
+            if (clickName == null && click != null && (click.getAction() == ClickEvent.Action.SUGGEST_COMMAND
+                || click.getAction() == ClickEvent.Action.RUN_COMMAND)) {
+                clickName = nameFromCommand(click.getValue());
+            }
+        }
+
+        boolean isComplete() {
+            return insertion != null && hoverName != null && clickName != null;
+        }
+    }
+}
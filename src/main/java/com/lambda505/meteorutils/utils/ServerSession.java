@@ -0,0 +1,182 @@
+package com.lambda505.meteorutils.utils;
+
+import meteordevelopment.meteorclient.events.game.GameJoinedEvent;
+import meteordevelopment.meteorclient.events.game.GameLeftEvent;
+import meteordevelopment.orbit.EventHandler;
+import meteordevelopment.orbit.EventPriority;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-server context computed once when joining a game and dropped when leaving it.
+ * Holds the sanitized server name, resolved log directories and memoized sanitized
+ * player names, so writing a log entry needs no regexes or path building. Leaving a game
+ * drains the chat pipeline before the modules' handlers and the log writer after them.
+ */
+public class ServerSession {
+    private static final int MAX_MEMOIZED = 4096;
+
+    private static volatile ServerSession current;
+
+    private final String serverName;
+    private final File runDirectory;
+    private final Map<String, Directory> directories = new ConcurrentHashMap<>();
+    private final Map<String, String> sanitizedNames = new ConcurrentHashMap<>();
+
+    private ServerSession(String serverName, File runDirectory) {
+        this.serverName = serverName;
+        this.runDirectory = runDirectory;
+    }
+
+    /**
+     * Gets the session for the current server, creating it on first use
+     * @return The current session
+     */
+    public static ServerSession current() {
+        ServerSession session = current;
+        if (session == null) {
+            synchronized (ServerSession.class) {
+                session = current;
+                if (session == null) {
+                    ClientContext client = ClientContext.get();
+                    session = new ServerSession(client.getServerName(), client.getRunDirectory());
+                    current = session;
+                }
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Starts a session for a server without asking the client, e.g. to replay a chat log
+     * @param serverName Sanitized server name
+     * @param runDirectory Directory log folders are created in
+     * @return The new current session
+     */
+    public static ServerSession start(String serverName, File runDirectory) {
+        ServerSession session = new ServerSession(serverName, runDirectory.getAbsoluteFile());
+        current = session;
+        SenderResolver.clearCache();
+        return session;
+    }
+
+    /**
+     * Drops the current session, the next {@link #current()} call resolves the server again
+     */
+    public static void invalidate() {
+        current = null;
+        SenderResolver.clearCache();
+    }
+
+    // Runs before modules so they see the new server
+    @EventHandler(priority = EventPriority.HIGHEST)
+    private static void onGameJoined(GameJoinedEvent event) {
+        invalidate();
+    }
+
+    // Runs before modules: they close their files on leaving, once every queued message reached them
+    @EventHandler(priority = EventPriority.HIGHEST)
+    private static void onGameLeaving(GameLeftEvent event) {
+        ChatPipeline.get().drain(1000);
+    }
+
+    // Runs after modules so they can still write to the old server's files, then waits for the writes once
+    @EventHandler(priority = EventPriority.LOWEST)
+    private static void onGameLeft(GameLeftEvent event) {
+        AsyncLogWriter.drain(2000);
+        invalidate();
+    }
+
+    /**
+     * @return Sanitized server name, see {@link ServerUtils#getServerName()}
+     */
+    public String getServerName() {
+        return serverName;
+    }
+
+    /**
+     * Gets a directory shared by all servers, e.g. {@code LambdaMeteorUtilities/ChatCoordLeaks}
+     * @param basePath The base directory name
+     * @param subFolder The sub folder name
+     * @return The resolved directory
+     */
+    public Directory getDirectory(String basePath, String subFolder) {
+        return directories.computeIfAbsent(basePath + File.separator + subFolder,
+            key -> new Directory(this, new File(runDirectory, key)));
+    }
+
+    /**
+     * Gets the directory of this server, e.g. {@code LambdaMeteorUtilities/PrivateMessageArchiver/2b2t.org}
+     * @param basePath The base directory name
+     * @param subFolder The sub folder name
+     * @return The resolved directory
+     */
+    public Directory getServerDirectory(String basePath, String subFolder) {
+        return directories.computeIfAbsent(basePath + File.separator + subFolder + File.separator + serverName,
+            key -> new Directory(this, new File(runDirectory, key)));
+    }
+
+    /**
+     * Memoized {@link FileUtils#sanitizeFileName(String)}
+     * @param name The name to sanitize
+     * @return Sanitized name in lowercase
+     */
+    public String sanitize(String name) {
+        String sanitized = sanitizedNames.get(name);
+        if (sanitized == null) {
+            if (sanitizedNames.size() >= MAX_MEMOIZED) sanitizedNames.clear();
+            sanitized = FileUtils.sanitizeFileName(name);
+            sanitizedNames.put(name, sanitized);
+        }
+        return sanitized;
+    }
+
+    /**
+     * A resolved log directory with memoized files
+     */
+    public static class Directory {
+        private final ServerSession session;
+        private final File root;
+        private final Map<String, File> files = new ConcurrentHashMap<>();
+        private volatile boolean created;
+
+        private Directory(ServerSession session, File root) {
+            this.session = session;
+            this.root = root;
+        }
+
+        public ServerSession getSession() {
+            return session;
+        }
+
+        public File getRoot() {
+            return root;
+        }
+
+        /**
+         * Gets a file in this directory
+         * @param fileName The file name
+         * @return The memoized file
+         */
+        public File getFile(String fileName) {
+            File file = files.get(fileName);
+            if (file == null) {
+                if (files.size() >= MAX_MEMOIZED) files.clear();
+                file = new File(root, fileName);
+                files.put(fileName, file);
+            }
+            return file;
+        }
+
+        /**
+         * Creates the directory if needed, only checking the file system once per session
+         * @return true if the directory exists or was created successfully
+         */
+        public boolean ensureExists() {
+            if (!created) created = root.isDirectory() || root.mkdirs();
+            return created;
+        }
+    }
+}
@@ -78,4 +78,19 @@ public class ServerUtils {
         }
         return "unknown";
     }
+
+    /**
+     * Gets the current dimension, e.g. "overworld" or "the_nether"
+     * @return Dimension path or "unknown"
+     */
+    public static String getDimensionName() {
+        try {
+            if (mc.world != null) {
+                return mc.world.getRegistryKey().getValue().getPath();
+            }
+        } catch (Exception e) {
+            // Fall through to unknown
+        }
+        return "unknown";
+    }
 }
@@ -0,0 +1,51 @@
+package com.lambda505.meteorutils.utils;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Where Chat Coord Logger and Private Message Archiver keep what they log. The text logs are the
+ * default ({@link LeakFileStorage}, {@link ArchiveFileStorage}), {@link DatabaseStorage} keeps
+ * every server in one indexed database instead.
+ */
+public interface StorageBackend {
+    /**
+     * Backends selectable in the module settings
+     */
+    enum Kind {
+        Text,
+        Database
+    }
+
+    /**
+     * Stores a record, or queues it to be stored. Callers may reuse the record afterwards.
+     * @param record The record
+     * @return false if the record could not be stored or queued, or this backend does not store its type
+     */
+    boolean append(StorageRecord record);
+
+    /**
+     * Hands records the backend still collects, e.g. into a block, to its writer. Does not wait for them.
+     */
+    void flush();
+
+    /**
+     * Passes every stored record matching a query to a consumer, oldest first unless the query asks
+     * for the newest first. The text backends keep that order per file only. Records appended before
+     * the call are included. Can take a while, keep it off the client thread.
+     * @param query The filter
+     * @param consumer Receives the records, each only valid during the call
+     * @return Number of records passed to the consumer
+     */
+    int scan(StorageQuery query, Consumer<StorageRecord> consumer) throws IOException;
+
+    /**
+     * @return Where records go, for messages to the user, e.g. a file name
+     */
+    String getLocation();
+
+    /**
+     * Flushes and releases the backend, records appended before are still stored
+     */
+    void close();
+}
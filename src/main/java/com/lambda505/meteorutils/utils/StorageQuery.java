@@ -0,0 +1,144 @@
+package com.lambda505.meteorutils.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Filter of a {@link StorageBackend#scan}. Unset parts match everything, set parts must all match.
+ * <p>
+ * {@code new StorageQuery().type(StorageRecord.Type.Leak).server("2b2t.org").player("Steve").limit(10).newestFirst()}
+ */
+public class StorageQuery {
+    private StorageRecord.Type type;
+    private String server;
+    private String player;
+    private long from = Long.MIN_VALUE;
+    private long to = Long.MAX_VALUE;
+    private final List<String> terms = new ArrayList<>();
+    private int limit = Integer.MAX_VALUE;
+    private boolean newestFirst;
+
+    public StorageQuery type(StorageRecord.Type type) {
+        this.type = type;
+        return this;
+    }
+
+    public StorageQuery server(String server) {
+        this.server = server;
+        return this;
+    }
+
+    /**
+     * @param player Player name, compared case-insensitively
+     */
+    public StorageQuery player(String player) {
+        this.player = player != null ? player.toLowerCase(Locale.ROOT) : null;
+        return this;
+    }
+
+    /**
+     * @param from Earliest time in epoch millis, inclusive
+     */
+    public StorageQuery from(long from) {
+        this.from = from;
+        return this;
+    }
+
+    /**
+     * @param to Latest time in epoch millis, exclusive
+     */
+    public StorageQuery to(long to) {
+        this.to = to;
+        return this;
+    }
+
+    /**
+     * @param term Text the message must contain, case-insensitive. Every added term must match.
+     */
+    public StorageQuery contains(String term) {
+        if (term != null && !term.isEmpty()) terms.add(term.toLowerCase(Locale.ROOT));
+        return this;
+    }
+
+    /**
+     * @param limit Maximum number of records passed to the consumer
+     */
+    public StorageQuery limit(int limit) {
+        this.limit = Math.max(0, limit);
+        return this;
+    }
+
+    /**
+     * Returns the latest records first, so a limit keeps the newest instead of the oldest
+     */
+    public StorageQuery newestFirst() {
+        this.newestFirst = true;
+        return this;
+    }
+
+    public StorageRecord.Type getType() {
+        return type;
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * @return Lower-cased player name, or null
+     */
+    public String getPlayer() {
+        return player;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    /**
+     * @return Lower-cased terms
+     */
+    public List<String> getTerms() {
+        return terms;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean isNewestFirst() {
+        return newestFirst;
+    }
+
+    /**
+     * @return true if the query has time bounds, records without a known time never match those
+     */
+    public boolean hasTimeRange() {
+        return from != Long.MIN_VALUE || to != Long.MAX_VALUE;
+    }
+
+    /**
+     * Checks every part but the limit, for backends that filter records themselves
+     * @param record The record
+     * @return true if the record matches
+     */
+    public boolean matches(StorageRecord record) {
+        if (type != null && record.type != type) return false;
+        if (server != null && !server.equals(record.server)) return false;
+        if (player != null && (record.player == null || !record.player.equalsIgnoreCase(player))) return false;
+        if (hasTimeRange() && (record.time < 0 || record.time < from || record.time >= to)) return false;
+        if (!terms.isEmpty()) {
+            if (record.message == null) return false;
+            String message = record.message.toLowerCase(Locale.ROOT);
+            for (String term : terms) {
+                if (!message.contains(term)) return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,105 @@
+package com.lambda505.meteorutils.utils;
+
+/**
+ * One entry written through a {@link StorageBackend}: a coordinate leak, a private message or a
+ * conversation marker, with the server it was logged on. Mutable so writers and scans can reuse one
+ * instance, backends that keep records beyond a call copy them.
+ */
+public class StorageRecord {
+    public enum Type {
+        Leak,
+        Incoming,
+        Outgoing,
+        Marker
+    }
+
+    public Type type;
+    public String server;
+    public long time;
+    // Leaks: sender, messages and markers: the other side of the conversation
+    public String player;
+    // Leaks: the chat message, messages: the content, markers: the marker text
+    public String message;
+
+    // Leaks only
+    public int x, y, z;
+    public boolean hasY;
+    public String dimension;
+
+    /**
+     * @param server Server name, see {@link ServerSession#getServerName()}
+     * @param leak The leak
+     * @return This record
+     */
+    public StorageRecord setLeak(String server, LeakRecord leak) {
+        set(Type.Leak, server, leak.time, leak.player, leak.message);
+        this.x = leak.x;
+        this.y = leak.y;
+        this.z = leak.z;
+        this.hasY = leak.hasY;
+        this.dimension = leak.dimension;
+        return this;
+    }
+
+    /**
+     * @param server Server name
+     * @param time Epoch millis, or -1 if unknown
+     * @param player Sanitized name of the other player
+     * @param incoming true if the player sent the message
+     * @param content Message content
+     * @return This record
+     */
+    public StorageRecord setMessage(String server, long time, String player, boolean incoming, String content) {
+        return set(incoming ? Type.Incoming : Type.Outgoing, server, time, player, content);
+    }
+
+    /**
+     * @param server Server name
+     * @param time Epoch millis
+     * @param player Sanitized name of the other player
+     * @param text Marker text, e.g. "CONVERSATION STARTED WITH STEVE"
+     * @return This record
+     */
+    public StorageRecord setMarker(String server, long time, String player, String text) {
+        return set(Type.Marker, server, time, player, text);
+    }
+
+    /**
+     * Sets the common fields and clears the leak fields
+     * @return This record
+     */
+    public StorageRecord set(Type type, String server, long time, String player, String message) {
+        this.type = type;
+        this.server = server;
+        this.time = time;
+        this.player = player;
+        this.message = message;
+        this.x = 0;
+        this.y = 0;
+        this.z = 0;
+        this.hasY = false;
+        this.dimension = null;
+        return this;
+    }
+
+    /**
+     * @param out Leak to fill from this record
+     * @return The leak
+     */
+    public LeakRecord toLeak(LeakRecord out) {
+        return out.set(time, player, x, y, hasY, z, dimension, message);
+    }
+
+    /**
+     * @return A copy, for keeping a record after the call it was passed to
+     */
+    public StorageRecord copy() {
+        StorageRecord copy = new StorageRecord().set(type, server, time, player, message);
+        copy.x = x;
+        copy.y = y;
+        copy.z = z;
+        copy.hasY = hasY;
+        copy.dimension = dimension;
+        return copy;
+    }
+}
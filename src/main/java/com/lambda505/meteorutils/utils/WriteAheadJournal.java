@@ -0,0 +1,303 @@
+package com.lambda505.meteorutils.utils;
+
+import com.lambda505.meteorutils.LambdaUtilities;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the appends made by {@link AsyncLogWriter}. Before a batch is appended to
+ * its files, every file's part of it is recorded here with the file's length at that point, so a
+ * write torn by a crash can be redone on the next start. Journal writes are sequential and forced
+ * to disk at most every sync interval, one force instead of one per file.
+ * <p>
+ * A record is {@code MAGIC, long sequence, int pathLength, path, long offset, long fileId, int dataLength,
+ * data, CRC32(sequence..data)}. Paths below the journal's directory are stored relative to it. The file
+ * id tells the appended file from one that replaced it since, see {@link #fileId(Path)}. Once the
+ * appended files are forced to disk the journal is checkpointed, i.e. truncated. Used by the
+ * writer thread only.
+ */
+public class WriteAheadJournal {
+    private static final int MAGIC = 0x57414C32; // "WAL2"
+    private static final int HEADER = 4 + 8 + 4;
+    private static final int MAX_PATH = 4096;
+    private static final int MAX_DATA = 64 << 20;
+    private static final LatencyHistogram SYNC = Metrics.histogram("writer.journal-sync");
+
+    private final File file;
+    private final Path base;
+    private final FileChannel channel;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+    private int syncIntervalMillis;
+    private long sequence;
+    private long size;
+    private long syncDeadline = Long.MAX_VALUE;
+
+    private WriteAheadJournal(File file, FileChannel channel) {
+        this.file = file;
+        this.base = file.toPath().toAbsolutePath().getParent();
+        this.channel = channel;
+    }
+
+    /**
+     * Opens a journal, first replaying the records left by a previous run
+     * @param file The journal file, created if missing
+     * @param syncIntervalMillis Maximum time records stay unforced, 0 to force after every batch
+     * @return The empty journal
+     */
+    public static WriteAheadJournal open(File file, int syncIntervalMillis) throws IOException {
+        Path path = file.toPath().toAbsolutePath();
+        Files.createDirectories(path.getParent());
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        WriteAheadJournal journal = new WriteAheadJournal(file, channel);
+        journal.syncIntervalMillis = Math.max(0, syncIntervalMillis);
+        try {
+            int replayed = journal.replay();
+            if (replayed > 0) LambdaUtilities.LOG.info("Recovered " + replayed + " journaled writes from " + file.getName());
+            journal.checkpoint();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    /**
+     * Replays a journal left by a previous run and deletes it, without journaling further writes
+     * @param file The journal file
+     * @return Number of replayed records, 0 if there is no journal
+     */
+    public static int recover(File file) throws IOException {
+        if (!file.isFile()) return 0;
+
+        int replayed;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            replayed = new WriteAheadJournal(file, channel).replay();
+        }
+        Files.delete(file.toPath());
+        if (replayed > 0) LambdaUtilities.LOG.info("Recovered " + replayed + " journaled writes from " + file.getName());
+        return replayed;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void setSyncInterval(int syncIntervalMillis) {
+        this.syncIntervalMillis = Math.max(0, syncIntervalMillis);
+    }
+
+    /**
+     * @return Bytes recorded since the last checkpoint
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Records an append before it is made. Not forced to disk, see {@link #syncIfDue(long)}.
+     * @param target The resolved file path
+     * @param offset Length of the file before the append
+     * @param data Buffer holding the appended bytes from its position to its limit, not consumed
+     */
+    public void append(Path target, long offset, ByteBuffer data) throws IOException {
+        byte[] path = storedPath(target).getBytes(StandardCharsets.UTF_8);
+        int length = data.remaining();
+        int recordLength = HEADER + path.length + 8 + 8 + 4 + length + 4;
+        if (buffer.capacity() < recordLength) buffer = ByteBuffer.allocate(Math.max(recordLength, buffer.capacity() * 2));
+
+        buffer.clear();
+        buffer.putInt(MAGIC).putLong(++sequence).putInt(path.length).put(path).putLong(offset).putLong(fileId(target)).putInt(length);
+        buffer.put(data.duplicate());
+        crc.reset();
+        crc.update(buffer.array(), 4, buffer.position() - 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) size += channel.write(buffer, size);
+
+        if (syncDeadline == Long.MAX_VALUE) syncDeadline = System.currentTimeMillis() + syncIntervalMillis;
+    }
+
+    /**
+     * Forces the recorded appends to disk if the sync interval has passed since the oldest unforced one
+     * @param now Current time in epoch millis
+     */
+    public void syncIfDue(long now) throws IOException {
+        if (now >= syncDeadline) sync();
+    }
+
+    /**
+     * @return Time the unforced records are due, or {@link Long#MAX_VALUE} if there are none
+     */
+    public long getSyncDeadline() {
+        return syncDeadline;
+    }
+
+    /**
+     * Forces the recorded appends to disk
+     */
+    public void sync() throws IOException {
+        if (syncDeadline == Long.MAX_VALUE) return;
+        long start = System.nanoTime();
+        channel.force(false);
+        syncDeadline = Long.MAX_VALUE;
+        SYNC.recordSince(start);
+    }
+
+    /**
+     * Empties the journal, call only once every journaled append is forced to disk
+     */
+    public void checkpoint() throws IOException {
+        channel.truncate(0);
+        channel.force(false);
+        size = 0;
+        syncDeadline = Long.MAX_VALUE;
+    }
+
+    /**
+     * Closes the journal and deletes it, call only once every journaled append is forced to disk
+     */
+    public void close() throws IOException {
+        channel.close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    // Redoes every intact record in order, stops at the first torn or damaged one
+    private int replay() throws IOException {
+        long position = 0;
+        long expected = -1;
+        int replayed = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+
+        try {
+            while (position < channel.size()) {
+                header.clear();
+                readFully(header, position);
+                header.flip();
+                int magic = header.getInt();
+                if (magic != MAGIC) break;
+                long recordSequence = header.getLong();
+                int pathLength = header.getInt();
+                if (expected >= 0 && recordSequence != expected) break;
+                if (pathLength < 0 || pathLength > MAX_PATH) break;
+
+                ByteBuffer meta = ByteBuffer.allocate(pathLength + 8 + 8 + 4);
+                readFully(meta, position + HEADER);
+                meta.flip();
+                byte[] path = new byte[pathLength];
+                meta.get(path);
+                long offset = meta.getLong();
+                long fileId = meta.getLong();
+                int length = meta.getInt();
+                if (offset < 0 || length < 0 || length > MAX_DATA) break;
+
+                ByteBuffer data = ByteBuffer.allocate(length + 4);
+                readFully(data, position + HEADER + meta.capacity());
+                data.flip();
+
+                crc.reset();
+                crc.update(header.array(), 4, HEADER - 4);
+                crc.update(meta.array(), 0, meta.capacity());
+                crc.update(data.array(), 0, length);
+                if (data.getInt(length) != (int) crc.getValue()) break;
+
+                data.limit(length);
+                redo(resolve(new String(path, StandardCharsets.UTF_8)), offset, fileId, data);
+                replayed++;
+                expected = recordSequence + 1;
+                position += HEADER + meta.capacity() + data.capacity();
+            }
+        } catch (EOFException e) {
+            // The last record was torn, its append never started
+        }
+        return replayed;
+    }
+
+    private static void redo(Path target, long offset, long fileId, ByteBuffer data) throws IOException {
+        Files.createDirectories(target.getParent());
+        long currentId = Files.exists(target) ? fileId(target) : 0;
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long length = out.size();
+            long end = offset + data.remaining();
+            // A file whose id could not be read counts as the same file
+            boolean replaced = fileId != 0 && currentId != 0 && fileId != currentId;
+
+            if (replaced) {
+                // Keep the data rather than overwrite someone else's file
+                LambdaUtilities.LOG.warn("Journaled write is for an earlier file named " + target.getFileName() + ", appending it");
+                offset = length;
+            } else if (length >= end) {
+                // Already written, otherwise space allocated before the crash but never written, or written only in part
+                if (read(out, offset, data.remaining()).equals(data)) return;
+            } else if (length < offset) {
+                LambdaUtilities.LOG.warn("Journaled write is past the end of " + target.getFileName() + ", appending it");
+                offset = length;
+            } else {
+                // Torn or missing append: cut the partial line and write it again
+                out.truncate(offset);
+            }
+
+            long position = offset;
+            while (data.hasRemaining()) position += out.write(data, position);
+            out.force(false);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel in, long offset, int length) throws IOException {
+        ByteBuffer existing = ByteBuffer.allocate(length);
+        while (existing.hasRemaining()) {
+            if (in.read(existing, offset + existing.position()) < 0) break;
+        }
+        existing.flip();
+        return existing;
+    }
+
+    /**
+     * Identifies a file independently of its name, so a file moved aside and replaced by a new one
+     * under the same path is told apart. Uses the file key (device and inode) where the file system
+     * has one, the creation time otherwise.
+     * @return The id, or 0 if it cannot be read
+     */
+    static long fileId(Path target) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(target, BasicFileAttributes.class);
+            Object key = attributes.fileKey();
+            if (key == null) return attributes.creationTime().toMillis();
+
+            // The description holds the whole device and inode number, the key's hash code folds them into 32 bits
+            long id = 1125899906842597L;
+            String description = key.toString();
+            for (int i = 0; i < description.length(); i++) id = 31 * id + description.charAt(i);
+            return id == 0 ? 1 : id;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void readFully(ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) throw new EOFException();
+        }
+    }
+
+    private String storedPath(Path target) {
+        return base != null && target.startsWith(base) ? base.relativize(target).toString() : target.toString();
+    }
+
+    private Path resolve(String stored) {
+        Path path = Path.of(stored);
+        return path.isAbsolute() || base == null ? path : base.resolve(path);
+    }
+}
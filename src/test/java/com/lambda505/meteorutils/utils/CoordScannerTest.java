@@ -0,0 +1,189 @@
+package com.lambda505.meteorutils.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks {@link CoordScanner} against the regular expressions the Chat Coord Logger used before it,
+ * on a seeded random corpus and on messages that tripped up earlier versions of the scanner.
+ */
+class CoordScannerTest {
+    // The scanner only reads a label when it does not continue a word, the old patterns read the x of "max"
+    private static final String LABEL = "(?<![a-z0-9])";
+
+    // The old COORD_PATTERN_XYZ and COORD_PATTERN_XZ of ChatCoordLogger, with the label boundary added
+    private static final Pattern OLD_XYZ = Pattern.compile(
+        "(?i)(?:" +
+            "(?:.*" + LABEL + "(?:x|pos)\\s*[:=]?\\s*(-?\\d+).*" + LABEL + "(?:y|height)\\s*[:=]?\\s*(-?\\d+).*" + LABEL + "(?:z)\\s*[:=]?\\s*(-?\\d+).*)|" +
+            "(?:.*\\(\\s*(-?\\d+)\\s*,\\s*(-?\\d+)\\s*,\\s*(-?\\d+)\\s*\\).*)|" +
+            "(?:.*\\b(-?\\d+)\\s+(-?\\d+)\\s+(-?\\d+)\\b.*)" +
+            ")"
+    );
+    private static final Pattern OLD_XZ = Pattern.compile(
+        "(?i)(?:" +
+            "(?:.*" + LABEL + "(?:x|pos)\\s*[:=]?\\s*(-?\\d+).*" + LABEL + "(?:z)\\s*[:=]?\\s*(-?\\d+).*)|" +
+            "(?:.*\\(\\s*(-?\\d+)\\s*,\\s*(-?\\d+)\\s*\\).*)|" +
+            "(?:.*\\b(-?\\d{3,})\\s+(-?\\d{3,})\\b.*)" +
+            ")"
+    );
+
+    private static final String[] WORDS = {"x", "y", "z", "X:", "Y=", "z:", "pos", "height", "hey", "max", "lazy",
+        "hex", "xp", "zone", "at", "base", "coords", "the", "go"};
+    private static final String[] SEPARATORS = {" ", " ", " ", "  ", "\t", ", ", ",", ":", "=", "-", "(", ")", ": "};
+
+    private final CoordScanner scanner = new CoordScanner();
+
+    @Test
+    void matchesTheOldPatternsOnRandomMessages() {
+        Random random = new Random(1);
+        for (int i = 0; i < 200_000; i++) {
+            assertMatchesOldPatterns(randomMessage(random));
+        }
+    }
+
+    @Test
+    void matchesTheOldPatternsOnTrickyMessages() {
+        String[] messages = {
+            "hey-2000  100",
+            "height-2000\t12345",
+            "x: 100, y: 64, z: -200",
+            "pos=1500 height=70 z=-3000",
+            "X 100 Z 200",
+            "(1, 2, 3)",
+            "( 1500 , -3000 )",
+            "(1, 2, 3,)",
+            "meet at 1000 64 -2000 ok",
+            "1 2 3 4 5",
+            "max 1000 64 2000",
+            "pos 1201 z: 2 15 44",
+            "x 1 y 2 z 3 4 5",
+            "base 1500 -2000",
+            "xp 5 at 200 300",
+            "12345 678",
+            "12 345",
+            "hex 1 they 2 z 3",
+            "9999999999 1 2",
+            "",
+        };
+        for (String message : messages) assertMatchesOldPatterns(message);
+    }
+
+    @Test
+    void wordEndingInALabelDoesNotHideTheNumbers() {
+        assertEquals(1, scanner.scan("hey-2000  100", true));
+        assertCoordinate(0, 2000, 0, false, 100, CoordScanner.BARE);
+
+        // Here height is a label, its number keeps the minus
+        assertEquals(1, scanner.scan("height-2000\t12345", true));
+        assertCoordinate(0, -2000, 0, false, 12345, CoordScanner.BARE);
+
+        assertEquals(1, scanner.scan("max 1000 64 2000", false));
+        assertCoordinate(0, 1000, 64, true, 2000, CoordScanner.BARE);
+
+        assertEquals(0, scanner.scan("hex 1 they 2 zoo 3", true));
+    }
+
+    @Test
+    void labelledNumberCanStartABareRun() {
+        assertEquals(2, scanner.scan("pos 1201 z: 2 15 44", true));
+        assertCoordinate(0, 1201, 0, false, 2, CoordScanner.LABELLED);
+        assertCoordinate(1, 2, 15, true, 44, CoordScanner.BARE);
+
+        // A full labelled coordinate keeps its numbers
+        assertEquals(1, scanner.scan("x 1 y 2 z 3 4 5", false));
+        assertCoordinate(0, 1, 2, true, 3, CoordScanner.LABELLED);
+    }
+
+    @Test
+    void longRunKeepsItsLastThreeNumbers() {
+        assertEquals(1, scanner.scan("1 2 3 4 5", false));
+        assertCoordinate(0, 3, 4, true, 5, CoordScanner.BARE);
+    }
+
+    // The coordinate the old patterns report must be among the ones the scanner reports, and the
+    // scanner must report nothing where they found nothing. The old bare patterns drop the minus of
+    // the first number after whitespace and keep it after a letter, the scanner does the opposite,
+    // so that sign is not compared.
+    private void assertMatchesOldPatterns(String message) {
+        int found = scanner.scan(message, true);
+        int[] expected = oldCoordinate(message);
+        if (expected == null) {
+            assertEquals(0, found, "no coordinate in [" + message + "]");
+            return;
+        }
+
+        boolean bare = expected[4] == CoordScanner.BARE;
+        boolean hasY = expected[3] != 0;
+        for (int i = 0; i < found; i++) {
+            int x = scanner.getX(i);
+            if (scanner.hasY(i) == hasY && (bare ? Math.abs(x) == Math.abs(expected[0]) : x == expected[0])
+                && scanner.getZ(i) == expected[2] && (!hasY || scanner.getY(i) == expected[1])) {
+                return;
+            }
+        }
+        fail("[" + message + "] should contain " + expected[0] + " " + (hasY ? expected[1] : "?") + " " + expected[2]
+            + " but " + found + " coordinates were found");
+    }
+
+    // x, y, z, hasY and kind of the coordinate the Chat Coord Logger logged before the scanner, or null
+    private static int[] oldCoordinate(String message) {
+        Matcher xyz = OLD_XYZ.matcher(message);
+        if (xyz.find()) {
+            for (int kind = 0; kind < 3; kind++) {
+                int group = 1 + kind * 3;
+                if (xyz.group(group) == null) continue;
+                try {
+                    return new int[]{Integer.parseInt(xyz.group(group)), Integer.parseInt(xyz.group(group + 1)),
+                        Integer.parseInt(xyz.group(group + 2)), 1, kind};
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+
+        Matcher xz = OLD_XZ.matcher(message);
+        if (xz.find()) {
+            for (int kind = 0; kind < 3; kind++) {
+                int group = 1 + kind * 2;
+                if (xz.group(group) == null) continue;
+                try {
+                    return new int[]{Integer.parseInt(xz.group(group)), 0, Integer.parseInt(xz.group(group + 1)), 0, kind};
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String randomMessage(Random random) {
+        StringBuilder message = new StringBuilder();
+        int tokens = 1 + random.nextInt(8);
+        for (int i = 0; i < tokens; i++) {
+            if (i > 0) message.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+            if (random.nextInt(10) < 4) {
+                message.append(WORDS[random.nextInt(WORDS.length)]);
+                continue;
+            }
+            if (random.nextInt(4) == 0) message.append('-');
+            int digits = 1 + random.nextInt(5);
+            message.append(1 + random.nextInt(9));
+            for (int d = 1; d < digits; d++) message.append(random.nextInt(10));
+        }
+        return message.toString();
+    }
+
+    private void assertCoordinate(int index, int x, int y, boolean hasY, int z, int kind) {
+        String where = "coordinate " + index;
+        assertEquals(x, scanner.getX(index), where);
+        assertEquals(hasY, scanner.hasY(index), where);
+        if (hasY) assertEquals(y, scanner.getY(index), where);
+        assertEquals(z, scanner.getZ(index), where);
+        assertEquals(kind, scanner.getKind(index), where);
+    }
+}
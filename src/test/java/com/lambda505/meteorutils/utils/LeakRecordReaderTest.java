@@ -0,0 +1,176 @@
+package com.lambda505.meteorutils.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Round trips binary leak logs through {@link LeakRecordWriter} and {@link LeakRecordReader},
+ * including logs torn by a crash and logs with a damaged block.
+ */
+class LeakRecordReaderTest {
+    private static final long BASE_TIME = 1_700_000_000_000L;
+    private static final int BLOCK_RECORDS = 256;
+
+    @Test
+    void readsBackWhatWasWritten() throws IOException {
+        File file = newLog();
+        List<LeakRecord> written = write(file, "carol", 0, 600);
+
+        Result result = read(file);
+        assertRecords(written, result.records);
+        assertEquals(0, result.skipped);
+    }
+
+    @Test
+    void tornSessionDoesNotSwallowTheNextSession() throws IOException {
+        File file = newLog();
+        List<LeakRecord> first = write(file, "carol", 0, 600);
+        // Crash in the middle of writing the last block, 600 = 2 * 256 + 88
+        truncate(file, file.length() - 20);
+        List<LeakRecord> second = write(file, "dave", 600, 100);
+
+        List<LeakRecord> expected = new ArrayList<>(first.subList(0, 2 * BLOCK_RECORDS));
+        expected.addAll(second);
+        Result result = read(file);
+        assertRecords(expected, result.records);
+        assertEquals(1, result.skipped);
+    }
+
+    @Test
+    void truncatedLengthFieldIsSkipped() throws IOException {
+        File file = newLog();
+        List<LeakRecord> written = write(file, "carol", 0, 300);
+        long secondBlock = magicOffsets(file).get(1);
+        // Only the magic of the last block made it to disk
+        truncate(file, secondBlock + 4);
+
+        Result result = read(file);
+        assertRecords(written.subList(0, BLOCK_RECORDS), result.records);
+    }
+
+    @Test
+    void damagedBlockNeverMisattributesStrings() throws IOException {
+        File file = newLog();
+        List<LeakRecord> written = write(file, "carol", 0, 20 * BLOCK_RECORDS);
+        List<Long> blocks = magicOffsets(file);
+        assertEquals(20, blocks.size());
+        corrupt(file, blocks.get(1) + 40);
+
+        // Blocks 2 to 16 use strings of the damaged block's table, block 17 resets it
+        List<LeakRecord> expected = new ArrayList<>(written.subList(0, BLOCK_RECORDS));
+        expected.addAll(written.subList(16 * BLOCK_RECORDS, written.size()));
+        Result result = read(file);
+        assertRecords(expected, result.records);
+        assertTrue(result.skipped >= 1);
+    }
+
+    @Test
+    void damagedLengthResynchronizesOnTheNextBlock() throws IOException {
+        File file = newLog();
+        List<LeakRecord> written = write(file, "carol", 0, 3 * BLOCK_RECORDS);
+        write(file, "dave", 3 * BLOCK_RECORDS, 10);
+        List<Long> blocks = magicOffsets(file);
+        // A huge claimed length would cover every block after it
+        corrupt(file, blocks.get(2) + 4);
+
+        Result result = read(file);
+        List<LeakRecord> expected = new ArrayList<>(written.subList(0, 2 * BLOCK_RECORDS));
+        assertEquals(expected.size() + 10, result.records.size());
+        assertRecords(expected, result.records.subList(0, expected.size()));
+        for (LeakRecord record : result.records.subList(expected.size(), result.records.size())) {
+            assertEquals("dave" + (record.time - BASE_TIME) / 1000 % 3, record.player);
+        }
+    }
+
+    private static File newLog() throws IOException {
+        File directory = Files.createTempDirectory("leak-log").toFile();
+        directory.deleteOnExit();
+        File file = new File(directory, "ccl_test.bin");
+        file.deleteOnExit();
+        return file;
+    }
+
+    // One writer session, like the Chat Coord Logger between two game starts
+    private static List<LeakRecord> write(File file, String player, int first, int count) {
+        LeakRecordWriter writer = new LeakRecordWriter(file);
+        List<LeakRecord> written = new ArrayList<>();
+        for (int i = first; i < first + count; i++) {
+            boolean hasY = i % 2 == 0;
+            LeakRecord record = new LeakRecord().set(BASE_TIME + i * 1000L, player + i % 3, 1000 + i, hasY ? 64 : 0, hasY,
+                -2000 - i, i % 5 == 0 ? "nether" : "overworld", "m" + i % 7);
+            assertTrue(writer.append(record, AsyncLogWriter.FlushPolicy.PerBatch, 0));
+            written.add(record);
+        }
+        assertTrue(writer.flush(AsyncLogWriter.FlushPolicy.PerBatch, 0));
+        assertTrue(AsyncLogWriter.drain(10_000));
+        return written;
+    }
+
+    private static Result read(File file) throws IOException {
+        Result result = new Result();
+        try (LeakRecordReader reader = new LeakRecordReader(file, file.length())) {
+            LeakRecord record = new LeakRecord();
+            while (reader.next(record)) {
+                result.records.add(new LeakRecord().set(record.time, record.player, record.x, record.y, record.hasY,
+                    record.z, record.dimension, record.message));
+            }
+            result.skipped = reader.getSkippedBlocks();
+        }
+        return result;
+    }
+
+    private static void assertRecords(List<LeakRecord> expected, List<LeakRecord> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            LeakRecord e = expected.get(i);
+            LeakRecord a = actual.get(i);
+            String where = "record " + i;
+            assertEquals(e.time, a.time, where);
+            assertEquals(e.player, a.player, where);
+            assertEquals(e.x, a.x, where);
+            assertEquals(e.y, a.y, where);
+            assertEquals(e.hasY, a.hasY, where);
+            assertEquals(e.z, a.z, where);
+            assertEquals(e.dimension, a.dimension, where);
+            assertEquals(e.message, a.message, where);
+        }
+    }
+
+    private static List<Long> magicOffsets(File file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        List<Long> offsets = new ArrayList<>();
+        for (int i = 0; i + 4 <= bytes.length; i++) {
+            int value = (bytes[i] & 0xFF) << 24 | (bytes[i + 1] & 0xFF) << 16 | (bytes[i + 2] & 0xFF) << 8 | (bytes[i + 3] & 0xFF);
+            if (value == LeakBinaryFormat.MAGIC) offsets.add((long) i);
+        }
+        return offsets;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    private static void corrupt(File file, long offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0xFF);
+        }
+    }
+
+    private static class Result {
+        final List<LeakRecord> records = new ArrayList<>();
+        int skipped;
+    }
+}
@@ -0,0 +1,105 @@
+package com.lambda505.meteorutils.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Redoes a journaled append after a crash left the appended file in different states.
+ */
+class WriteAheadJournalTest {
+    private static final String BEFORE = "first line\n";
+    private static final String APPENDED = "second line\n";
+
+    @Test
+    void missingAppendIsWritten() throws IOException {
+        Crash crash = crash();
+        assertEquals(1, WriteAheadJournal.recover(crash.journal));
+        assertEquals(BEFORE + APPENDED, read(crash.target));
+    }
+
+    @Test
+    void partialAppendIsCompleted() throws IOException {
+        Crash crash = crash();
+        write(crash.target, BEFORE + "sec");
+        WriteAheadJournal.recover(crash.journal);
+        assertEquals(BEFORE + APPENDED, read(crash.target));
+    }
+
+    @Test
+    void completeAppendIsKept() throws IOException {
+        Crash crash = crash();
+        write(crash.target, BEFORE + APPENDED);
+        WriteAheadJournal.recover(crash.journal);
+        assertEquals(BEFORE + APPENDED, read(crash.target));
+    }
+
+    @Test
+    void allocatedButUnwrittenRangeIsRewrittenInPlace() throws IOException {
+        Crash crash = crash();
+        // The file system grew the file before the crash but only part of the data reached the disk
+        write(crash.target, BEFORE + "seco" + "\0".repeat(APPENDED.length() - 4));
+        WriteAheadJournal.recover(crash.journal);
+        assertEquals(BEFORE + APPENDED, read(crash.target));
+
+        crash = crash();
+        write(crash.target, BEFORE + "\0".repeat(APPENDED.length()));
+        WriteAheadJournal.recover(crash.journal);
+        assertEquals(BEFORE + APPENDED, read(crash.target));
+    }
+
+    @Test
+    void damagedRangeOfTheSameFileIsRewrittenInPlace() throws IOException {
+        Crash crash = crash();
+        write(crash.target, BEFORE + "x".repeat(APPENDED.length()));
+        WriteAheadJournal.recover(crash.journal);
+        assertEquals(BEFORE + APPENDED, read(crash.target));
+    }
+
+    @Test
+    void replacedFileGetsTheDataAppended() throws IOException {
+        Crash crash = crash();
+        // Moved aside and replaced by a longer file, which must not be overwritten
+        Files.move(crash.target, crash.target.resolveSibling("moved.txt"));
+        String other = "someone else's file, long enough\n";
+        write(crash.target, other);
+        WriteAheadJournal.recover(crash.journal);
+        assertEquals(other + APPENDED, read(crash.target));
+    }
+
+    // Journals an append to a file and keeps a copy of the journal as a crash before the append would leave it
+    private static Crash crash() throws IOException {
+        File directory = Files.createTempDirectory("journal").toFile();
+        directory.deleteOnExit();
+        Path target = new File(directory, "log.txt").toPath();
+        write(target, BEFORE);
+
+        File journalFile = new File(directory, "journal.wal");
+        WriteAheadJournal journal = WriteAheadJournal.open(journalFile, 0);
+        journal.append(target.toAbsolutePath(), BEFORE.length(), ByteBuffer.wrap(APPENDED.getBytes(StandardCharsets.UTF_8)));
+        journal.sync();
+
+        File copy = new File(directory, "crash.wal");
+        Files.copy(journalFile.toPath(), copy.toPath());
+        journal.close();
+        return new Crash(target, copy);
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) throws IOException {
+        return Files.readString(file, StandardCharsets.UTF_8);
+    }
+
+    private record Crash(Path target, File journal) {
+    }
+}
@@ -0,0 +1,421 @@
+package com.lambda505.meteorutils.tools;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.lambda505.meteorutils.utils.*;
+import net.minecraft.Bootstrap;
+import net.minecraft.SharedConstants;
+import net.minecraft.registry.BuiltinRegistries;
+import net.minecraft.registry.RegistryWrapper;
+import net.minecraft.text.Text;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Replays a recorded chat log through the Chat Coord Logger and Private Message Archiver
+ * cores outside the game, as fast as possible. Writes the files the modules would have written
+ * and reports throughput and per-message latency.
+ * <p>
+ * Reads vanilla client logs ({@code latest.log}, {@code yyyy-MM-dd-n.log.gz}) or JSONL with one
+ * message per line, either a {@link Text} JSON or {@code {"time": epochMillis, "text": <Text JSON>}}.
+ * Run with {@code ./gradlew replay --args="<input> [options]"}.
+ */
+public class ChatReplay {
+    private static final String USAGE = """
+        Usage: ChatReplay <input> [options]
+          <input>                latest.log, yyyy-MM-dd-n.log.gz or .jsonl(.gz) of Text components
+          --output <dir>         Directory the log folders are written to (default: build/replay)
+          --server <name>        Server name used in file names (default: replay)
+          --player <name>        Local player name, for own message filters
+          --dimension <name>     Dimension leaks are logged in (default: overworld)
+          --date <yyyy-MM-dd>    Date of a log without one in its name (default: file date)
+          --modules <list>       coords, pm or coords,pm (default: coords,pm)
+          --leak-format <fmt>    Text or Binary (default: Binary)
+          --flush <policy>       PerBatch, Interval or OnTick (default: PerBatch)
+          --no-compress          Do not compress rotated archive files
+          --no-index             Do not maintain the archive search index""";
+
+    // Vanilla client log line: [12:34:56] [Render thread/INFO]: [System] [CHAT] <Steve> hi
+    private static final Pattern LOG_LINE = Pattern.compile("^\\[(\\d{2}):(\\d{2}):(\\d{2})\\] \\[[^\\]]+\\]: .*?\\[CHAT\\] (.*)$");
+    private static final Pattern LOG_DATE = Pattern.compile("^(\\d{4}-\\d{2}-\\d{2})-\\d+\\.log");
+    private static final long TICK_MILLIS = 1000;
+    private static final long UNTIMED_SPACING_MILLIS = 50;
+
+    private final Options options;
+    private final List<Consumer> consumers = new ArrayList<>();
+    private final Latencies parseLatencies = new Latencies();
+    private RegistryWrapper.WrapperLookup registries;
+    private LeakRecorder recorder;
+    private MessageArchive archive;
+    private long leaks;
+    private long lastTime;
+
+    private ChatReplay(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        try {
+            new ChatReplay(options).run();
+        } catch (IOException e) {
+            System.err.println("Replay failed: " + e.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private void run() throws IOException {
+        // Text components and the mod's logger need the game registries
+        SharedConstants.createGameVersion();
+        Bootstrap.initialize();
+        if (options.jsonl) registries = BuiltinRegistries.createWrapperLookup();
+
+        File output = options.output.getAbsoluteFile();
+        if (output.isDirectory() && output.list().length > 0) {
+            System.err.println("Warning: " + output + " is not empty, existing logs are appended to");
+        }
+
+        ClientContext.set(new ClientContext.Headless(options.server, output, options.player, options.dimension));
+        ServerSession session = ServerSession.start(options.server, output);
+        createConsumers(session);
+
+        System.out.println("Replaying " + options.input + " into " + output);
+        long start = System.nanoTime();
+        long messages = replay();
+        long dispatched = System.nanoTime();
+        finish();
+        long finished = System.nanoTime();
+
+        report(messages, dispatched - start, finished - start, output);
+    }
+
+    private void createConsumers(ServerSession session) {
+        if (options.coords) {
+            LeakRecorder.Config config = new LeakRecorder.Config() {
+                @Override
+                public LeakRecorder.LogFormat logFormat() {
+                    return options.leakFormat;
+                }
+
+                @Override
+                public AsyncLogWriter.FlushPolicy flushPolicy() {
+                    return options.flushPolicy;
+                }
+            };
+            recorder = new LeakRecorder(session.getDirectory("LambdaMeteorUtilities", "ChatCoordLeaks"), config,
+                (record, file, queued) -> leaks++);
+            recorder.getDirectory().ensureExists();
+            consumers.add(new Consumer("chat-coord-logger", recorder));
+        }
+
+        if (options.pm) {
+            MessageArchive.Config config = new MessageArchive.Config() {
+                @Override
+                public AsyncLogWriter.FlushPolicy flushPolicy() {
+                    return options.flushPolicy;
+                }
+
+                @Override
+                public boolean compressRotated() {
+                    return options.compress;
+                }
+
+                @Override
+                public boolean indexMessages() {
+                    return options.index;
+                }
+            };
+            archive = new MessageArchive(session.getServerDirectory("LambdaMeteorUtilities", "PrivateMessageArchiver"), config);
+            archive.start();
+            consumers.add(new Consumer("private-message-archiver", archive));
+        }
+    }
+
+    private long replay() throws IOException {
+        long messages = 0;
+        long nextTick = Long.MIN_VALUE;
+        LogClock clock = new LogClock(options.startDate());
+
+        try (BufferedReader reader = open(options.input)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                long parseStart = System.nanoTime();
+                ParsedChatMessage message = options.jsonl ? parseJson(line, clock) : parseLog(line, clock);
+                if (message == null || message.isEmpty()) continue;
+                message.getSender();
+                parseLatencies.add(System.nanoTime() - parseStart);
+
+                // The modules do their periodic work every 20 ticks
+                long time = message.getReceivedAt();
+                lastTime = time;
+                if (time >= nextTick) {
+                    if (nextTick != Long.MIN_VALUE) tick(time);
+                    nextTick = time + TICK_MILLIS;
+                }
+
+                for (Consumer consumer : consumers) {
+                    long consumerStart = System.nanoTime();
+                    consumer.target.onChatMessage(message);
+                    consumer.latencies.add(System.nanoTime() - consumerStart);
+                }
+                messages++;
+            }
+        }
+        return messages;
+    }
+
+    private void tick(long time) {
+        if (recorder != null) recorder.flush();
+        if (archive != null) archive.tick(time);
+    }
+
+    // What the modules do on deactivation, then wait for every background write
+    private void finish() {
+        if (recorder != null) recorder.flush();
+        if (archive != null) {
+            archive.endAllSessions("MODULE DEACTIVATED", lastTime);
+            archive.close();
+        }
+        AsyncLogWriter.drain(Long.MAX_VALUE);
+        if (options.pm && options.compress) {
+            ArchiveCompactor.drain(Long.MAX_VALUE);
+            AsyncLogWriter.drain(Long.MAX_VALUE);
+        }
+    }
+
+    private ParsedChatMessage parseLog(String line, LogClock clock) {
+        Matcher matcher = LOG_LINE.matcher(line);
+        if (!matcher.matches()) return null;
+
+        LocalTime time = LocalTime.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)),
+            Integer.parseInt(matcher.group(3)));
+        return new ParsedChatMessage(null, stripFormatting(matcher.group(4)), clock.at(time));
+    }
+
+    private ParsedChatMessage parseJson(String line, LogClock clock) {
+        if (line.isBlank()) return null;
+
+        try {
+            JsonElement json = JsonParser.parseString(line);
+            long time;
+            JsonElement textJson = json;
+            // A Text never has a "time" member, so it marks the envelope
+            if (json.isJsonObject() && json.getAsJsonObject().has("time")) {
+                JsonObject envelope = json.getAsJsonObject();
+                time = envelope.get("time").getAsLong();
+                textJson = envelope.get("text");
+                clock.last = time;
+            } else {
+                time = clock.next(UNTIMED_SPACING_MILLIS);
+            }
+
+            Text text = Text.Serialization.fromJsonTree(textJson, registries);
+            return text != null ? new ParsedChatMessage(text, text.getString(), time) : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static BufferedReader open(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) in = new GZIPInputStream(in, 1 << 16);
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 20);
+    }
+
+    private static String stripFormatting(String text) {
+        if (text.indexOf('§') < 0) return text;
+
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '§') i++;
+            else builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private void report(long messages, long dispatchNanos, long totalNanos, File output) throws IOException {
+        System.out.println();
+        System.out.printf("Messages:      %,d (%,d coordinate leaks logged)%n", messages, leaks);
+        System.out.printf("Dispatch:      %.2f s, %,.0f msg/s%n", dispatchNanos / 1e9, rate(messages, dispatchNanos));
+        System.out.printf("End to end:    %.2f s, %,.0f msg/s (including background writes and compression)%n",
+            totalNanos / 1e9, rate(messages, totalNanos));
+        System.out.println();
+        System.out.println("Latency per message (us)        p50       p90       p99     p99.9       max");
+        parseLatencies.print("parse + sender");
+        for (Consumer consumer : consumers) consumer.latencies.print(consumer.name);
+
+        System.out.println();
+        long[] totals = new long[2];
+        try (Stream<Path> files = Files.walk(new File(output, "LambdaMeteorUtilities").toPath())) {
+            files.filter(Files::isRegularFile).forEach(path -> {
+                totals[0]++;
+                totals[1] += path.toFile().length();
+            });
+        } catch (UncheckedIOException | NoSuchFileException ignored) {}
+        System.out.printf("Output:        %,d files, %,d bytes%n", totals[0], totals[1]);
+    }
+
+    private static double rate(long messages, long nanos) {
+        return nanos > 0 ? messages * 1e9 / nanos : 0;
+    }
+
+    private static class Consumer {
+        final String name;
+        final ChatMessageConsumer target;
+        final Latencies latencies = new Latencies();
+
+        Consumer(String name, ChatMessageConsumer target) {
+            this.name = name;
+            this.target = target;
+        }
+    }
+
+    // Every sample is kept, percentiles are exact
+    private static class Latencies {
+        private long[] samples = new long[1 << 16];
+        private int count;
+
+        void add(long nanos) {
+            if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+            samples[count++] = nanos;
+        }
+
+        void print(String name) {
+            if (count == 0) return;
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            System.out.printf("  %-28s%10.1f%10.1f%10.1f%10.1f%10.1f%n", name,
+                percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                percentile(sorted, 0.999), sorted[sorted.length - 1] / 1e3);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)] / 1e3;
+        }
+    }
+
+    // Turns log times of day into epoch millis, moving to the next day when the time wraps
+    private static class LogClock {
+        private LocalDate date;
+        private LocalTime lastTime;
+        long last;
+
+        LogClock(LocalDate date) {
+            this.date = date;
+            this.last = date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+
+        long at(LocalTime time) {
+            if (lastTime != null && time.toSecondOfDay() < lastTime.toSecondOfDay() - 12 * 3600) date = date.plusDays(1);
+            lastTime = time;
+            last = date.atTime(time).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            return last;
+        }
+
+        long next(long spacing) {
+            return last += spacing;
+        }
+    }
+
+    private static class Options {
+        File input;
+        File output = new File("build/replay");
+        String server = "replay";
+        String player;
+        String dimension = "overworld";
+        LocalDate date;
+        boolean jsonl;
+        boolean coords = true, pm = true;
+        LeakRecorder.LogFormat leakFormat = LeakRecorder.LogFormat.Binary;
+        AsyncLogWriter.FlushPolicy flushPolicy = AsyncLogWriter.FlushPolicy.PerBatch;
+        boolean compress = true, index = true;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "--output" -> options.output = new File(value(args, ++i, arg));
+                    case "--server" -> options.server = FileUtils.sanitizeFileName(value(args, ++i, arg));
+                    case "--player" -> options.player = value(args, ++i, arg);
+                    case "--dimension" -> options.dimension = value(args, ++i, arg);
+                    case "--date" -> {
+                        try {
+                            options.date = LocalDate.parse(value(args, ++i, arg));
+                        } catch (DateTimeParseException e) {
+                            throw new IllegalArgumentException("Invalid date: " + args[i]);
+                        }
+                    }
+                    case "--modules" -> {
+                        Set<String> modules = new HashSet<>(Arrays.asList(value(args, ++i, arg).split(",")));
+                        options.coords = modules.remove("coords");
+                        options.pm = modules.remove("pm");
+                        if (!modules.isEmpty() || !(options.coords || options.pm)) {
+                            throw new IllegalArgumentException("Unknown modules: " + args[i]);
+                        }
+                    }
+                    case "--leak-format" -> options.leakFormat = parseEnum(LeakRecorder.LogFormat.class, value(args, ++i, arg));
+                    case "--flush" -> options.flushPolicy = parseEnum(AsyncLogWriter.FlushPolicy.class, value(args, ++i, arg));
+                    case "--no-compress" -> options.compress = false;
+                    case "--no-index" -> options.index = false;
+                    default -> {
+                        if (arg.startsWith("--") || options.input != null) throw new IllegalArgumentException("Unexpected argument: " + arg);
+                        options.input = new File(arg);
+                    }
+                }
+            }
+
+            if (options.input == null) throw new IllegalArgumentException("No input file");
+            if (!options.input.isFile()) throw new IllegalArgumentException("Not a file: " + options.input);
+            String name = options.input.getName();
+            options.jsonl = name.endsWith(".jsonl") || name.endsWith(".jsonl.gz");
+            return options;
+        }
+
+        // The log date from the option, an archived log's name or the file's modification time
+        LocalDate startDate() {
+            if (date != null) return date;
+            Matcher matcher = LOG_DATE.matcher(input.getName());
+            if (matcher.find()) return LocalDate.parse(matcher.group(1));
+            return LocalDate.ofInstant(Instant.ofEpochMilli(input.lastModified()), ZoneId.systemDefault());
+        }
+
+        private static String value(String[] args, int i, String option) {
+            if (i >= args.length) throw new IllegalArgumentException("Missing value for " + option);
+            return args[i];
+        }
+
+        private static <E extends Enum<E>> E parseEnum(Class<E> type, String value) {
+            for (E constant : type.getEnumConstants()) {
+                if (constant.name().equalsIgnoreCase(value)) return constant;
+            }
+            throw new IllegalArgumentException("Unknown value: " + value);
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package com.lambda505.meteorutils.tools;
+
+import com.lambda505.meteorutils.utils.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Answers aggregate questions about a {@code LambdaMeteorUtilities} folder: top leakers, leak density
+ * per region, private message volume per player and day, or every message containing a term.
+ * <p>
+ * The leak logs ({@code ccl_*.txt}, {@code ccl_*.bin}) and the archive files of every server are cut
+ * into units, text files into line-aligned slices of {@value #SLICE_BYTES} bytes that are memory-mapped,
+ * and the units are scanned by a parallel stream on a fork-join pool. Each unit fills its own partial
+ * result, partials are merged at the end. Only plain Java classes of the mod are used, so the game is
+ * not needed. Run with {@code ./gradlew query --args="<directory> <query> [options]"}.
+ */
+public class LogQuery {
+    private static final String USAGE = """
+        Usage: LogQuery <directory> <query> [options]
+          <directory>            LambdaMeteorUtilities folder, e.g. .minecraft/LambdaMeteorUtilities
+          <query>                top-leakers, leak-density, pm-volume or grep <term>
+          --server <name>        Only this server, as in file names (e.g. 2b2t_org)
+          --player <name>        Only this player
+          --region <blocks>      Region size of leak-density (default: 1000)
+          --limit <n>            Rows per server (default: 20, all for pm-volume and grep)
+          --threads <n>          Worker threads (default: available processors)""";
+
+    private static final String LEAK_FOLDER = "ChatCoordLeaks";
+    private static final String ARCHIVE_FOLDER = "PrivateMessageArchiver";
+    private static final int SLICE_BYTES = 64 * 1024 * 1024;
+    private static final int DEFAULT_LIMIT = 20;
+
+    private final Options options;
+
+    private LogQuery(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        try {
+            new LogQuery(options).run();
+        } catch (IOException | ExecutionException e) {
+            System.err.println("Query failed: " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private void run() throws IOException, ExecutionException, InterruptedException {
+        Supplier<Aggregate> query = switch (options.query) {
+            case "top-leakers" -> TopLeakers::new;
+            case "leak-density" -> () -> new LeakDensity(options.region);
+            case "pm-volume" -> PmVolume::new;
+            default -> () -> new Grep(options.term);
+        };
+        Aggregate probe = query.get();
+
+        long start = System.nanoTime();
+        List<Unit> units = new ArrayList<>();
+        if (probe.readsLeaks()) collectLeakUnits(units);
+        if (probe.readsMessages()) collectArchiveUnits(units);
+        long bytes = 0;
+        for (Unit unit : units) bytes += unit.end - unit.start;
+
+        // Units are independent, the merge keeps their order so grep prints in file order
+        ForkJoinPool pool = new ForkJoinPool(options.threads);
+        Aggregate result;
+        try {
+            result = pool.submit(() -> units.parallelStream()
+                .map(unit -> scan(unit, query.get()))
+                .reduce(Aggregate::merge)
+                .orElseGet(query)).get();
+        } finally {
+            pool.shutdown();
+        }
+        long nanos = System.nanoTime() - start;
+
+        result.print(System.out, options.limit);
+        System.out.println();
+        System.out.printf("Scanned %,d units, %,d bytes in %.2f s (%,.0f MB/s) on %d threads%n",
+            units.size(), bytes, nanos / 1e9, bytes / 1e6 / Math.max(nanos / 1e9, 1e-9), options.threads);
+    }
+
+    private void collectLeakUnits(List<Unit> units) throws IOException {
+        File[] files = new File(options.directory, LEAK_FOLDER).listFiles((dir, name) -> name.startsWith("ccl_")
+            && !name.endsWith("_export.txt") && (name.endsWith(".txt") || name.endsWith(".bin")));
+        if (files == null) return;
+
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            String server = name.substring(4, name.length() - 4);
+            if (options.server != null && !options.server.equals(server)) continue;
+
+            if (name.endsWith(".bin")) units.add(new Unit(Unit.Kind.LeakBinary, file, server, null, 0, file.length()));
+            else slice(Unit.Kind.LeakText, file, server, null, units);
+        }
+    }
+
+    private void collectArchiveUnits(List<Unit> units) throws IOException {
+        File[] servers = new File(options.directory, ARCHIVE_FOLDER).listFiles(File::isDirectory);
+        if (servers == null) return;
+
+        Arrays.sort(servers);
+        for (File serverDirectory : servers) {
+            String server = serverDirectory.getName();
+            if (options.server != null && !options.server.equals(server)) continue;
+
+            File[] files = serverDirectory.listFiles((dir, name) -> !name.startsWith("pma_debug_")
+                && (name.endsWith(".txt") || name.endsWith(".txt.gz")));
+            if (files == null) continue;
+
+            // Each player's rotated segments by rotation time, then the live file, as ArchiveReader.segments
+            Arrays.sort(files, Comparator.comparing((File file) -> ArchiveReader.playerFromFileName(file.getName()))
+                .thenComparing(file -> file.getName().equals(ArchiveReader.playerFromFileName(file.getName()) + ".txt"))
+                .thenComparing(File::getName));
+            for (File file : files) {
+                String player = ArchiveReader.playerFromFileName(file.getName());
+                if (options.player != null && !options.player.equalsIgnoreCase(player)) continue;
+
+                if (ArchiveReader.isCompressed(file)) units.add(new Unit(Unit.Kind.Compressed, file, server, player, 0, file.length()));
+                else slice(Unit.Kind.Archive, file, server, player, units);
+            }
+        }
+    }
+
+    // Cuts a text file into slices that start right after a line separator
+    private static void slice(Unit.Kind kind, File file, String server, String player, List<Unit> units) throws IOException {
+        long length = file.length();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer probe = ByteBuffer.allocate(4096);
+            long start = 0;
+            while (start < length) {
+                long end = Math.min(length, start + SLICE_BYTES);
+                while (end < length) {
+                    probe.clear();
+                    int read = channel.read(probe, end);
+                    if (read <= 0) {
+                        end = length;
+                        break;
+                    }
+                    int newline = indexOf(probe, read, (byte) '\n');
+                    if (newline >= 0) {
+                        end += newline + 1;
+                        break;
+                    }
+                    end += read;
+                }
+                units.add(new Unit(kind, file, server, player, start, end));
+                start = end;
+            }
+        }
+    }
+
+    private static int indexOf(ByteBuffer buffer, int length, byte value) {
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(i) == value) return i;
+        }
+        return -1;
+    }
+
+    // Runs on a pool thread
+    private Aggregate scan(Unit unit, Aggregate aggregate) {
+        try {
+            switch (unit.kind) {
+                case LeakBinary -> scanBinary(unit, aggregate);
+                case Compressed -> scanCompressed(unit, aggregate);
+                default -> scanMapped(unit, aggregate);
+            }
+        } catch (IOException e) {
+            System.err.println("Skipped " + unit.file + ": " + e.getMessage());
+        }
+        return aggregate;
+    }
+
+    private void scanMapped(Unit unit, Aggregate aggregate) throws IOException {
+        try (FileChannel channel = FileChannel.open(unit.file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, unit.start, unit.end - unit.start);
+            LineHandler handler = new LineHandler(unit, aggregate);
+            byte[] line = new byte[1024];
+            int lineStart = 0;
+            int limit = buffer.limit();
+            for (int i = 0; i <= limit; i++) {
+                if (i < limit && buffer.get(i) != '\n') continue;
+
+                int length = i - lineStart;
+                if (length > 0 && buffer.get(lineStart + length - 1) == '\r') length--;
+                if (length > 0) {
+                    if (line.length < length) line = new byte[Math.max(length, line.length * 2)];
+                    buffer.get(lineStart, line, 0, length);
+                    handler.accept(new String(line, 0, length, StandardCharsets.UTF_8));
+                }
+                lineStart = i + 1;
+            }
+        }
+    }
+
+    private void scanCompressed(Unit unit, Aggregate aggregate) throws IOException {
+        LineHandler handler = new LineHandler(unit, aggregate);
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(ArchiveReader.open(unit.file, 0), StandardCharsets.UTF_8), 1 << 16)) {
+            String line;
+            while ((line = lines.readLine()) != null) handler.accept(line);
+        }
+    }
+
+    private void scanBinary(Unit unit, Aggregate aggregate) throws IOException {
+        LeakRecord leak = new LeakRecord();
+        try (LeakRecordReader reader = new LeakRecordReader(unit.file, unit.end)) {
+            while (reader.next(leak)) {
+                if (acceptsPlayer(leak.player)) aggregate.leak(unit.server, leak);
+            }
+        }
+    }
+
+    private boolean acceptsPlayer(String player) {
+        return options.player == null || options.player.equalsIgnoreCase(player);
+    }
+
+    // Parses the lines of one unit into reused records
+    private class LineHandler {
+        final Unit unit;
+        final Aggregate aggregate;
+        final LeakRecord leak = new LeakRecord();
+        final StorageRecord message = new StorageRecord();
+
+        LineHandler(Unit unit, Aggregate aggregate) {
+            this.unit = unit;
+            this.aggregate = aggregate;
+        }
+
+        void accept(String line) {
+            if (unit.kind == Unit.Kind.LeakText) {
+                if (LeakLogFormat.parse(line, leak) && acceptsPlayer(leak.player)) aggregate.leak(unit.server, leak);
+            } else if (ArchiveFileStorage.parse(line, unit.server, unit.player, message) && message.type != StorageRecord.Type.Marker) {
+                aggregate.message(message);
+            }
+        }
+    }
+
+    // A byte range of one file, scanned by one task
+    private record Unit(Kind kind, File file, String server, String player, long start, long end) {
+        enum Kind {
+            LeakText,
+            LeakBinary,
+            Archive,
+            Compressed
+        }
+    }
+
+    /**
+     * Partial result of one unit. Records are only valid during the call.
+     */
+    private abstract static class Aggregate {
+        boolean readsLeaks() {
+            return false;
+        }
+
+        boolean readsMessages() {
+            return false;
+        }
+
+        void leak(String server, LeakRecord leak) {
+        }
+
+        void message(StorageRecord message) {
+        }
+
+        // Called with the later unit as other, so results merge in file order
+        abstract Aggregate merge(Aggregate other);
+
+        abstract void print(PrintStream out, int limit);
+    }
+
+    private static class TopLeakers extends Aggregate {
+        final Map<String, Map<String, Long>> counts = new TreeMap<>();
+
+        @Override
+        boolean readsLeaks() {
+            return true;
+        }
+
+        @Override
+        void leak(String server, LeakRecord leak) {
+            counts.computeIfAbsent(server, key -> new HashMap<>()).merge(leak.player, 1L, Long::sum);
+        }
+
+        @Override
+        Aggregate merge(Aggregate other) {
+            mergeCounts(counts, ((TopLeakers) other).counts);
+            return this;
+        }
+
+        @Override
+        void print(PrintStream out, int limit) {
+            for (Map.Entry<String, Map<String, Long>> server : counts.entrySet()) {
+                out.println(server.getKey() + ":");
+                for (Map.Entry<String, Long> player : top(server.getValue(), limit < 0 ? DEFAULT_LIMIT : limit)) {
+                    out.printf("  %-20s%,12d%n", player.getKey(), player.getValue());
+                }
+            }
+        }
+    }
+
+    private static class LeakDensity extends Aggregate {
+        final int region;
+        // Server and dimension, then "x z" of the region's corner
+        final Map<String, Map<String, Long>> counts = new TreeMap<>();
+
+        LeakDensity(int region) {
+            this.region = region;
+        }
+
+        @Override
+        boolean readsLeaks() {
+            return true;
+        }
+
+        @Override
+        void leak(String server, LeakRecord leak) {
+            String key = server + " " + (leak.dimension != null ? leak.dimension : "unknown");
+            String corner = Math.floorDiv(leak.x, region) * (long) region + " " + Math.floorDiv(leak.z, region) * (long) region;
+            counts.computeIfAbsent(key, k -> new HashMap<>()).merge(corner, 1L, Long::sum);
+        }
+
+        @Override
+        Aggregate merge(Aggregate other) {
+            mergeCounts(counts, ((LeakDensity) other).counts);
+            return this;
+        }
+
+        @Override
+        void print(PrintStream out, int limit) {
+            for (Map.Entry<String, Map<String, Long>> dimension : counts.entrySet()) {
+                out.println(dimension.getKey() + " (" + region + " block regions, x z of the corner):");
+                for (Map.Entry<String, Long> corner : top(dimension.getValue(), limit < 0 ? DEFAULT_LIMIT : limit)) {
+                    out.printf("  %-24s%,12d%n", corner.getKey(), corner.getValue());
+                }
+            }
+        }
+    }
+
+    private static class PmVolume extends Aggregate {
+        // Server, then player and day, then incoming and outgoing
+        final Map<String, Map<String, long[]>> counts = new TreeMap<>();
+        final Map<Long, String> days = new HashMap<>();
+
+        @Override
+        boolean readsMessages() {
+            return true;
+        }
+
+        @Override
+        void message(StorageRecord message) {
+            String key = message.player + " " + day(message.time);
+            long[] volume = counts.computeIfAbsent(message.server, k -> new TreeMap<>()).computeIfAbsent(key, k -> new long[2]);
+            volume[message.type == StorageRecord.Type.Incoming ? 0 : 1]++;
+        }
+
+        // Lines of the same day share one formatted date
+        private String day(long time) {
+            if (time < 0) return "unknown";
+            long epochDay = Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+            return days.computeIfAbsent(epochDay, d -> LocalDate.ofEpochDay(d).toString());
+        }
+
+        @Override
+        Aggregate merge(Aggregate other) {
+            for (Map.Entry<String, Map<String, long[]>> server : ((PmVolume) other).counts.entrySet()) {
+                Map<String, long[]> target = counts.computeIfAbsent(server.getKey(), k -> new TreeMap<>());
+                for (Map.Entry<String, long[]> row : server.getValue().entrySet()) {
+                    target.merge(row.getKey(), row.getValue(), (a, b) -> new long[]{a[0] + b[0], a[1] + b[1]});
+                }
+            }
+            return this;
+        }
+
+        @Override
+        void print(PrintStream out, int limit) {
+            for (Map.Entry<String, Map<String, long[]>> server : counts.entrySet()) {
+                out.println(server.getKey() + ":");
+                out.printf("  %-20s%-12s%10s%10s%n", "player", "day", "in", "out");
+                int rows = 0;
+                for (Map.Entry<String, long[]> row : server.getValue().entrySet()) {
+                    if (limit >= 0 && rows++ >= limit) break;
+                    String[] key = row.getKey().split(" ", 2);
+                    out.printf("  %-20s%-12s%,10d%,10d%n", key[0], key[1], row.getValue()[0], row.getValue()[1]);
+                }
+            }
+        }
+    }
+
+    private static class Grep extends Aggregate {
+        final String term;
+        final List<String> lines = new ArrayList<>();
+
+        Grep(String term) {
+            this.term = term;
+        }
+
+        @Override
+        boolean readsLeaks() {
+            return true;
+        }
+
+        @Override
+        boolean readsMessages() {
+            return true;
+        }
+
+        @Override
+        void leak(String server, LeakRecord leak) {
+            if (containsIgnoreCase(leak.message, term)) {
+                lines.add(server + " " + LeakLogFormat.format(leak));
+            }
+        }
+
+        @Override
+        void message(StorageRecord message) {
+            if (containsIgnoreCase(message.message, term)) {
+                lines.add(message.server + " (" + message.player + ") "
+                    + ArchiveFileStorage.encode(message, message.time >= 0, LogEncoder.get().reset()).toString().strip());
+            }
+        }
+
+        @Override
+        Aggregate merge(Aggregate other) {
+            lines.addAll(((Grep) other).lines);
+            return this;
+        }
+
+        @Override
+        void print(PrintStream out, int limit) {
+            int count = limit < 0 ? lines.size() : Math.min(limit, lines.size());
+            for (int i = 0; i < count; i++) out.println(lines.get(i));
+            out.printf("%,d matching lines%n", lines.size());
+        }
+
+        // Compares in place, lower-casing every line of a multi-GB archive would dominate the scan
+        private static boolean containsIgnoreCase(String text, String term) {
+            if (text == null) return false;
+            for (int i = 0, last = text.length() - term.length(); i <= last; i++) {
+                if (text.regionMatches(true, i, term, 0, term.length())) return true;
+            }
+            return false;
+        }
+    }
+
+    private static void mergeCounts(Map<String, Map<String, Long>> target, Map<String, Map<String, Long>> source) {
+        for (Map.Entry<String, Map<String, Long>> group : source.entrySet()) {
+            Map<String, Long> counts = target.computeIfAbsent(group.getKey(), k -> new HashMap<>());
+            group.getValue().forEach((key, count) -> counts.merge(key, count, Long::sum));
+        }
+    }
+
+    private static List<Map.Entry<String, Long>> top(Map<String, Long> counts, int limit) {
+        return counts.entrySet().stream()
+            .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+            .limit(limit)
+            .toList();
+    }
+
+    private static class Options {
+        File directory;
+        String query;
+        String term;
+        String server;
+        String player;
+        int region = 1000;
+        int limit = -1;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "--server" -> options.server = value(args, ++i, arg);
+                    case "--player" -> options.player = value(args, ++i, arg);
+                    case "--region" -> options.region = positive(args, ++i, arg);
+                    case "--limit" -> options.limit = positive(args, ++i, arg);
+                    case "--threads" -> options.threads = positive(args, ++i, arg);
+                    default -> {
+                        if (arg.startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + arg);
+                        if (options.directory == null) options.directory = new File(arg);
+                        else if (options.query == null) options.query = arg;
+                        else if ("grep".equals(options.query) && options.term == null) options.term = arg;
+                        else throw new IllegalArgumentException("Unexpected argument: " + arg);
+                    }
+                }
+            }
+
+            if (options.directory == null) throw new IllegalArgumentException("No directory");
+            if (!options.directory.isDirectory()) throw new IllegalArgumentException("Not a directory: " + options.directory);
+            if (options.query == null) throw new IllegalArgumentException("No query");
+            if (!Set.of("top-leakers", "leak-density", "pm-volume", "grep").contains(options.query)) {
+                throw new IllegalArgumentException("Unknown query: " + options.query);
+            }
+            if ("grep".equals(options.query) && (options.term == null || options.term.isEmpty())) {
+                throw new IllegalArgumentException("No term to grep for");
+            }
+            return options;
+        }
+
+        private static String value(String[] args, int i, String option) {
+            if (i >= args.length) throw new IllegalArgumentException("Missing value for " + option);
+            return args[i];
+        }
+
+        private static int positive(String[] args, int i, String option) {
+            try {
+                int value = Integer.parseInt(value(args, i, option));
+                if (value > 0) return value;
+            } catch (NumberFormatException ignored) {}
+            throw new IllegalArgumentException("Expected a positive number for " + option);
+        }
+    }
+}